@@ -39,6 +39,10 @@ subprojects {
         runtimeOnly("org.apache.logging.log4j:log4j-core:2.20.0")
         runtimeOnly("org.apache.logging.log4j:log4j-slf4j2-impl:2.20.0")
         runtimeOnly("org.lwjgl:lwjgl::$lwjglNatives")
+
+        testImplementation(platform("org.junit:junit-bom:5.10.0"))
+        testImplementation("org.junit.jupiter:junit-jupiter")
+        testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     }
 
     publishing {
@@ -66,6 +70,10 @@ subprojects {
         options.encoding = "UTF-8"
     }
 
+    tasks.test {
+        useJUnitPlatform()
+    }
+
     tasks.build {
         dependsOn(tasks.shadowJar)
     }
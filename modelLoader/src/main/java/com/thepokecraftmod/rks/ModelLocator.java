@@ -1,6 +1,11 @@
 package com.thepokecraftmod.rks;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 /**
@@ -10,10 +15,27 @@ public interface ModelLocator {
 
     byte[] getFile(String name);
 
+    /**
+     * Returns the contents of a file without copying them where possible. Locators backed by files on disk should
+     * override this with {@link #mapFile(Path)}. The returned buffer must be treated as read only, but its position,
+     * limit and byte order belong to the caller.
+     */
+    default ByteBuffer getFileBuffer(String name) {
+        return ByteBuffer.wrap(getFile(name));
+    }
+
     BufferedImage readImage(List<String> layers);
 
     /**
      * Expects a Native Byte Buffer
      */
     BufferedImage readImage(String name);
+
+    static ByteBuffer mapFile(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map " + path, e);
+        }
+    }
 }
@@ -7,12 +7,11 @@ import com.thepokecraftmod.rks.model.animation.BoneNode;
 import com.thepokecraftmod.rks.model.animation.Skeleton;
 import com.thepokecraftmod.rks.model.bone.Bone;
 import com.thepokecraftmod.rks.model.config.ModelConfig;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.assimp.*;
 import org.lwjgl.system.MemoryUtil;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -25,16 +24,14 @@ public class AssimpModelLoader {
         var fileIo = AIFileIO.create()
                 .OpenProc((pFileIO, pFileName, openMode) -> {
                     var fileName = MemoryUtil.memUTF8(pFileName);
-                    var bytes = locator.getFile(fileName);
-                    var data = BufferUtils.createByteBuffer(bytes.length);
-                    data.put(bytes);
-                    data.flip();
+                    var data = locator.getFileBuffer(fileName).duplicate();
 
                     return AIFile.create()
                             .ReadProc((pFile, pBuffer, size, count) -> {
                                 var max = Math.min(data.remaining() / size, count);
-                                MemoryUtil.memCopy(MemoryUtil.memAddress(data), pBuffer, max * size);
-                                data.position((int) (data.position() + max * size));
+                                var length = (int) (max * size);
+                                MemoryUtil.memByteBuffer(pBuffer, length).put(data.slice(data.position(), length));
+                                data.position(data.position() + length);
                                 return max;
                             })
                             .SeekProc((pFile, offset, origin) -> {
@@ -71,7 +68,10 @@ public class AssimpModelLoader {
         return new Model(materials, meshes, skeleton, config);
     }
 
-    private static ModelConfig readConfig(ModelLocator locator) {
+    /**
+     * Reads the config of a model without importing it
+     */
+    public static ModelConfig readConfig(ModelLocator locator) {
         var json = new String(locator.getFile("model.config.json"));
         return ModelConfig.GSON.fromJson(json, ModelConfig.class);
     }
@@ -83,50 +83,36 @@ public class AssimpModelLoader {
             var mesh = AIMesh.create(scene.mMeshes().get(i));
             var name = mesh.mName().dataString();
             var material = mesh.mMaterialIndex();
-            var indices = new ArrayList<Integer>();
-            var positions = new ArrayList<Vector3f>();
-            var uvs = new ArrayList<Vector2f>();
-            var normals = new ArrayList<Vector3f>();
-            var tangents = new ArrayList<Vector3f>();
-            var biTangents = new ArrayList<Vector3f>();
+            var vertexCount = mesh.mNumVertices();
+            var positions = BufferUtils.createFloatBuffer(vertexCount * 3);
+            var uvs = BufferUtils.createFloatBuffer(vertexCount * 2);
+            var normals = BufferUtils.createFloatBuffer(vertexCount * 3);
+            var tangents = BufferUtils.createFloatBuffer(vertexCount * 3);
+            var biTangents = BufferUtils.createFloatBuffer(vertexCount * 3);
             var bones = new ArrayList<Bone>();
 
             // Indices
-            var aiFaces = mesh.mFaces();
-            for (var j = 0; j < mesh.mNumFaces(); j++) {
-                var aiFace = aiFaces.get(j);
-                indices.add(aiFace.mIndices().get(0));
-                indices.add(aiFace.mIndices().get(1));
-                indices.add(aiFace.mIndices().get(2));
-            }
-
-            // Positions
-            var aiVert = mesh.mVertices();
-            for (var j = 0; j < mesh.mNumVertices(); j++)
-                positions.add(new Vector3f(aiVert.get(j).x(), aiVert.get(j).y(), aiVert.get(j).z()));
+            var facesAddress = mesh.mFaces().address();
+            var indexCount = 0;
+            for (var j = 0; j < mesh.mNumFaces(); j++) indexCount += AIFace.nmNumIndices(facesAddress + (long) j * AIFace.SIZEOF);
+            var indices = BufferUtils.createIntBuffer(indexCount);
+            for (var j = 0; j < mesh.mNumFaces(); j++) indices.put(AIFace.nmIndices(facesAddress + (long) j * AIFace.SIZEOF));
+            indices.flip();
+
+            // Positions, Normals, Tangents & Bi-Tangents share Assimp's packed vec3 layout, so they can be copied as is
+            copyVectors(mesh.mVertices(), positions, vertexCount);
+            copyVectors(mesh.mNormals(), normals, vertexCount);
+            copyVectors(mesh.mTangents(), tangents, vertexCount);
+            copyVectors(mesh.mBitangents(), biTangents, vertexCount);
 
             // UV's
             var aiUV = mesh.mTextureCoords(0);
-            if (aiUV != null) while (aiUV.remaining() > 0) {
-                var uv = aiUV.get();
-                uvs.add(new Vector2f(uv.x(), 1 - uv.y()));
+            if (aiUV != null) for (var j = 0; j < vertexCount; j++) {
+                var uv = aiUV.address() + (long) j * AIVector3D.SIZEOF;
+                uvs.put(j * 2, AIVector3D.nx(uv));
+                uvs.put(j * 2 + 1, 1 - AIVector3D.ny(uv));
             }
 
-            // Normals
-            var aiNormals = mesh.mNormals();
-            if (aiNormals != null) for (var j = 0; j < mesh.mNumVertices(); j++)
-                normals.add(new Vector3f(aiNormals.get(j).x(), aiNormals.get(j).y(), aiNormals.get(j).z()));
-
-            // Tangents
-            var aiTangents = mesh.mTangents();
-            if (aiTangents != null) for (var j = 0; j < mesh.mNumVertices(); j++)
-                tangents.add(new Vector3f(aiTangents.get(j).x(), aiTangents.get(j).y(), aiTangents.get(j).z()));
-
-            // Bi-Tangents
-            var aiBiTangents = mesh.mBitangents();
-            if (aiBiTangents != null) for (var j = 0; j < mesh.mNumVertices(); j++)
-                biTangents.add(new Vector3f(aiBiTangents.get(j).x(), aiBiTangents.get(j).y(), aiBiTangents.get(j).z()));
-
             // Bones
             if (mesh.mBones() != null) {
                 var aiBones = requireNonNull(mesh.mBones());
@@ -140,13 +126,17 @@ public class AssimpModelLoader {
             }
 
             skeleton.store(bones.toArray(Bone[]::new));
-            meshes[i] = new Mesh(name, material, indices, positions, uvs, normals, tangents, biTangents, bones);
+            meshes[i] = new Mesh(name, material, vertexCount, indices, positions, uvs, normals, tangents, biTangents, bones);
         }
 
         skeleton.calculateBoneData();
         return meshes;
     }
 
+    private static void copyVectors(AIVector3D.Buffer src, FloatBuffer dst, int vertexCount) {
+        if (src != null) MemoryUtil.memCopy(src.address(), MemoryUtil.memAddress(dst), (long) vertexCount * AIVector3D.SIZEOF);
+    }
+
     private static String[] readMaterialData(AIScene scene) {
         var materials = new String[scene.mNumMaterials()];
 
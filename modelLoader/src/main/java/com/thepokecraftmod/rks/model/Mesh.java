@@ -1,19 +1,24 @@
 package com.thepokecraftmod.rks.model;
 
 import com.thepokecraftmod.rks.model.bone.Bone;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.List;
 
+/**
+ * Mesh data stored as tightly packed, off-heap buffers. Attributes the source model does not provide are left zeroed.
+ * positions, normals, tangents and biTangents hold 3 floats per vertex and uvs hold 2.
+ */
 public record Mesh(
         String name,
         int material,
-        List<Integer> indices,
-        List<Vector3f> positions,
-        List<Vector2f> uvs,
-        List<Vector3f> normals,
-        List<Vector3f> tangents,
-        List<Vector3f> biTangents,
+        int vertexCount,
+        IntBuffer indices,
+        FloatBuffer positions,
+        FloatBuffer uvs,
+        FloatBuffer normals,
+        FloatBuffer tangents,
+        FloatBuffer biTangents,
         List<Bone> bones
 ) {}
@@ -1,9 +1,6 @@
 package com.thepokecraftmod.rks.model.animation;
 
-import com.thepokecraftmod.rks.model.animation.tranm.*;
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
-import org.joml.Vector3f;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,20 +16,52 @@ public class Animation {
     public boolean ignoreInstancedTime = false;
 
     public Animation(String name, com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation, Skeleton skeleton) {
+        this(name, rawAnimation, skeleton, false);
+    }
+
+    /**
+     * @param decodeKeys decode every key into {@link TransformStorage} up front instead of reading them from the
+     *                   FlatBuffer with {@link TranmKeyframes}. Sampling gets cheaper, memory use grows several times.
+     */
+    public Animation(String name, com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation, Skeleton skeleton, boolean decodeKeys) {
+        this(name, rawAnimation, skeleton, decodeKeys, null);
+    }
+
+    /**
+     * Decodes every key and drops the ones {@link KeyframeReduction} finds interpolation can rebuild. Costs more at
+     * import, but sampling, baking and the keyframes uploaded for GPU evaluation all shrink with the key count.
+     */
+    public Animation(String name, com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation, Skeleton skeleton, KeyframeReduction reduction) {
+        this(name, rawAnimation, skeleton, true, reduction);
+    }
+
+    private Animation(String name, com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation, Skeleton skeleton, boolean decodeKeys, KeyframeReduction reduction) {
         this.name = name;
         this.ticksPerSecond = 60;
         this.skeleton = skeleton;
-        this.animationNodes = fillAnimationNodesTrinity(rawAnimation);
+        this.animationNodes = readAnimationNodesTrinity(rawAnimation, decodeKeys);
         this.animationDuration = findLastKeyTime();
 
         for (var animationNode : animationNodes) {
             if (animationNode != null) {
-                if (animationNode.positionKeys.getAtTime((int) animationDuration - 10) == null)
-                    animationNode.positionKeys.add(animationDuration, animationNode.positionKeys.get(0).value());
-                if (animationNode.rotationKeys.getAtTime((int) animationDuration - 10) == null)
-                    animationNode.rotationKeys.add(animationDuration, animationNode.rotationKeys.get(0).value());
-                if (animationNode.scaleKeys.getAtTime((int) animationDuration - 10) == null)
-                    animationNode.scaleKeys.add(animationDuration, animationNode.scaleKeys.get(0).value());
+                if (!animationNode.positionKeys.hasKeyAt((int) animationDuration - 10))
+                    animationNode.positionKeys.addCopy((float) animationDuration, 0);
+                if (!animationNode.rotationKeys.hasKeyAt((int) animationDuration - 10))
+                    animationNode.rotationKeys.addCopy((float) animationDuration, 0);
+                if (!animationNode.scaleKeys.hasKeyAt((int) animationDuration - 10))
+                    animationNode.scaleKeys.addCopy((float) animationDuration, 0);
+            }
+        }
+
+        // After the loop keys are added, so they are reduced like any other key
+        if (reduction != null) {
+            for (var i = 0; i < animationNodes.length; i++) {
+                var node = animationNodes[i];
+                if (node != null) animationNodes[i] = new AnimationNode(
+                        reduction.reducePosition(node.positionKeys),
+                        reduction.reduceRotation(node.rotationKeys),
+                        reduction.reduceScale(node.scaleKeys)
+                );
             }
         }
     }
@@ -41,9 +70,7 @@ public class Animation {
         var duration = 0d;
 
         for (var value : this.animationNodes) {
-            if (value != null)
-                for (var key : value.positionKeys) //noinspection ManualMinMaxCalculation
-                    duration = key.time() > duration ? key.time() : duration;
+            if (value != null) duration = Math.max(duration, value.positionKeys.getMaxTime());
         }
 
         return duration;
@@ -54,105 +81,57 @@ public class Animation {
         return (float) (ticksPassed % animationDuration);
     }
 
+    /**
+     * Convenience for one-off sampling. Use a {@link SkeletonEvaluator} when sampling more than once.
+     */
     public Matrix4f[] getFrameTransform(int frame) {
-        var boneTransforms = new Matrix4f[this.skeleton.bones.length];
-        readNodeHierarchy(frame, skeleton.rootNode, new Matrix4f().identity(), boneTransforms);
-        return boneTransforms;
+        return getFrameTransform((float) frame);
     }
 
     public Matrix4f[] getFrameTransform(double secondsPassed) {
-        var boneTransforms = new Matrix4f[this.skeleton.bones.length];
-        readNodeHierarchy(getAnimationTime(secondsPassed), skeleton.rootNode, new Matrix4f().identity(), boneTransforms);
-        return boneTransforms;
+        return getFrameTransform(getAnimationTime(secondsPassed));
     }
 
-    public void readNodeHierarchy(float animTime, BoneNode node, Matrix4f parentTransform, Matrix4f[] boneTransforms) {
-        var name = node.name;
-        var nodeTransform = new Matrix4f(node.transform);
-
-        var animationNodeId = nodeIdMap.getOrDefault(name, -1);
-        if (animationNodeId != -1) {
-            var animNode = animationNodes[animationNodeId];
-
-            if (animNode != null) {
-                var scale = AnimationMath.calcInterpolatedScaling(animTime, animNode);
-                var rotation = AnimationMath.calcInterpolatedRotation(animTime, animNode);
-                var translation = AnimationMath.calcInterpolatedPosition(animTime, animNode);
-                nodeTransform.identity().translationRotateScale(translation, rotation, scale);
-            }
-        }
-
-        var globalTransform = parentTransform.mul(nodeTransform, new Matrix4f());
-        var bone = skeleton.getBone(name);
-        if (bone != null) boneTransforms[skeleton.getId(bone)] = globalTransform.mul(bone.inverseBindMatrix, new Matrix4f());
+    private Matrix4f[] getFrameTransform(float animTime) {
+        var jointCount = this.skeleton.bones.length;
+        var matrices = new float[jointCount * SkeletonEvaluator.MATRIX_FLOATS];
+        new SkeletonEvaluator(this).evaluate(animTime, matrices, 0);
 
-        for (var child : node.children)
-            readNodeHierarchy(animTime, child, globalTransform, boneTransforms);
+        var boneTransforms = new Matrix4f[jointCount];
+        for (var i = 0; i < jointCount; i++) boneTransforms[i] = new Matrix4f().set(matrices, i * SkeletonEvaluator.MATRIX_FLOATS);
+        return boneTransforms;
     }
 
-    private AnimationNode[] fillAnimationNodesTrinity(com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation) {
+    private AnimationNode[] readAnimationNodesTrinity(com.thepokecraftmod.rks.model.animation.tranm.Animation rawAnimation, boolean decodeKeys) {
         var animationNodes = new AnimationNode[skeleton.nodes.length]; // BoneGroup
 
         for (int i = 0; i < rawAnimation.anim().bonesLength(); i++) {
             var boneAnim = rawAnimation.anim().bones(i);
             nodeIdMap.put(Objects.requireNonNull(boneAnim.name()).replace(".trmdl", ""), i);
-            animationNodes[i] = new AnimationNode();
-
-            switch (boneAnim.rotType()) {
-                case QuatTrack.DynamicQuatTrack ->
-                        TranmUtil.processDynamicQuatTrack((DynamicQuatTrack) Objects.requireNonNull(boneAnim.rot(new DynamicQuatTrack())), animationNodes[i].rotationKeys);
-                case QuatTrack.FixedQuatTrack ->
-                        TranmUtil.processFixedQuatTrack((FixedQuatTrack) Objects.requireNonNull(boneAnim.rot(new FixedQuatTrack())), animationNodes[i].rotationKeys);
-                case QuatTrack.Framed8QuatTrack ->
-                        TranmUtil.processFramed8QuatTrack((Framed8QuatTrack) Objects.requireNonNull(boneAnim.rot(new Framed8QuatTrack())), animationNodes[i].rotationKeys);
-                case QuatTrack.Framed16QuatTrack ->
-                        TranmUtil.processFramed16QuatTrack((Framed16QuatTrack) Objects.requireNonNull(boneAnim.rot(new Framed16QuatTrack())), animationNodes[i].rotationKeys);
-            }
-
-            switch (boneAnim.scaleType()) {
-                case VectorTrack.DynamicVectorTrack ->
-                        TranmUtil.processDynamicVecTrack((DynamicVectorTrack) Objects.requireNonNull(boneAnim.scale(new DynamicVectorTrack())), animationNodes[i].scaleKeys);
-                case VectorTrack.FixedVectorTrack ->
-                        TranmUtil.processFixedVecTrack((FixedVectorTrack) Objects.requireNonNull(boneAnim.scale(new FixedVectorTrack())), animationNodes[i].scaleKeys);
-                case VectorTrack.Framed8VectorTrack ->
-                        TranmUtil.processFramed8VecTrack((Framed8VectorTrack) Objects.requireNonNull(boneAnim.scale(new Framed8VectorTrack())), animationNodes[i].scaleKeys);
-                case VectorTrack.Framed16VectorTrack ->
-                        TranmUtil.processFramed16VecTrack((Framed16VectorTrack) Objects.requireNonNull(boneAnim.scale(new Framed16VectorTrack())), animationNodes[i].scaleKeys);
-            }
-
-            switch (boneAnim.transType()) {
-                case VectorTrack.DynamicVectorTrack ->
-                        TranmUtil.processDynamicVecTrack((DynamicVectorTrack) Objects.requireNonNull(boneAnim.trans(new DynamicVectorTrack())), animationNodes[i].positionKeys);
-                case VectorTrack.FixedVectorTrack ->
-                        TranmUtil.processFixedVecTrack((FixedVectorTrack) Objects.requireNonNull(boneAnim.trans(new FixedVectorTrack())), animationNodes[i].positionKeys);
-                case VectorTrack.Framed8VectorTrack ->
-                        TranmUtil.processFramed8VecTrack((Framed8VectorTrack) Objects.requireNonNull(boneAnim.trans(new Framed8VectorTrack())), animationNodes[i].positionKeys);
-                case VectorTrack.Framed16VectorTrack ->
-                        TranmUtil.processFramed16VecTrack((Framed16VectorTrack) Objects.requireNonNull(boneAnim.trans(new Framed16VectorTrack())), animationNodes[i].positionKeys);
-            }
+            animationNodes[i] = new AnimationNode(
+                    readKeys(TranmKeyframes.translation(boneAnim), 3, decodeKeys),
+                    readKeys(TranmKeyframes.rotation(boneAnim), 4, decodeKeys),
+                    readKeys(TranmKeyframes.scale(boneAnim), 3, decodeKeys)
+            );
         }
 
         return animationNodes;
     }
 
-    public static class AnimationNode {
-        public final TransformStorage<Vector3f> positionKeys = new TransformStorage<>();
-        public final TransformStorage<Quaternionf> rotationKeys = new TransformStorage<>();
-        public final TransformStorage<Vector3f> scaleKeys = new TransformStorage<>();
-
-        public AnimationNode() {
-        }
-
-        public TransformStorage.TimeKey<Vector3f> getDefaultPosition() {
-            return positionKeys.get(0);
-        }
-
-        public TransformStorage.TimeKey<Quaternionf> getDefaultRotation() {
-            return rotationKeys.get(0);
-        }
+    private static Keyframes readKeys(TranmKeyframes keys, int components, boolean decodeKeys) {
+        if (keys == null) return new TransformStorage(components);
+        return decodeKeys ? keys.decode() : keys;
+    }
 
-        public TransformStorage.TimeKey<Vector3f> getDefaultScale() {
-            return scaleKeys.get(0);
+    public static class AnimationNode {
+        public final Keyframes positionKeys;
+        public final Keyframes rotationKeys;
+        public final Keyframes scaleKeys;
+
+        public AnimationNode(Keyframes positionKeys, Keyframes rotationKeys, Keyframes scaleKeys) {
+            this.positionKeys = positionKeys;
+            this.rotationKeys = rotationKeys;
+            this.scaleKeys = scaleKeys;
         }
     }
 
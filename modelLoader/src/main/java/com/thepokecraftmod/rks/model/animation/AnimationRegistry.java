@@ -0,0 +1,163 @@
+package com.thepokecraftmod.rks.model.animation;
+
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares decoded animations between models whose skeletons and clip files are identical, as forms, gender and shiny
+ * variants of a species usually are. Clips are keyed by a SHA-256 hash of the skeleton's hierarchy, rest transforms and
+ * bind matrices together with the clip's bytes, so a shared animation plays exactly like a model's own would.
+ * <p>
+ * Every {@link #acquire} needs a matching {@link #release}, the animation is dropped with its last reference. A shared
+ * animation is the same object for every model using it, so its public fields must not be changed per model. Data
+ * derived from it, like baked frames, can be stored with {@link #putDerived} so other models reuse it.
+ */
+public class AnimationRegistry {
+    private static AnimationRegistry instance;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Animation, Entry> entriesByAnimation = new IdentityHashMap<>();
+
+    public static synchronized AnimationRegistry getInstance() {
+        if (instance == null) instance = new AnimationRegistry();
+        return instance;
+    }
+
+    /**
+     * @param clip      the tranm clip's bytes. Kept referenced by the animation, as keys are read from it
+     * @param reduction applied when the clip is first decoded, or null to read keys straight from the clip
+     * @return the shared animation, decoded if no model uses it yet
+     */
+    public synchronized Animation acquire(String name, ByteBuffer clip, Skeleton skeleton, KeyframeReduction reduction) {
+        var key = getKey(name, clip, skeleton, reduction);
+        var entry = this.entries.get(key);
+        if (entry == null) {
+            var rawAnimation = com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(clip);
+            var animation = reduction != null ? new Animation(name, rawAnimation, skeleton, reduction) : new Animation(name, rawAnimation, skeleton);
+            entry = new Entry(key, animation);
+            this.entries.put(key, entry);
+            this.entriesByAnimation.put(animation, entry);
+        }
+
+        entry.references++;
+        return entry.animation;
+    }
+
+    public synchronized void release(Animation animation) {
+        var entry = this.entriesByAnimation.get(animation);
+        if (entry == null) throw new RuntimeException("Animation \"" + animation.name + "\" was not acquired from the registry");
+        if (--entry.references > 0) return;
+
+        this.entries.remove(entry.key);
+        this.entriesByAnimation.remove(animation);
+    }
+
+    /**
+     * @return what was stored for the animation under the key, or null if nothing was yet
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getDerived(Animation animation, Object key) {
+        var entry = getEntry(animation);
+        return entry != null ? (T) entry.derived.get(key) : null;
+    }
+
+    /**
+     * Keeps data derived from the animation, such as its baked frames, until the animation is dropped. Nothing is kept
+     * for animations not acquired from the registry.
+     *
+     * @return what another thread stored under the key first, otherwise value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T putDerived(Animation animation, Object key, T value) {
+        var entry = getEntry(animation);
+        if (entry == null) return value;
+        var existing = entry.derived.putIfAbsent(key, value);
+        return existing != null ? (T) existing : value;
+    }
+
+    private synchronized Entry getEntry(Animation animation) {
+        return this.entriesByAnimation.get(animation);
+    }
+
+    /**
+     * @return how many acquires of the animation haven't been released yet
+     */
+    public synchronized int getReferenceCount(Animation animation) {
+        var entry = this.entriesByAnimation.get(animation);
+        return entry != null ? entry.references : 0;
+    }
+
+    /**
+     * @return how many distinct animations are held
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static String getKey(String name, ByteBuffer clip, Skeleton skeleton, KeyframeReduction reduction) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            var scratch = ByteBuffer.allocate(Float.BYTES * 16);
+            update(digest, scratch, name);
+            if (reduction != null) {
+                scratch.clear().putFloat(reduction.angularTolerance()).putFloat(reduction.positionTolerance()).putFloat(reduction.scaleTolerance());
+                digest.update(scratch.flip());
+            }
+
+            // Nodes come before their children, so parents are identified by their index
+            var nodeIds = new IdentityHashMap<BoneNode, Integer>();
+            for (var i = 0; i < skeleton.nodes.length; i++) {
+                var node = skeleton.nodes[i];
+                nodeIds.put(node, i);
+                update(digest, scratch, node.name);
+                scratch.clear().putInt(node.parent != null ? nodeIds.get(node.parent) : -1);
+                digest.update(scratch.flip());
+                update(digest, scratch, node.transform);
+            }
+
+            // Baked joint matrices are indexed by bone id, so the bone order is part of the key
+            for (var bone : skeleton.bones) {
+                update(digest, scratch, bone.name);
+                update(digest, scratch, bone.inverseBindMatrix);
+            }
+
+            digest.update(clip.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    // Length prefixed, so neighbouring names can't run into each other
+    private static void update(MessageDigest digest, ByteBuffer scratch, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(scratch.clear().putInt(bytes.length).flip());
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer scratch, Matrix4f matrix) {
+        scratch.clear();
+        for (var value : matrix.get(new float[16])) scratch.putFloat(value);
+        digest.update(scratch.flip());
+    }
+
+    private static class Entry {
+        private final String key;
+        private final Animation animation;
+        private final Map<Object, Object> derived = new ConcurrentHashMap<>();
+        private int references;
+
+        private Entry(String key, Animation animation) {
+            this.key = key;
+            this.animation = animation;
+        }
+    }
+}
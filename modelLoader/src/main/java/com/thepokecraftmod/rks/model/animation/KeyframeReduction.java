@@ -0,0 +1,137 @@
+package com.thepokecraftmod.rks.model.animation;
+
+import org.joml.Quaternionf;
+
+/**
+ * Drops keys that interpolating between their neighbours reproduces within a tolerance. Tracks whose keys all stay
+ * within the tolerance of the first key collapse to that single key.
+ * <p>
+ * Keys are removed greedily: starting from a kept key, the span is stretched as long as every key inside it can be
+ * rebuilt from the span's ends with the same lerp/slerp {@link Keyframes} samples with. Interpolation error only peaks
+ * at key times, so checking those covers the whole span. The first and last key, and keys sharing their time with a
+ * neighbour, are always kept.
+ *
+ * @param angularTolerance  maximum rotation error in radians
+ * @param positionTolerance maximum translation error in model units
+ * @param scaleTolerance    maximum distance between the original and rebuilt scale
+ */
+public record KeyframeReduction(float angularTolerance, float positionTolerance, float scaleTolerance) {
+    public static final KeyframeReduction DEFAULT = new KeyframeReduction((float) Math.toRadians(0.01), 0.0005f, 0.0002f);
+
+    public TransformStorage reducePosition(Keyframes keys) {
+        return reduce(keys, this.positionTolerance);
+    }
+
+    public TransformStorage reduceRotation(Keyframes keys) {
+        return reduce(keys, this.angularTolerance);
+    }
+
+    public TransformStorage reduceScale(Keyframes keys) {
+        return reduce(keys, this.scaleTolerance);
+    }
+
+    private static TransformStorage reduce(Keyframes keys, float tolerance) {
+        var size = keys.size();
+        var scratch = new float[keys.components() * 2];
+        if (size == 0) return new TransformStorage(keys.components());
+        if (isFlat(keys, tolerance, scratch)) return copyKeys(keys, new int[]{0}, 1);
+
+        var kept = new int[size];
+        var keptCount = 1;
+        var anchor = 0;
+        while (anchor < size - 1) {
+            var end = anchor + 1;
+            while (end + 1 < size && canSkip(keys, anchor, end + 1, tolerance, scratch)) end++;
+            kept[keptCount++] = end;
+            anchor = end;
+        }
+
+        return copyKeys(keys, kept, keptCount);
+    }
+
+    private static boolean isFlat(Keyframes keys, float tolerance, float[] scratch) {
+        read(keys, 0, scratch, 0);
+        for (var i = 1; i < keys.size(); i++) {
+            read(keys, i, scratch, keys.components());
+            if (getError(scratch, keys.components()) > tolerance) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return if every key between start and end can be rebuilt by interpolating between the two
+     */
+    private static boolean canSkip(Keyframes keys, int start, int end, float tolerance, float[] scratch) {
+        var startTime = keys.getTime(start);
+        var endTime = keys.getTime(end);
+        if (endTime <= startTime || isLocked(keys, end - 1)) return false;
+
+        var components = keys.components();
+        for (var i = start + 1; i < end; i++) {
+            var factor = (keys.getTime(i) - startTime) / (endTime - startTime);
+            interpolate(keys, start, end, factor, scratch);
+            read(keys, i, scratch, components);
+            if (getError(scratch, components) > tolerance) return false;
+        }
+
+        return true;
+    }
+
+    // Keys sharing a time with a neighbour mark a jump, Keyframes#sample picks between them by index
+    private static boolean isLocked(Keyframes keys, int i) {
+        var time = keys.getTime(i);
+        return time == keys.getTime(i - 1) || (i + 1 < keys.size() && time == keys.getTime(i + 1));
+    }
+
+    private static void interpolate(Keyframes keys, int start, int end, float factor, float[] dest) {
+        if (keys.components() == 4) {
+            var quaternion = keys.get(start, new Quaternionf()).slerp(keys.get(end, new Quaternionf()), factor);
+            dest[0] = quaternion.x;
+            dest[1] = quaternion.y;
+            dest[2] = quaternion.z;
+            dest[3] = quaternion.w;
+            return;
+        }
+
+        for (var c = 0; c < 3; c++) {
+            var a = keys.getValue(start, c);
+            dest[c] = (keys.getValue(end, c) - a) * factor + a;
+        }
+    }
+
+    private static void read(Keyframes keys, int i, float[] dest, int offset) {
+        for (var c = 0; c < keys.components(); c++) dest[offset + c] = keys.getValue(i, c);
+    }
+
+    /**
+     * @return the angle between two quaternions or the distance between two vectors, stored one after another
+     */
+    private static float getError(float[] values, int components) {
+        var sum = 0d;
+        var flippedSum = 0d;
+        for (var c = 0; c < components; c++) {
+            double a = values[c];
+            double b = values[components + c];
+            sum += (a - b) * (a - b);
+            flippedSum += (a + b) * (a + b);
+        }
+
+        if (components == 3) return (float) Math.sqrt(sum);
+        // |a - b| = 2 sin(angle / 4) for unit quaternions, which unlike acos of the dot product stays precise for
+        // small angles. q and -q are the same rotation
+        return (float) (4 * Math.asin(Math.min(1, Math.sqrt(Math.min(sum, flippedSum)) / 2)));
+    }
+
+    private static TransformStorage copyKeys(Keyframes keys, int[] indices, int count) {
+        var components = keys.components();
+        var times = new float[count];
+        var values = new float[count * components];
+        for (var i = 0; i < count; i++) {
+            times[i] = keys.getTime(indices[i]);
+            read(keys, indices[i], values, i * components);
+        }
+
+        return new TransformStorage(components, times, values);
+    }
+}
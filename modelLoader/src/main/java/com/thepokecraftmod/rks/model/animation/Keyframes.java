@@ -0,0 +1,88 @@
+package com.thepokecraftmod.rks.model.animation;
+
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ * Keys of a single vector (3 components) or quaternion (4 components) track in ascending time order
+ */
+public interface Keyframes {
+
+    int size();
+
+    int components();
+
+    float getTime(int i);
+
+    float getMaxTime();
+
+    float getValue(int i, int component);
+
+    Vector3f get(int i, Vector3f dest);
+
+    Quaternionf get(int i, Quaternionf dest);
+
+    boolean hasKeyAt(float time);
+
+    /**
+     * Adds a new key at the given time holding the same value as the key at index
+     */
+    void addCopy(float time, int index);
+
+    /**
+     * @return if every key shares one time, in which case there is nothing to interpolate between and the first key is
+     * used
+     */
+    boolean isConstant();
+
+    /**
+     * Linearly interpolates the track at the given time
+     */
+    default Vector3f sample(float time, Vector3f dest) {
+        if (isConstant()) return get(0, dest);
+
+        var end = findKey(time);
+        var start = Math.max(0, end - 1);
+        var factor = getFactor(time, start, end);
+        var ax = getValue(start, 0);
+        var ay = getValue(start, 1);
+        var az = getValue(start, 2);
+        return dest.set(
+                (getValue(end, 0) - ax) * factor + ax,
+                (getValue(end, 1) - ay) * factor + ay,
+                (getValue(end, 2) - az) * factor + az
+        );
+    }
+
+    /**
+     * Spherically interpolates the track at the given time. scratch is overwritten.
+     */
+    default Quaternionf sample(float time, Quaternionf dest, Quaternionf scratch) {
+        if (isConstant()) return get(0, dest);
+
+        var end = findKey(time);
+        var start = Math.max(0, end - 1);
+        var factor = getFactor(time, start, end);
+        return get(start, dest).slerp(get(end, scratch), factor);
+    }
+
+    private float getFactor(float time, int start, int end) {
+        return (time - getTime(start)) / (getTime(end) - getTime(start));
+    }
+
+    /**
+     * @return the index of the first key after time. Falls back to 1 when time is past the last key
+     */
+    private int findKey(float time) {
+        var low = 0;
+        var high = size();
+
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (time < getTime(mid)) high = mid;
+            else low = mid + 1;
+        }
+
+        return low == size() ? 1 : low;
+    }
+}
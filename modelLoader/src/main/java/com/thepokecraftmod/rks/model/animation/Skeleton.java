@@ -4,12 +4,14 @@ import com.thepokecraftmod.rks.model.bone.Bone;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Skeleton {
     public final BoneNode[] nodes;
     public final Map<String, Bone> boneMap;
-    public final Map<Bone, Integer> cachedBoneIds = new HashMap<>();
+    private final Map<String, Integer> boneIds = new HashMap<>();
+    private final List<Bone> storedBones = new ArrayList<>();
     public final BoneNode rootNode;
     public Bone[] bones;
 
@@ -31,27 +33,45 @@ public class Skeleton {
         for (var child : joint.children) populateJoints(child, jointList);
     }
 
+    /**
+     * @return the index of the bone in {@link #bones}, or -1 if the skeleton has no bone with that name
+     */
+    public int getId(String name) {
+        return boneIds.getOrDefault(name, -1);
+    }
+
     public int getId(Bone bone) {
-        if (cachedBoneIds.get(bone) == null) {
-            for (int i = 0; i < bones.length; i++)
-                if (bone.name.equals(bones[i].name)) return i;
+        if (bone.id != -1) return bone.id;
 
+        var id = getId(bone.name);
+        if (id == -1) {
             System.out.println("Something is about to go wrong. Bone cannot be found inside of skeleton \"" + bone.name + "\"");
-            cachedBoneIds.put(bone, 0);
+            return 0;
         }
 
-        return cachedBoneIds.get(bone);
+        return id;
     }
 
     public void store(Bone[] bones) {
         for (var bone : bones) boneMap.put(bone.name, bone);
+        storedBones.addAll(List.of(bones));
     }
 
+    /**
+     * Assigns every bone an index and writes it to {@link Bone#id} on each mesh's copy of the bone
+     */
     public void calculateBoneData() {
         this.bones = boneMap.values().toArray(Bone[]::new);
+        boneIds.clear();
+        for (int i = 0; i < bones.length; i++) boneIds.put(bones[i].name, i);
+        for (var bone : storedBones) bone.id = boneIds.get(bone.name);
     }
 
     public Bone getBone(String name) {
         return boneMap.get(name);
     }
+
+    public Bone getBone(int id) {
+        return bones[id];
+    }
 }
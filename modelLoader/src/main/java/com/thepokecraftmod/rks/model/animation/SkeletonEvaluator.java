@@ -0,0 +1,93 @@
+package com.thepokecraftmod.rks.model.animation;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.nio.FloatBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * A flattened {@link Skeleton} hierarchy for one {@link Animation}. Nodes are stored in {@link Skeleton#nodes} order,
+ * where a parent always comes before its children, so a pose is evaluated in one linear pass without allocating.
+ * Holds scratch state, so every thread needs its own instance.
+ */
+public class SkeletonEvaluator {
+    public static final int MATRIX_FLOATS = 16;
+    private final Animation.AnimationNode[] nodeTracks;
+    private final int[] parents;
+    private final int[] nodeBones;
+    private final Matrix4f[] restTransforms;
+    private final Matrix4f[] inverseBindMatrices;
+    private final Matrix4f[] globalTransforms;
+    private final Matrix4f jointTransform = new Matrix4f();
+    private final Vector3f translation = new Vector3f();
+    private final Quaternionf rotation = new Quaternionf();
+    private final Quaternionf rotationScratch = new Quaternionf();
+    private final Vector3f scale = new Vector3f();
+
+    public SkeletonEvaluator(Animation animation) {
+        var skeleton = animation.skeleton;
+        var nodes = skeleton.nodes;
+        var nodeIds = new IdentityHashMap<BoneNode, Integer>();
+        for (var i = 0; i < nodes.length; i++) nodeIds.put(nodes[i], i);
+
+        this.nodeTracks = new Animation.AnimationNode[nodes.length];
+        this.parents = new int[nodes.length];
+        this.nodeBones = new int[nodes.length];
+        this.restTransforms = new Matrix4f[nodes.length];
+        this.inverseBindMatrices = new Matrix4f[nodes.length];
+        this.globalTransforms = new Matrix4f[nodes.length];
+
+        for (var i = 0; i < nodes.length; i++) {
+            var node = nodes[i];
+            var trackId = animation.nodeIdMap.getOrDefault(node.name, -1);
+            var boneId = skeleton.getId(node.name);
+
+            this.nodeTracks[i] = trackId != -1 ? animation.animationNodes[trackId] : null;
+            this.parents[i] = node.parent != null ? nodeIds.get(node.parent) : -1;
+            this.nodeBones[i] = boneId;
+            this.restTransforms[i] = node.transform;
+            this.inverseBindMatrices[i] = boneId != -1 ? skeleton.getBone(boneId).inverseBindMatrix : null;
+            this.globalTransforms[i] = new Matrix4f();
+        }
+    }
+
+    /**
+     * Writes one column major matrix per bone, indexed by bone id, starting at offset
+     */
+    public void evaluate(float animTime, float[] dest, int offset) {
+        for (var i = 0; i < this.parents.length; i++) {
+            var bone = this.nodeBones[i];
+            var global = evaluateNode(animTime, i);
+            if (bone != -1) global.mul(this.inverseBindMatrices[i], this.jointTransform).get(dest, offset + bone * MATRIX_FLOATS);
+        }
+    }
+
+    /**
+     * Same as {@link #evaluate(float, float[], int)}, writing at the absolute index without moving the buffer position
+     */
+    public void evaluate(float animTime, FloatBuffer dest, int index) {
+        for (var i = 0; i < this.parents.length; i++) {
+            var bone = this.nodeBones[i];
+            var global = evaluateNode(animTime, i);
+            if (bone != -1) global.mul(this.inverseBindMatrices[i], this.jointTransform).get(index + bone * MATRIX_FLOATS, dest);
+        }
+    }
+
+    private Matrix4f evaluateNode(float animTime, int node) {
+        var global = this.globalTransforms[node];
+        var track = this.nodeTracks[node];
+
+        if (track != null) {
+            track.scaleKeys.sample(animTime, this.scale);
+            track.rotationKeys.sample(animTime, this.rotation, this.rotationScratch);
+            track.positionKeys.sample(animTime, this.translation);
+            global.translationRotateScale(this.translation, this.rotation, this.scale);
+        } else global.set(this.restTransforms[node]);
+
+        var parent = this.parents[node];
+        if (parent != -1) this.globalTransforms[parent].mul(global, global);
+        return global;
+    }
+}
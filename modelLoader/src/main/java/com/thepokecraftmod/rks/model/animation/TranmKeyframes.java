@@ -0,0 +1,193 @@
+package com.thepokecraftmod.rks.model.animation;
+
+import com.google.flatbuffers.Table;
+import com.thepokecraftmod.rks.model.animation.tranm.Bone;
+import com.thepokecraftmod.rks.model.animation.tranm.QuatTrack;
+import com.thepokecraftmod.rks.model.animation.tranm.VectorTrack;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ * Keys of a tranm track read straight from the animation's FlatBuffer. Nothing is decoded up front, quaternions are
+ * unpacked when sampled, so a clip stays close to its size on disk. Reads use absolute offsets into the buffer, which
+ * keeps sampling allocation free and safe to share between threads.
+ * <p>
+ * The track tables are assigned through the union accessors of {@link Bone}, so the same layout serves every
+ * {@link QuatTrack} and {@link VectorTrack} type. QuatTrack and VectorTrack share their type ids.
+ */
+public class TranmKeyframes extends Table implements Keyframes {
+    private static final int QUATERNION_SIZE = 6;
+    private static final int VECTOR_SIZE = 12;
+    private final byte type;
+    private final int components;
+    private int keyCount;
+    private int framesStart = -1;
+    private int framesLength;
+    private int valuesStart = -1;
+    private float minTime = Float.POSITIVE_INFINITY;
+    private float maxTime = Float.NEGATIVE_INFINITY;
+    // The single key addCopy can append after the keys stored in the buffer
+    private int copiedIndex = -1;
+    private float copiedTime;
+
+    private TranmKeyframes(byte type, int components) {
+        this.type = type;
+        this.components = components;
+    }
+
+    public static TranmKeyframes rotation(Bone bone) {
+        if (bone.rotType() == QuatTrack.NONE) return null;
+        return ((TranmKeyframes) bone.rot(new TranmKeyframes(bone.rotType(), 4))).init();
+    }
+
+    public static TranmKeyframes translation(Bone bone) {
+        if (bone.transType() == VectorTrack.NONE) return null;
+        return ((TranmKeyframes) bone.trans(new TranmKeyframes(bone.transType(), 3))).init();
+    }
+
+    public static TranmKeyframes scale(Bone bone) {
+        if (bone.scaleType() == VectorTrack.NONE) return null;
+        return ((TranmKeyframes) bone.scale(new TranmKeyframes(bone.scaleType(), 3))).init();
+    }
+
+    private TranmKeyframes init() {
+        switch (this.type) {
+            case QuatTrack.FixedQuatTrack -> {
+                var o = __offset(4);
+                this.keyCount = o != 0 ? 1 : 0;
+                this.valuesStart = o + this.bb_pos;
+            }
+            case QuatTrack.DynamicQuatTrack -> readValues(4);
+            case QuatTrack.Framed16QuatTrack, QuatTrack.Framed8QuatTrack -> {
+                readValues(6);
+                var o = __offset(4);
+                if (o != 0) {
+                    this.framesStart = __vector(o);
+                    this.framesLength = __vector_len(o);
+                }
+            }
+            default -> throw new RuntimeException("Unknown track type " + this.type);
+        }
+
+        for (var i = 0; i < this.keyCount; i++) {
+            var time = getTime(i);
+            this.minTime = Math.min(this.minTime, time);
+            this.maxTime = Math.max(this.maxTime, time);
+        }
+
+        return this;
+    }
+
+    private void readValues(int field) {
+        var o = __offset(field);
+        if (o == 0) return;
+        this.valuesStart = __vector(o);
+        this.keyCount = __vector_len(o);
+    }
+
+    /**
+     * Decodes every key stored in the buffer in one pass
+     */
+    public TransformStorage decode() {
+        var times = new float[size()];
+        var values = new float[size() * this.components];
+        for (var i = 0; i < times.length; i++) times[i] = getTime(i);
+
+        if (this.keyCount > 0) {
+            if (this.components == 4) TranmUtil.packedToQuats(this.bb, this.valuesStart, this.keyCount, values, 0);
+            else for (var i = 0; i < this.keyCount * 3; i++) values[i] = this.bb.getFloat(this.valuesStart + i * 4);
+            if (this.copiedIndex != -1)
+                System.arraycopy(values, this.copiedIndex * this.components, values, this.keyCount * this.components, this.components);
+        }
+
+        return new TransformStorage(this.components, times, values);
+    }
+
+    @Override
+    public int size() {
+        return this.copiedIndex != -1 ? this.keyCount + 1 : this.keyCount;
+    }
+
+    @Override
+    public int components() {
+        return this.components;
+    }
+
+    @Override
+    public float getTime(int i) {
+        if (i == this.keyCount) return this.copiedTime;
+        if (i >= this.framesLength) return i;
+        return this.type == QuatTrack.Framed8QuatTrack
+                ? this.bb.get(this.framesStart + i) & 0xFF
+                : this.bb.getShort(this.framesStart + i * 2) & 0xFFFF;
+    }
+
+    @Override
+    public float getMaxTime() {
+        return this.maxTime;
+    }
+
+    @Override
+    public float getValue(int i, int component) {
+        if (this.components == 3) {
+            var position = getValuePosition(i, VECTOR_SIZE);
+            return position != -1 ? this.bb.getFloat(position + component * 4) : 0;
+        }
+
+        var quaternion = get(i, new Quaternionf());
+        return switch (component) {
+            case 0 -> quaternion.x;
+            case 1 -> quaternion.y;
+            case 2 -> quaternion.z;
+            default -> quaternion.w;
+        };
+    }
+
+    @Override
+    public Vector3f get(int i, Vector3f dest) {
+        var position = getValuePosition(i, VECTOR_SIZE);
+        if (position == -1) return dest.zero();
+        return dest.set(this.bb.getFloat(position), this.bb.getFloat(position + 4), this.bb.getFloat(position + 8));
+    }
+
+    @Override
+    public Quaternionf get(int i, Quaternionf dest) {
+        var position = getValuePosition(i, QUATERNION_SIZE);
+        if (position == -1) return dest.set(0, 0, 0, 0);
+        return TranmUtil.packedToQuat(this.bb.getShort(position), this.bb.getShort(position + 2), this.bb.getShort(position + 4), dest);
+    }
+
+    /**
+     * @return where the key's value starts in the buffer, or -1 if the track stores no values
+     */
+    private int getValuePosition(int i, int valueSize) {
+        if (i == this.keyCount) i = this.copiedIndex;
+        if (this.keyCount == 0) return -1;
+        return this.valuesStart + i * valueSize;
+    }
+
+    @Override
+    public boolean hasKeyAt(float time) {
+        for (var i = 0; i < size(); i++)
+            if (getTime(i) == time) return true;
+
+        return false;
+    }
+
+    /**
+     * The buffer is read only, so only one key can be added after the ones it stores
+     */
+    @Override
+    public void addCopy(float time, int index) {
+        if (this.copiedIndex != -1) throw new RuntimeException("Only one key can be added to a tranm track");
+        this.copiedIndex = index;
+        this.copiedTime = time;
+        this.minTime = Math.min(this.minTime, time);
+        this.maxTime = Math.max(this.maxTime, time);
+    }
+
+    @Override
+    public boolean isConstant() {
+        return this.minTime == this.maxTime;
+    }
+}
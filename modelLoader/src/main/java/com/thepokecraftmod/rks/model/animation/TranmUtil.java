@@ -2,7 +2,8 @@ package com.thepokecraftmod.rks.model.animation;
 
 import com.thepokecraftmod.rks.model.animation.tranm.*;
 import org.joml.Quaternionf;
-import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
 
 public class TranmUtil {
     private static final int[][] QUATERNION_SWIZZLES = {
@@ -18,6 +19,13 @@ public class TranmUtil {
     }
 
     public static Quaternionf packedToQuat(short z, short y, short x) {
+        return packedToQuat(z, y, x, new Quaternionf());
+    }
+
+    /**
+     * Allocation free version of {@link #packedToQuat(short, short, short)}
+     */
+    public static Quaternionf packedToQuat(short z, short y, short x, Quaternionf dest) {
         int count = 15;
         int BASE = (1 << count) - 1;
         float maxVal = 1 / (0x399E * (float) Math.sqrt(2.0)); // such obvious, so constant, wow
@@ -38,34 +46,83 @@ public class TranmUtil {
         float fx = x * maxVal;
         float fy = y * maxVal;
         float fz = z * maxVal;
-
-        float[] quat = {
-                (float) Math.sqrt(1 - fx * fx - fy * fy - fz * fz),
-                fx,
-                fy,
-                fz
-        };
+        float fw = (float) Math.sqrt(1 - fx * fx - fy * fy - fz * fz);
 
         int[] qmap = QUATERNION_SWIZZLES[(extra & 3)];
-        Quaternionf q = new Quaternionf(quat[qmap[0]], quat[qmap[1]], quat[qmap[2]], quat[qmap[3]]);
-        if ((extra >> 2) != 0) q.mul(-1);
+        dest.set(
+                selectComponent(qmap[0], fw, fx, fy, fz),
+                selectComponent(qmap[1], fw, fx, fy, fz),
+                selectComponent(qmap[2], fw, fx, fy, fz),
+                selectComponent(qmap[3], fw, fx, fy, fz)
+        );
+        if ((extra >> 2) != 0) dest.mul(-1);
+
+        return dest;
+    }
 
-        return q;
+    /**
+     * Decodes count packed quaternions into dest as x, y, z, w. Gives the same results as
+     * {@link #packedToQuat(short, short, short)} without a lookup table, temporary arrays or objects per key.
+     *
+     * @param position where the first key starts in buffer. Each key is 3 little endian shorts
+     */
+    public static void packedToQuats(ByteBuffer buffer, int position, int count, float[] dest, int destOffset) {
+        var maxVal = 1 / (0x399E * (float) Math.sqrt(2.0));
+
+        for (var i = 0; i < count; i++) {
+            var key = position + i * 6;
+            var cq = ((long) (buffer.getShort(key + 4) & 0xFFFF) << 32)
+                    | ((long) (buffer.getShort(key + 2) & 0xFFFF) << 16)
+                    | (buffer.getShort(key) & 0xFFFF);
+            var extra = (int) (cq & 0x7);
+            var num = cq >> 3;
+
+            var fx = unpackS15Bits((int) (num >> 30)) * maxVal;
+            var fy = unpackS15Bits((int) (num >> 15)) * maxVal;
+            var fz = unpackS15Bits((int) num) * maxVal;
+            var fw = (float) Math.sqrt(1 - fx * fx - fy * fy - fz * fz);
+            var sign = 1 - (extra >> 2) * 2;
+
+            // Every swizzle is z, y, x with w inserted at index extra & 3. The indices are computed without branches,
+            // the swizzle is effectively random per key
+            var out = destOffset + i * 4;
+            var wIndex = extra & 3;
+            dest[out + wIndex] = fw * sign;
+            dest[out + ((wIndex - 1) >>> 31)] = fz * sign;
+            dest[out + 1 + ((wIndex - 2) >>> 31)] = fy * sign;
+            dest[out + 2 + ((wIndex - 3) >>> 31)] = fx * sign;
+        }
+    }
+
+    // Branch free unpackS15 for the 15 low bits of packed
+    private static int unpackS15Bits(int packed) {
+        return (packed & 0x3FFF) - ((~packed >> 14 & 1) << 14);
+    }
+
+    private static float selectComponent(int index, float w, float x, float y, float z) {
+        return switch (index) {
+            case 0 -> w;
+            case 1 -> x;
+            case 2 -> y;
+            default -> z;
+        };
     }
 
-    public static void processDynamicQuatTrack(DynamicQuatTrack track, TransformStorage<Quaternionf> rotationKeys) {
+    public static void processDynamicQuatTrack(DynamicQuatTrack track, TransformStorage rotationKeys) {
+        rotationKeys.ensureCapacity(track.vecLength());
         for (int i = 0; i < track.vecLength(); i++) {
             var vec = track.vec(i);
             rotationKeys.add(i, TranmUtil.packedToQuat((short) vec.x(), (short) vec.y(), (short) vec.z()));
         }
     }
 
-    public static void processFixedQuatTrack(FixedQuatTrack track, TransformStorage<Quaternionf> rotationKeys) {
+    public static void processFixedQuatTrack(FixedQuatTrack track, TransformStorage rotationKeys) {
         var vec = track.vec();
         rotationKeys.add(0, TranmUtil.packedToQuat((short) vec.x(), (short) vec.y(), (short) vec.z()));
     }
 
-    public static void processFramed8QuatTrack(Framed8QuatTrack track, TransformStorage<Quaternionf> rotationKeys) {
+    public static void processFramed8QuatTrack(Framed8QuatTrack track, TransformStorage rotationKeys) {
+        rotationKeys.ensureCapacity(track.vecLength());
         var frames = track.framesVector();
         for (int i = 0; i < track.vecLength(); i++) {
             int frame = i;
@@ -76,7 +133,8 @@ public class TranmUtil {
         }
     }
 
-    public static void processFramed16QuatTrack(Framed16QuatTrack track, TransformStorage<Quaternionf> rotationKeys) {
+    public static void processFramed16QuatTrack(Framed16QuatTrack track, TransformStorage rotationKeys) {
+        rotationKeys.ensureCapacity(track.vecLength());
         var frames = track.framesVector();
         for (int i = 0; i < track.vecLength(); i++) {
             int frame = i;
@@ -87,35 +145,38 @@ public class TranmUtil {
         }
     }
 
-    public static void processDynamicVecTrack(DynamicVectorTrack track, TransformStorage<Vector3f> vecKeys) {
+    public static void processDynamicVecTrack(DynamicVectorTrack track, TransformStorage vecKeys) {
+        vecKeys.ensureCapacity(track.vecLength());
         for (int i = 0; i < track.vecLength(); i++) {
             var vec = track.vec(i);
-            vecKeys.add(i, new Vector3f(vec.x(), vec.y(), vec.z()));
+            vecKeys.add(i, vec.x(), vec.y(), vec.z());
         }
     }
 
-    public static void processFixedVecTrack(FixedVectorTrack track, TransformStorage<Vector3f> vecKeys) {
+    public static void processFixedVecTrack(FixedVectorTrack track, TransformStorage vecKeys) {
         var vec = track.vec();
-        vecKeys.add(0, new Vector3f(vec.x(), vec.y(), vec.z()));
+        vecKeys.add(0, vec.x(), vec.y(), vec.z());
     }
 
-    public static void processFramed8VecTrack(Framed8VectorTrack track, TransformStorage<Vector3f> vecKeys) {
+    public static void processFramed8VecTrack(Framed8VectorTrack track, TransformStorage vecKeys) {
+        vecKeys.ensureCapacity(track.vecLength());
         for (int i = 0; i < track.vecLength(); i++) {
             int frame = i;
             var vec = track.vec(i);
 
             if (i < track.framesLength()) frame = track.frames(i);
-            vecKeys.add(frame, new Vector3f(vec.x(), vec.y(), vec.z()));
+            vecKeys.add(frame, vec.x(), vec.y(), vec.z());
         }
     }
 
-    public static void processFramed16VecTrack(Framed16VectorTrack track, TransformStorage<Vector3f> vecKeys) {
+    public static void processFramed16VecTrack(Framed16VectorTrack track, TransformStorage vecKeys) {
+        vecKeys.ensureCapacity(track.vecLength());
         for (int i = 0; i < track.vecLength(); i++) {
             int frame = i;
             var vec = track.vec(i);
 
             if (i < track.framesLength()) frame = track.frames(i);
-            vecKeys.add(frame, new Vector3f(vec.x(), vec.y(), vec.z()));
+            vecKeys.add(frame, vec.x(), vec.y(), vec.z());
         }
     }
 }
@@ -1,75 +1,133 @@
 package com.thepokecraftmod.rks.model.animation;
 
-import org.jetbrains.annotations.NotNull;
+import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
 
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.TreeMap;
 
-public class TransformStorage<T> implements Iterable<TransformStorage.TimeKey<T>> {
-    public final TreeMap<Double, TimeKey<T>> keys = new TreeMap<>();
-    public TimeKey<T>[] values = new TimeKey[0];
+/**
+ * Keyframes decoded into primitive arrays. Keys are expected in ascending time order so lookups can binary search.
+ */
+public class TransformStorage implements Keyframes {
+    private final int components;
+    private float[] times;
+    private float[] values;
+    private int size;
+    private float minTime = Float.POSITIVE_INFINITY;
+    private float maxTime = Float.NEGATIVE_INFINITY;
+
+    public TransformStorage(int components) {
+        this.components = components;
+        this.times = new float[1];
+        this.values = new float[components];
+    }
 
-    @NotNull
-    @Override
-    public Iterator<TimeKey<T>> iterator() {
-        return new Iterator<>() {
-            private int i = 0;
+    /**
+     * Takes ownership of already decoded keys. values holds components floats per key
+     */
+    public TransformStorage(int components, float[] times, float[] values) {
+        this.components = components;
+        this.times = times;
+        this.values = values;
+        this.size = times.length;
+        for (var time : times) {
+            this.minTime = Math.min(this.minTime, time);
+            this.maxTime = Math.max(this.maxTime, time);
+        }
+    }
 
-            @Override
-            public boolean hasNext() {
-                return values.length > i;
-            }
+    public void ensureCapacity(int capacity) {
+        if (capacity <= this.times.length) return;
+        this.times = Arrays.copyOf(this.times, capacity);
+        this.values = Arrays.copyOf(this.values, capacity * this.components);
+    }
 
-            @Override
-            public TimeKey<T> next() {
-                return values[i++];
-            }
-        };
+    public void add(float time, float x, float y, float z) {
+        var offset = addTime(time);
+        this.values[offset] = x;
+        this.values[offset + 1] = y;
+        this.values[offset + 2] = z;
     }
 
-    public void add(double time, T value) {
-        values = Arrays.copyOf(values, values.length + 1);
-        var key = new TimeKey<>(time, values.length - 1, value);
-        keys.put(time, key);
-        values[values.length - 1] = key;
+    public void add(float time, float x, float y, float z, float w) {
+        var offset = addTime(time);
+        this.values[offset] = x;
+        this.values[offset + 1] = y;
+        this.values[offset + 2] = z;
+        this.values[offset + 3] = w;
     }
 
-    public TimeKey<T> get(int i) {
-        if (i > values().length) return null;
-        return values()[i];
+    public void add(float time, Vector3fc value) {
+        add(time, value.x(), value.y(), value.z());
     }
 
-    public TimeKey<T> getAtTime(int animationDuration) {
-        for (var value : values()) {
-            if (value.time() == animationDuration) return value;
-        }
+    public void add(float time, Quaternionfc value) {
+        add(time, value.x(), value.y(), value.z(), value.w());
+    }
 
-        return null;
+    @Override
+    public void addCopy(float time, int index) {
+        var offset = addTime(time);
+        System.arraycopy(this.values, index * this.components, this.values, offset, this.components);
     }
 
-    public int indexOf(TimeKey<T> value) {
-        return value.idx;
+    private int addTime(float time) {
+        if (this.size == this.times.length) ensureCapacity(this.size + (this.size >> 1) + 1);
+        this.times[this.size] = time;
+        this.minTime = Math.min(this.minTime, time);
+        this.maxTime = Math.max(this.maxTime, time);
+        return this.size++ * this.components;
     }
 
-    public TimeKey<T> getBefore(TimeKey<T> valueAhead) {
-        var index = indexOf(valueAhead);
-        return get(Math.max(0, index - 1));
+    @Override
+    public int size() {
+        return this.size;
     }
 
-    public TimeKey<T>[] values() {
-        return values;
+    @Override
+    public int components() {
+        return this.components;
     }
 
-    public int size() {
-        return keys.size();
+    @Override
+    public float getTime(int i) {
+        return this.times[i];
+    }
+
+    @Override
+    public float getMaxTime() {
+        return this.maxTime;
     }
 
-    record TimeKey<T>(double time, int idx, T value) implements Comparable<TimeKey<T>> {
+    @Override
+    public boolean hasKeyAt(float time) {
+        for (var i = 0; i < this.size; i++)
+            if (this.times[i] == time) return true;
 
-        @Override
-        public int compareTo(@NotNull TransformStorage.TimeKey<T> timeKey2) {
-            return Double.compare(time, timeKey2.time);
-        }
+        return false;
+    }
+
+    @Override
+    public float getValue(int i, int component) {
+        return this.values[i * this.components + component];
+    }
+
+    @Override
+    public Vector3f get(int i, Vector3f dest) {
+        var offset = i * this.components;
+        return dest.set(this.values[offset], this.values[offset + 1], this.values[offset + 2]);
+    }
+
+    @Override
+    public Quaternionf get(int i, Quaternionf dest) {
+        var offset = i * this.components;
+        return dest.set(this.values[offset], this.values[offset + 1], this.values[offset + 2], this.values[offset + 3]);
+    }
+
+    @Override
+    public boolean isConstant() {
+        return this.minTime == this.maxTime;
     }
 }
@@ -12,6 +12,10 @@ import java.util.Objects;
 public class Bone {
 
     public String name;
+    /**
+     * Index into {@link com.thepokecraftmod.rks.model.animation.Skeleton#bones}, assigned once the skeleton is built
+     */
+    public int id = -1;
     public VertexWeight[] weights;
     public Matrix4f inverseBindMatrix;
 
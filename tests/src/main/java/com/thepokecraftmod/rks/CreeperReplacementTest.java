@@ -18,7 +18,6 @@ import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.vulkan.VK10;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -91,7 +90,7 @@ public class CreeperReplacementTest {
         this.rayquazaAnimations = loadAnimations(locator, model);
         this.rayquazaData = ModelProcessor.loadModel(id, locator, model, rayquazaAnimations);
         this.rayquaza = new RksEntity(id, id, new Vector3f(0.0f, 0.0f, 0.0f));
-        maxFrameMap.put(rayquaza, rayquazaData.getAnimations().get(0).frames().size());
+        maxFrameMap.put(rayquaza, rayquazaData.getAnimations().get(0).frameCount());
         rayquaza.getRotation().rotateY((float) Math.toRadians(-90.0f));
         rayquaza.updateModelMatrix();
         rayquaza.setEntityAnimation(new RksEntity.AnimationInstance(true, 0, 0));
@@ -160,8 +159,7 @@ public class CreeperReplacementTest {
         var animations = new ArrayList<Animation>();
         var flyingAnims = model.config().animations.get(AnimationGroup.FLYING);
         for (var entry : flyingAnims.entrySet()) {
-            var bytes = locator.getFile(entry.getValue().getMainAnimation());
-            var pAnimation = ByteBuffer.wrap(bytes);
+            var pAnimation = locator.getFileBuffer(entry.getValue().getMainAnimation());
             var trAnimation = com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(pAnimation);
             animations.add(new Animation(entry.getKey(), trAnimation, model.skeleton()));
         }
@@ -192,8 +190,12 @@ public class CreeperReplacementTest {
         deltaU += (currentTime - initialTime) / timeU;
 
         var entityAnimation = this.rayquaza.getAnimation();
-        if (entityAnimation != null && entityAnimation.playing)
-            entityAnimation.currentFrame = (int) rayquazaAnimations.get(0).getAnimationTime((currentTime - initialTime) / 1000000000f);
+        if (entityAnimation != null && entityAnimation.playing) {
+            var animation = rayquazaAnimations.get(0);
+            var framesPerTick = settings.getAnimationBakeRate() / animation.ticksPerSecond;
+            var frameCount = (int) Math.ceil(framesPerTick * animation.animationDuration);
+            entityAnimation.setFrame(animation.getAnimationTime((currentTime - initialTime) / 1000000000f) * framesPerTick, frameCount);
+        }
 
         if (deltaU >= 1) {
             handleInput(rks.window, rks.scene, false);
@@ -7,11 +7,16 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TestModelLocator implements ModelLocator {
 
     private final Map<String, byte[]> fileCache = new HashMap<>();
+    private final Map<String, ByteBuffer> bufferCache = new ConcurrentHashMap<>();
     private final String root;
 
     public TestModelLocator(String root) {
@@ -122,4 +127,22 @@ public class TestModelLocator implements ModelLocator {
             }
         });
     }
+
+    @Override
+    public ByteBuffer getFileBuffer(String name) {
+        return bufferCache.computeIfAbsent(name, s -> {
+            var internalPath = "/" + root + "/" + name;
+            var url = Objects.requireNonNull(TestModelLocator.class.getResource(internalPath), internalPath + " doesnt exist");
+            try {
+                // Resources on disk are mapped. Ones packed in a jar have to be read, so they at least end up off heap
+                if (url.getProtocol().equals("file")) return ModelLocator.mapFile(Path.of(url.toURI()));
+                try (var is = url.openStream()) {
+                    var bytes = is.readAllBytes();
+                    return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+                }
+            } catch (IOException | URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+        }).duplicate();
+    }
 }
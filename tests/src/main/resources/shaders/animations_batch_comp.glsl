@@ -0,0 +1,220 @@
+#version 450
+
+layout (std430, set=0, binding=0) readonly buffer srcBuf {
+    float data[];
+} srcVector;
+
+layout (std430, set=1, binding=0) readonly buffer weightsBuf {
+    float data[];
+} weightsVector;
+
+layout (std430, set=2, binding=0) buffer dstBuf {
+    float data[];
+} dstVector;
+
+layout (std430, set=3, binding=0) readonly buffer jointBuf {
+    vec4 data[];
+} jointMatrices;
+
+// The same buffers seen as vectors for VECTOR_LOADS
+layout (std430, set=0, binding=0) readonly buffer srcVec4Buf {
+    vec4 data[];
+} srcVec4;
+
+layout (std430, set=1, binding=0) readonly buffer weightsVec4Buf {
+    vec4 data[];
+} weightsVec4;
+
+layout (std430, set=2, binding=0) buffer dstVec2Buf {
+    vec2 data[];
+} dstVec2;
+
+layout (std430, set=4, binding=0) readonly buffer paletteBuf {
+    vec4 data[];
+} palette;
+
+// One mesh of one entity. Its vertices are skinned by the workgroups from firstGroup up to the next job's
+struct SkinningJob {
+    uint firstGroup;
+    uint srcOffset;
+    uint srcSize;
+    uint weightsOffset;
+    uint jointMatricesOffset;
+    uint dstOffset;
+    uint jointFlags;
+    uint nextJointMatricesOffset;
+    float frameBlend;
+};
+
+layout (std430, set=5, binding=0) readonly buffer jobBuf {
+    SkinningJob data[];
+} jobs;
+
+// Matches ModelData.JointFormat
+const uint JOINT_FORMAT_AFFINE_3X4 = 1;
+const uint PALETTE_JOINTS = 2;
+
+// Threads per workgroup, tuned per device by SkinningTuner
+layout (constant_id = 0) const uint GROUP_SIZE = 32;
+// Reads vertices and weights with vec4 loads and writes vertices with vec2 stores instead of a float at a time
+layout (constant_id = 1) const bool VECTOR_LOADS = false;
+
+layout (local_size_x_id = 0, local_size_y = 1, local_size_z = 1) in;
+
+layout(push_constant) uniform pushConstants {
+    uint jobCount;
+    // Workgroups past what a single dispatch can launch are covered by further dispatches starting here
+    uint firstGroup;
+} push_constants;
+
+// Jobs are sorted by their first workgroup, so the last one starting at or before ours is the one we belong to
+uint findJob(uint group)
+{
+    uint low = 0;
+    uint high = push_constants.jobCount - 1;
+    while (low < high) {
+        uint mid = (low + high + 1) / 2;
+        if (jobs.data[mid].firstGroup <= group) low = mid;
+        else high = mid - 1;
+    }
+
+    return low;
+}
+
+vec4 getJointRow(uint jointFlags, uint idx)
+{
+    if ((jointFlags & PALETTE_JOINTS) != 0) return palette.data[idx];
+    return jointMatrices.data[idx];
+}
+
+mat4 getJointMatrix(uint jointFlags, uint offset, int joint)
+{
+    if ((jointFlags & JOINT_FORMAT_AFFINE_3X4) != 0) {
+        uint idx = offset + joint * 3;
+        return transpose(mat4(getJointRow(jointFlags, idx), getJointRow(jointFlags, idx + 1), getJointRow(jointFlags, idx + 2), vec4(0, 0, 0, 1)));
+    }
+
+    uint idx = offset + joint * 4;
+    return mat4(getJointRow(jointFlags, idx), getJointRow(jointFlags, idx + 1), getJointRow(jointFlags, idx + 2), getJointRow(jointFlags, idx + 3));
+}
+
+mat4 getSkinMatrix(uint jointFlags, uint offset, vec4 weights, ivec4 joints)
+{
+    return weights.x * getJointMatrix(jointFlags, offset, joints.x) +
+    weights.y * getJointMatrix(jointFlags, offset, joints.y) +
+    weights.z * getJointMatrix(jointFlags, offset, joints.z) +
+    weights.w * getJointMatrix(jointFlags, offset, joints.w);
+}
+
+struct Vertex {
+    vec3 position;
+    vec3 normal;
+    vec3 tangent;
+    vec3 bitangent;
+    vec2 textCoords;
+};
+
+// A vertex is 14 floats, so it starts either on a vec4 or half way into one. Four vec4 loads from the one it starts in
+// cover it both ways
+Vertex loadVertex(uint idx)
+{
+    if (VECTOR_LOADS) {
+        uint first = idx / 4;
+        vec4 a = srcVec4.data[first];
+        vec4 b = srcVec4.data[first + 1];
+        vec4 c = srcVec4.data[first + 2];
+        vec4 d = srcVec4.data[first + 3];
+        if ((idx & 2) != 0) {
+            a = vec4(a.zw, b.xy);
+            b = vec4(b.zw, c.xy);
+            c = vec4(c.zw, d.xy);
+            d = vec4(d.zw, 0, 0);
+        }
+        return Vertex(a.xyz, vec3(a.w, b.xy), vec3(b.zw, c.x), c.yzw, d.xy);
+    }
+
+    return Vertex(
+        vec3(srcVector.data[idx], srcVector.data[idx + 1], srcVector.data[idx + 2]),
+        vec3(srcVector.data[idx + 3], srcVector.data[idx + 4], srcVector.data[idx + 5]),
+        vec3(srcVector.data[idx + 6], srcVector.data[idx + 7], srcVector.data[idx + 8]),
+        vec3(srcVector.data[idx + 9], srcVector.data[idx + 10], srcVector.data[idx + 11]),
+        vec2(srcVector.data[idx + 12], srcVector.data[idx + 13])
+    );
+}
+
+// Vertices always start on an even float, so they can be written as 7 vec2 without touching their neighbours
+void storeVertex(uint idx, Vertex vertex)
+{
+    if (VECTOR_LOADS) {
+        uint first = idx / 2;
+        dstVec2.data[first] = vertex.position.xy;
+        dstVec2.data[first + 1] = vec2(vertex.position.z, vertex.normal.x);
+        dstVec2.data[first + 2] = vertex.normal.yz;
+        dstVec2.data[first + 3] = vertex.tangent.xy;
+        dstVec2.data[first + 4] = vec2(vertex.tangent.z, vertex.bitangent.x);
+        dstVec2.data[first + 5] = vertex.bitangent.yz;
+        dstVec2.data[first + 6] = vertex.textCoords;
+        return;
+    }
+
+    dstVector.data[idx] = vertex.position.x;
+    dstVector.data[idx + 1] = vertex.position.y;
+    dstVector.data[idx + 2] = vertex.position.z;
+    dstVector.data[idx + 3] = vertex.normal.x;
+    dstVector.data[idx + 4] = vertex.normal.y;
+    dstVector.data[idx + 5] = vertex.normal.z;
+    dstVector.data[idx + 6] = vertex.tangent.x;
+    dstVector.data[idx + 7] = vertex.tangent.y;
+    dstVector.data[idx + 8] = vertex.tangent.z;
+    dstVector.data[idx + 9] = vertex.bitangent.x;
+    dstVector.data[idx + 10] = vertex.bitangent.y;
+    dstVector.data[idx + 11] = vertex.bitangent.z;
+    dstVector.data[idx + 12] = vertex.textCoords.x;
+    dstVector.data[idx + 13] = vertex.textCoords.y;
+}
+
+// Weights are 8 floats a vertex, so they always start on a vec4
+void loadWeights(uint idx, out vec4 weights, out ivec4 joints)
+{
+    if (VECTOR_LOADS) {
+        weights = weightsVec4.data[idx / 4];
+        joints = ivec4(weightsVec4.data[idx / 4 + 1]);
+        return;
+    }
+
+    weights = vec4(weightsVector.data[idx], weightsVector.data[idx + 1], weightsVector.data[idx + 2], weightsVector.data[idx + 3]);
+    joints = ivec4(weightsVector.data[idx + 4], weightsVector.data[idx + 5], weightsVector.data[idx + 6], weightsVector.data[idx + 7]);
+}
+
+void main()
+{
+    uint group = push_constants.firstGroup + gl_WorkGroupID.x;
+    SkinningJob job = jobs.data[findJob(group)];
+    uint vertexIdx = (group - job.firstGroup) * gl_WorkGroupSize.x + gl_LocalInvocationID.x;
+    uint baseIdx = vertexIdx * 14;
+    if (baseIdx >= job.srcSize) {
+        return;
+    }
+
+    uint baseIdxWeightsBuf = job.weightsOffset + vertexIdx * 8;
+    uint baseIdxSrcBuf = job.srcOffset + baseIdx;
+    uint baseIdxDstBuf = job.dstOffset + baseIdx;
+
+    vec4 weights;
+    ivec4 joints;
+    loadWeights(baseIdxWeightsBuf, weights, joints);
+    mat4 skinMatrix = getSkinMatrix(job.jointFlags, job.jointMatricesOffset, weights, joints);
+    // Playback between two baked frames linearly blends their skinning matrices
+    if (job.frameBlend > 0) {
+        mat4 nextSkinMatrix = getSkinMatrix(job.jointFlags, job.nextJointMatricesOffset, weights, joints);
+        skinMatrix = skinMatrix * (1 - job.frameBlend) + nextSkinMatrix * job.frameBlend;
+    }
+
+    Vertex vertex = loadVertex(baseIdxSrcBuf);
+    vec4 position = skinMatrix * vec4(vertex.position, 1);
+    vertex.position = position.xyz / position.w;
+    vertex.normal = (skinMatrix * vec4(vertex.normal, 0)).xyz;
+    vertex.tangent = (skinMatrix * vec4(vertex.tangent, 0)).xyz;
+    vertex.bitangent = (skinMatrix * vec4(vertex.bitangent, 0)).xyz;
+    storeVertex(baseIdxDstBuf, vertex);
+}
@@ -0,0 +1,55 @@
+#version 450
+
+// Blends weighted baked frames into one entity's palette, for crossfades and layered clips. One invocation per joint.
+const uint MAX_SOURCES = 8;
+
+layout (std430, set=0, binding=0) readonly buffer jointBuf {
+    vec4 data[];
+} jointMatrices;
+
+layout (std430, set=1, binding=0) writeonly buffer paletteBuf {
+    mat4 data[];
+} palette;
+
+// Matches ModelData.JointFormat
+const uint JOINT_FORMAT_MAT4 = 0;
+const uint JOINT_FORMAT_AFFINE_3X4 = 1;
+
+layout (local_size_x=32, local_size_y=1, local_size_z=1) in;
+
+layout(push_constant) uniform pushConstants {
+    uint jointCount;
+    uint paletteOffset;
+    uint sourceCount;
+    uint jointFormats;
+    uint offsets[MAX_SOURCES];
+    float weights[MAX_SOURCES];
+} push_constants;
+
+mat4 getJointMatrix(uint source, uint joint)
+{
+    uint offset = push_constants.offsets[source];
+    if (((push_constants.jointFormats >> source) & 1) == JOINT_FORMAT_AFFINE_3X4) {
+        uint idx = offset + joint * 3;
+        return transpose(mat4(jointMatrices.data[idx], jointMatrices.data[idx + 1], jointMatrices.data[idx + 2], vec4(0, 0, 0, 1)));
+    }
+
+    uint idx = offset + joint * 4;
+    return mat4(jointMatrices.data[idx], jointMatrices.data[idx + 1], jointMatrices.data[idx + 2], jointMatrices.data[idx + 3]);
+}
+
+void main()
+{
+    uint joint = gl_GlobalInvocationID.x;
+    if (joint >= push_constants.jointCount) {
+        return;
+    }
+
+    // Weights are normalised on the CPU
+    mat4 matrix = mat4(0);
+    for (uint source = 0; source < push_constants.sourceCount; source++) {
+        matrix += getJointMatrix(source, joint) * push_constants.weights[source];
+    }
+
+    palette.data[push_constants.paletteOffset + joint] = matrix;
+}
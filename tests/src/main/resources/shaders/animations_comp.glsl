@@ -13,10 +13,32 @@ layout (std430, set=2, binding=0) buffer dstBuf {
 } dstVector;
 
 layout (std430, set=3, binding=0) readonly buffer jointBuf {
-    mat4 data[];
+    vec4 data[];
 } jointMatrices;
 
-layout (local_size_x=32, local_size_y=1, local_size_z=1) in;
+// The same buffers seen as vectors for VECTOR_LOADS
+layout (std430, set=0, binding=0) readonly buffer srcVec4Buf {
+    vec4 data[];
+} srcVec4;
+
+layout (std430, set=1, binding=0) readonly buffer weightsVec4Buf {
+    vec4 data[];
+} weightsVec4;
+
+layout (std430, set=2, binding=0) buffer dstVec2Buf {
+    vec2 data[];
+} dstVec2;
+
+// Matches ModelData.JointFormat
+const uint JOINT_FORMAT_MAT4 = 0;
+const uint JOINT_FORMAT_AFFINE_3X4 = 1;
+
+// Threads per workgroup, tuned per device by SkinningTuner
+layout (constant_id = 0) const uint GROUP_SIZE = 32;
+// Reads vertices and weights with vec4 loads and writes vertices with vec2 stores instead of a float at a time
+layout (constant_id = 1) const bool VECTOR_LOADS = false;
+
+layout (local_size_x_id = 0, local_size_y = 1, local_size_z = 1) in;
 
 layout(push_constant) uniform pushConstants {
     uint srcOffset;
@@ -24,8 +46,110 @@ layout(push_constant) uniform pushConstants {
     uint weightsOffset;
     uint jointMatricesOffset;
     uint dstOffset;
+    uint jointFormat;
+    uint nextJointMatricesOffset;
+    float frameBlend;
 } push_constants;
 
+mat4 getJointMatrix(uint offset, int joint)
+{
+    if (push_constants.jointFormat == JOINT_FORMAT_AFFINE_3X4) {
+        uint idx = offset + joint * 3;
+        return transpose(mat4(jointMatrices.data[idx], jointMatrices.data[idx + 1], jointMatrices.data[idx + 2], vec4(0, 0, 0, 1)));
+    }
+
+    uint idx = offset + joint * 4;
+    return mat4(jointMatrices.data[idx], jointMatrices.data[idx + 1], jointMatrices.data[idx + 2], jointMatrices.data[idx + 3]);
+}
+
+mat4 getSkinMatrix(uint offset, vec4 weights, ivec4 joints)
+{
+    return weights.x * getJointMatrix(offset, joints.x) +
+    weights.y * getJointMatrix(offset, joints.y) +
+    weights.z * getJointMatrix(offset, joints.z) +
+    weights.w * getJointMatrix(offset, joints.w);
+}
+
+struct Vertex {
+    vec3 position;
+    vec3 normal;
+    vec3 tangent;
+    vec3 bitangent;
+    vec2 textCoords;
+};
+
+// A vertex is 14 floats, so it starts either on a vec4 or half way into one. Four vec4 loads from the one it starts in
+// cover it both ways
+Vertex loadVertex(uint idx)
+{
+    if (VECTOR_LOADS) {
+        uint first = idx / 4;
+        vec4 a = srcVec4.data[first];
+        vec4 b = srcVec4.data[first + 1];
+        vec4 c = srcVec4.data[first + 2];
+        vec4 d = srcVec4.data[first + 3];
+        if ((idx & 2) != 0) {
+            a = vec4(a.zw, b.xy);
+            b = vec4(b.zw, c.xy);
+            c = vec4(c.zw, d.xy);
+            d = vec4(d.zw, 0, 0);
+        }
+        return Vertex(a.xyz, vec3(a.w, b.xy), vec3(b.zw, c.x), c.yzw, d.xy);
+    }
+
+    return Vertex(
+        vec3(srcVector.data[idx], srcVector.data[idx + 1], srcVector.data[idx + 2]),
+        vec3(srcVector.data[idx + 3], srcVector.data[idx + 4], srcVector.data[idx + 5]),
+        vec3(srcVector.data[idx + 6], srcVector.data[idx + 7], srcVector.data[idx + 8]),
+        vec3(srcVector.data[idx + 9], srcVector.data[idx + 10], srcVector.data[idx + 11]),
+        vec2(srcVector.data[idx + 12], srcVector.data[idx + 13])
+    );
+}
+
+// Vertices always start on an even float, so they can be written as 7 vec2 without touching their neighbours
+void storeVertex(uint idx, Vertex vertex)
+{
+    if (VECTOR_LOADS) {
+        uint first = idx / 2;
+        dstVec2.data[first] = vertex.position.xy;
+        dstVec2.data[first + 1] = vec2(vertex.position.z, vertex.normal.x);
+        dstVec2.data[first + 2] = vertex.normal.yz;
+        dstVec2.data[first + 3] = vertex.tangent.xy;
+        dstVec2.data[first + 4] = vec2(vertex.tangent.z, vertex.bitangent.x);
+        dstVec2.data[first + 5] = vertex.bitangent.yz;
+        dstVec2.data[first + 6] = vertex.textCoords;
+        return;
+    }
+
+    dstVector.data[idx] = vertex.position.x;
+    dstVector.data[idx + 1] = vertex.position.y;
+    dstVector.data[idx + 2] = vertex.position.z;
+    dstVector.data[idx + 3] = vertex.normal.x;
+    dstVector.data[idx + 4] = vertex.normal.y;
+    dstVector.data[idx + 5] = vertex.normal.z;
+    dstVector.data[idx + 6] = vertex.tangent.x;
+    dstVector.data[idx + 7] = vertex.tangent.y;
+    dstVector.data[idx + 8] = vertex.tangent.z;
+    dstVector.data[idx + 9] = vertex.bitangent.x;
+    dstVector.data[idx + 10] = vertex.bitangent.y;
+    dstVector.data[idx + 11] = vertex.bitangent.z;
+    dstVector.data[idx + 12] = vertex.textCoords.x;
+    dstVector.data[idx + 13] = vertex.textCoords.y;
+}
+
+// Weights are 8 floats a vertex, so they always start on a vec4
+void loadWeights(uint idx, out vec4 weights, out ivec4 joints)
+{
+    if (VECTOR_LOADS) {
+        weights = weightsVec4.data[idx / 4];
+        joints = ivec4(weightsVec4.data[idx / 4 + 1]);
+        return;
+    }
+
+    weights = vec4(weightsVector.data[idx], weightsVector.data[idx + 1], weightsVector.data[idx + 2], weightsVector.data[idx + 3]);
+    joints = ivec4(weightsVector.data[idx + 4], weightsVector.data[idx + 5], weightsVector.data[idx + 6], weightsVector.data[idx + 7]);
+}
+
 void main()
 {
     int baseIdx = int(gl_GlobalInvocationID.x) * 14;
@@ -36,58 +160,21 @@ void main()
         return;
     }
 
-    vec4 weights = vec4(weightsVector.data[baseIdxWeightsBuf], weightsVector.data[baseIdxWeightsBuf + 1], weightsVector.data[baseIdxWeightsBuf + 2], weightsVector.data[baseIdxWeightsBuf + 3]);
-    ivec4 joints = ivec4(weightsVector.data[baseIdxWeightsBuf + 4], weightsVector.data[baseIdxWeightsBuf + 5], weightsVector.data[baseIdxWeightsBuf + 6], weightsVector.data[baseIdxWeightsBuf + 7]);
-
-    vec4 position = vec4(srcVector.data[baseIdxSrcBuf], srcVector.data[baseIdxSrcBuf + 1], srcVector.data[baseIdxSrcBuf + 2], 1);
-    position =
-    weights.x * jointMatrices.data[push_constants.jointMatricesOffset + joints.x] * position +
-    weights.y * jointMatrices.data[push_constants.jointMatricesOffset + joints.y] * position +
-    weights.z * jointMatrices.data[push_constants.jointMatricesOffset + joints.z] * position +
-    weights.w * jointMatrices.data[push_constants.jointMatricesOffset + joints.w] * position;
-    dstVector.data[baseIdxDstBuf] = position.x / position.w;
-    dstVector.data[baseIdxDstBuf + 1] = position.y / position.w;
-    dstVector.data[baseIdxDstBuf + 2] = position.z / position.w;
-
-    baseIdxSrcBuf += 3;
-    baseIdxDstBuf += 3;
-    vec4 normal = vec4(srcVector.data[baseIdxSrcBuf], srcVector.data[baseIdxSrcBuf + 1], srcVector.data[baseIdxSrcBuf + 2], 0);
-    normal =
-    weights.x * jointMatrices.data[push_constants.jointMatricesOffset + joints.x] * normal +
-    weights.y * jointMatrices.data[push_constants.jointMatricesOffset + joints.y] * normal +
-    weights.z * jointMatrices.data[push_constants.jointMatricesOffset + joints.z] * normal +
-    weights.w * jointMatrices.data[push_constants.jointMatricesOffset + joints.w] * normal;
-    dstVector.data[baseIdxDstBuf] = normal.x;
-    dstVector.data[baseIdxDstBuf + 1] = normal.y;
-    dstVector.data[baseIdxDstBuf + 2] = normal.z;
-
-    baseIdxSrcBuf += 3;
-    baseIdxDstBuf += 3;
-    vec4 tangent = vec4(srcVector.data[baseIdxSrcBuf], srcVector.data[baseIdxSrcBuf + 1], srcVector.data[baseIdxSrcBuf + 2], 0);
-    tangent =
-    weights.x * jointMatrices.data[push_constants.jointMatricesOffset + joints.x] * tangent +
-    weights.y * jointMatrices.data[push_constants.jointMatricesOffset + joints.y] * tangent +
-    weights.z * jointMatrices.data[push_constants.jointMatricesOffset + joints.z] * tangent +
-    weights.w * jointMatrices.data[push_constants.jointMatricesOffset + joints.w] * tangent;
-    dstVector.data[baseIdxDstBuf] = tangent.x;
-    dstVector.data[baseIdxDstBuf + 1] = tangent.y;
-    dstVector.data[baseIdxDstBuf + 2] = tangent.z;
-
-    baseIdxSrcBuf += 3;
-    baseIdxDstBuf += 3;
-    vec4 bitangent = vec4(srcVector.data[baseIdxSrcBuf], srcVector.data[baseIdxSrcBuf + 1], srcVector.data[baseIdxSrcBuf + 2], 0);
-    bitangent =
-    weights.x * jointMatrices.data[push_constants.jointMatricesOffset + joints.x] * bitangent +
-    weights.y * jointMatrices.data[push_constants.jointMatricesOffset + joints.y] * bitangent +
-    weights.z * jointMatrices.data[push_constants.jointMatricesOffset + joints.z] * bitangent +
-    weights.w * jointMatrices.data[push_constants.jointMatricesOffset + joints.w] * bitangent;
-    dstVector.data[baseIdxDstBuf] = bitangent.x;
-    dstVector.data[baseIdxDstBuf + 1] = bitangent.y;
-    dstVector.data[baseIdxDstBuf + 2] = bitangent.z;
-
-    baseIdxSrcBuf += 3;
-    baseIdxDstBuf += 3;
-    vec2 textCoords = vec2(srcVector.data[baseIdxSrcBuf], srcVector.data[baseIdxSrcBuf + 1]);
-    dstVector.data[baseIdxDstBuf] = textCoords.x;
-    dstVector.data[baseIdxDstBuf + 1] = textCoords.y;
-}
\ No newline at end of file
+    vec4 weights;
+    ivec4 joints;
+    loadWeights(baseIdxWeightsBuf, weights, joints);
+    mat4 skinMatrix = getSkinMatrix(push_constants.jointMatricesOffset, weights, joints);
+    // Playback between two baked frames linearly blends their skinning matrices
+    if (push_constants.frameBlend > 0) {
+        mat4 nextSkinMatrix = getSkinMatrix(push_constants.nextJointMatricesOffset, weights, joints);
+        skinMatrix = skinMatrix * (1 - push_constants.frameBlend) + nextSkinMatrix * push_constants.frameBlend;
+    }
+
+    Vertex vertex = loadVertex(baseIdxSrcBuf);
+    vec4 position = skinMatrix * vec4(vertex.position, 1);
+    vertex.position = position.xyz / position.w;
+    vertex.normal = (skinMatrix * vec4(vertex.normal, 0)).xyz;
+    vertex.tangent = (skinMatrix * vec4(vertex.tangent, 0)).xyz;
+    vertex.bitangent = (skinMatrix * vec4(vertex.bitangent, 0)).xyz;
+    storeVertex(baseIdxDstBuf, vertex);
+}
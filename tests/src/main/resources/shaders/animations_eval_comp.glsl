@@ -0,0 +1,164 @@
+#version 450
+
+// Evaluates one entity's joint matrices from keyframes packed by KeyframePacker. One invocation per skeleton node.
+const uint HEADER_WORDS = 4;
+const uint NODE_WORDS = 40;
+
+layout (std430, set=0, binding=0) readonly buffer keyframesBuf {
+    uint data[];
+} keyframes;
+
+layout (std430, set=1, binding=0) writeonly buffer paletteBuf {
+    mat4 data[];
+} palette;
+
+layout (local_size_x=32, local_size_y=1, local_size_z=1) in;
+
+layout(push_constant) uniform pushConstants {
+    uint clipOffset;
+    uint paletteOffset;
+    float time;
+} push_constants;
+
+uint readUint(uint idx)
+{
+    return keyframes.data[push_constants.clipOffset + idx];
+}
+
+float readFloat(uint idx)
+{
+    return uintBitsToFloat(readUint(idx));
+}
+
+vec3 readVec3(uint idx)
+{
+    return vec3(readFloat(idx), readFloat(idx + 1), readFloat(idx + 2));
+}
+
+vec4 readVec4(uint idx)
+{
+    return vec4(readFloat(idx), readFloat(idx + 1), readFloat(idx + 2), readFloat(idx + 3));
+}
+
+mat4 readMat4(uint idx)
+{
+    return mat4(readVec4(idx), readVec4(idx + 4), readVec4(idx + 8), readVec4(idx + 12));
+}
+
+// Index of the first key after time, falling back to 1 when time is past the last key. Matches TransformStorage
+uint findKey(uint timesOffset, uint keyCount)
+{
+    uint low = 0;
+    uint high = keyCount;
+    while (low < high) {
+        uint mid = (low + high) >> 1;
+        if (push_constants.time < readFloat(timesOffset + mid)) high = mid;
+        else low = mid + 1;
+    }
+
+    return low == keyCount ? 1 : low;
+}
+
+float getFactor(uint timesOffset, uint start, uint end)
+{
+    float startTime = readFloat(timesOffset + start);
+    return (push_constants.time - startTime) / (readFloat(timesOffset + end) - startTime);
+}
+
+vec3 sampleVec3(uint keysOffset, uint keyCount)
+{
+    uint valuesOffset = keysOffset + keyCount;
+    if (keyCount == 1) return readVec3(valuesOffset);
+
+    uint end = findKey(keysOffset, keyCount);
+    uint start = max(end, 1) - 1;
+    float factor = getFactor(keysOffset, start, end);
+    vec3 a = readVec3(valuesOffset + start * 3);
+    vec3 b = readVec3(valuesOffset + end * 3);
+    return (b - a) * factor + a;
+}
+
+// Same slerp as JOML's Quaternionf, so the result matches the baked animations
+vec4 slerp(vec4 a, vec4 b, float alpha)
+{
+    float cosom = dot(a, b);
+    float absCosom = abs(cosom);
+    float scale0;
+    float scale1;
+    if (1.0 - absCosom > 1E-6) {
+        float sinSqr = 1.0 - absCosom * absCosom;
+        float sinom = inversesqrt(sinSqr);
+        float omega = atan(sinSqr * sinom, absCosom);
+        scale0 = sin((1.0 - alpha) * omega) * sinom;
+        scale1 = sin(alpha * omega) * sinom;
+    } else {
+        scale0 = 1.0 - alpha;
+        scale1 = alpha;
+    }
+
+    scale1 = cosom >= 0.0 ? scale1 : -scale1;
+    return scale0 * a + scale1 * b;
+}
+
+vec4 sampleQuat(uint keysOffset, uint keyCount)
+{
+    uint valuesOffset = keysOffset + keyCount;
+    if (keyCount == 1) return readVec4(valuesOffset);
+
+    uint end = findKey(keysOffset, keyCount);
+    uint start = max(end, 1) - 1;
+    float factor = getFactor(keysOffset, start, end);
+    return slerp(readVec4(valuesOffset + start * 4), readVec4(valuesOffset + end * 4), factor);
+}
+
+mat4 translationRotateScale(vec3 t, vec4 q, vec3 s)
+{
+    vec3 dq = q.xyz + q.xyz;
+    float q00 = dq.x * q.x;
+    float q11 = dq.y * q.y;
+    float q22 = dq.z * q.z;
+    float q01 = dq.x * q.y;
+    float q02 = dq.x * q.z;
+    float q03 = dq.x * q.w;
+    float q12 = dq.y * q.z;
+    float q13 = dq.y * q.w;
+    float q23 = dq.z * q.w;
+    return mat4(
+        vec4(s.x - (q11 + q22) * s.x, (q01 + q23) * s.x, (q02 - q13) * s.x, 0),
+        vec4((q01 - q23) * s.y, s.y - (q22 + q00) * s.y, (q12 + q03) * s.y, 0),
+        vec4((q02 + q13) * s.z, (q12 - q03) * s.z, s.z - (q11 + q00) * s.z, 0),
+        vec4(t, 1)
+    );
+}
+
+mat4 getLocalTransform(uint nodeOffset)
+{
+    uint positionKeyCount = readUint(nodeOffset + 3);
+    if (positionKeyCount == 0) return readMat4(nodeOffset + 8);
+
+    vec3 translation = sampleVec3(readUint(nodeOffset + 2), positionKeyCount);
+    vec4 rotation = sampleQuat(readUint(nodeOffset + 4), readUint(nodeOffset + 5));
+    vec3 scale = sampleVec3(readUint(nodeOffset + 6), readUint(nodeOffset + 7));
+    return translationRotateScale(translation, rotation, scale);
+}
+
+void main()
+{
+    uint node = gl_GlobalInvocationID.x;
+    if (node >= readUint(0)) return;
+
+    uint nodeOffset = HEADER_WORDS + node * NODE_WORDS;
+    int joint = int(readUint(nodeOffset + 1));
+    if (joint < 0) return;
+
+    // Walk up to the root instead of sharing parent results, so no synchronisation between invocations is needed
+    mat4 global = getLocalTransform(nodeOffset);
+    int parent = int(readUint(nodeOffset));
+    while (parent >= 0) {
+        uint parentOffset = HEADER_WORDS + uint(parent) * NODE_WORDS;
+        global = getLocalTransform(parentOffset) * global;
+        parent = int(readUint(parentOffset));
+    }
+
+    palette.data[push_constants.paletteOffset + joint] = global * readMat4(nodeOffset + 24);
+}
@@ -0,0 +1,105 @@
+#version 450
+
+layout(location = 0) in vec3 entityPos;
+layout(location = 1) in vec3 entityNormal;
+layout(location = 2) in vec3 entityTangent;
+layout(location = 3) in vec3 entityBitangent;
+layout(location = 4) in vec2 entityTextCoords;
+
+// Instanced attributes
+layout (location = 5) in mat4 entityModelMatrix;
+layout (location = 9) in uint entityMatIdx;
+// x: index of the first weight of vertex 0, so gl_VertexIndex * 8 can be added. y and z: vec4 offsets of the current and
+// next frame's joint matrices, y is negative until the entity has a pose. w: joint format, plus PALETTE_JOINTS when the
+// joint matrices are read from the palette
+layout (location = 10) in ivec4 entitySkinning;
+layout (location = 11) in float entityFrameBlend;
+
+layout(location = 0) out vec3 outNormal;
+layout(location = 1) out vec3 outTangent;
+layout(location = 2) out vec3 outBitangent;
+layout(location = 3) out vec2 outTextCoords;
+layout(location = 4) flat out uint outMatIdx;
+
+out gl_PerVertex{
+    vec4 gl_Position;
+};
+
+layout(set = 0, binding = 0) uniform ProjUniform {
+    mat4 projectionMatrix;
+} projUniform;
+layout(set = 1, binding = 0) uniform ViewUniform {
+    mat4 viewMatrix;
+} viewUniform;
+layout (std430, set=4, binding=0) readonly buffer weightsBuf {
+    float data[];
+} weightsVector;
+layout (std430, set=5, binding=0) readonly buffer jointBuf {
+    vec4 data[];
+} jointMatrices;
+layout (std430, set=6, binding=0) readonly buffer paletteBuf {
+    vec4 data[];
+} palette;
+
+// Matches ModelData.JointFormat
+const int JOINT_FORMAT_AFFINE_3X4 = 1;
+const int PALETTE_JOINTS = 2;
+
+vec4 getJointRow(int idx)
+{
+    if ((entitySkinning.w & PALETTE_JOINTS) != 0) return palette.data[idx];
+    return jointMatrices.data[idx];
+}
+
+mat4 getJointMatrix(int offset, int joint)
+{
+    if ((entitySkinning.w & JOINT_FORMAT_AFFINE_3X4) != 0) {
+        int idx = offset + joint * 3;
+        return transpose(mat4(getJointRow(idx), getJointRow(idx + 1), getJointRow(idx + 2), vec4(0, 0, 0, 1)));
+    }
+
+    int idx = offset + joint * 4;
+    return mat4(getJointRow(idx), getJointRow(idx + 1), getJointRow(idx + 2), getJointRow(idx + 3));
+}
+
+mat4 getSkinMatrix(int offset, vec4 weights, ivec4 joints)
+{
+    return weights.x * getJointMatrix(offset, joints.x) +
+    weights.y * getJointMatrix(offset, joints.y) +
+    weights.z * getJointMatrix(offset, joints.z) +
+    weights.w * getJointMatrix(offset, joints.w);
+}
+
+// Same skinning animations_comp.glsl does, blending the skinning matrices of the two frames playback is between
+mat4 getSkinMatrix()
+{
+    if (entitySkinning.y < 0) return mat4(1);
+
+    int weightsIdx = entitySkinning.x + gl_VertexIndex * 8;
+    vec4 weights = vec4(weightsVector.data[weightsIdx], weightsVector.data[weightsIdx + 1], weightsVector.data[weightsIdx + 2], weightsVector.data[weightsIdx + 3]);
+    ivec4 joints = ivec4(weightsVector.data[weightsIdx + 4], weightsVector.data[weightsIdx + 5], weightsVector.data[weightsIdx + 6], weightsVector.data[weightsIdx + 7]);
+    mat4 skinMatrix = getSkinMatrix(entitySkinning.y, weights, joints);
+    if (entityFrameBlend > 0) {
+        mat4 nextSkinMatrix = getSkinMatrix(entitySkinning.z, weights, joints);
+        skinMatrix = skinMatrix * (1 - entityFrameBlend) + nextSkinMatrix * entityFrameBlend;
+    }
+
+    return skinMatrix;
+}
+
+vec4 transform(vec3 position) {
+    vec4 tmp = projUniform.projectionMatrix * (entityModelMatrix * vec4(position, 1.0));
+    return tmp;
+}
+
+void main() {
+    mat4 skinMatrix = getSkinMatrix();
+    vec4 position = skinMatrix * vec4(entityPos, 1);
+    mat4 modelViewMatrix = entityModelMatrix;
+    outNormal = normalize(modelViewMatrix * (skinMatrix * vec4(entityNormal, 0))).xyz;
+    outTangent = normalize(modelViewMatrix * (skinMatrix * vec4(entityTangent, 0))).xyz;
+    outBitangent = normalize(modelViewMatrix * (skinMatrix * vec4(entityBitangent, 0))).xyz;
+    outTextCoords = entityTextCoords;
+    outMatIdx = entityMatIdx;
+    gl_Position = transform(position.xyz / position.w);
+}
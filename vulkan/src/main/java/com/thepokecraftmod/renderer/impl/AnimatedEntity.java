@@ -1,22 +1,74 @@
 package com.thepokecraftmod.renderer.impl;
 
+import com.thepokecraftmod.renderer.scene.ModelData;
 import com.thepokecraftmod.renderer.scene.RksEntity;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class AnimatedEntity {
+    // Matches the skinning shaders
+    private static final int PALETTE_JOINTS = 2;
 
     public final RksEntity entity;
     public final List<VulkanAnimMesh> meshes;
     public final GpuModel model;
+    /**
+     * Index of the entity's first joint matrix in each frame's region of the palette buffer, or -1 if the model's clips
+     * have no joints
+     */
+    public final int paletteOffset;
+    /**
+     * How many joint matrices the entity has in the palette buffer
+     */
+    public final int paletteJointCount;
+    /**
+     * If the entity has been skinned to a pose yet
+     */
+    public boolean posed;
+    /**
+     * If the palette holds the entity's blended clips
+     */
+    public boolean blended;
+    // The joint matrices the entity was last posed with, as byte offsets into the joint matrices or palette buffer
+    public int jointOffset = -1;
+    public int nextJointOffset = -1;
+    public float frameBlend;
+    public ModelData.JointFormat jointFormat = ModelData.JointFormat.MAT4;
+    public boolean paletteJoints;
+    /**
+     * Equal for entities of the same model posed the same way, so they can be drawn with the same skinned vertices
+     */
+    public Object poseKey;
+    /**
+     * The entity whose skinned vertices this entity is drawn with this frame
+     */
+    public AnimatedEntity skinSource = this;
 
-    public AnimatedEntity(RksEntity entity, GpuModel model) {
+    public AnimatedEntity(RksEntity entity, GpuModel model, int paletteOffset, int paletteJointCount) {
         this.entity = entity;
         this.model = model;
+        this.paletteOffset = paletteOffset;
+        this.paletteJointCount = paletteJointCount;
         this.meshes = new ArrayList<>();
     }
 
+    public void setPose(int jointOffset, int nextJointOffset, float frameBlend, ModelData.JointFormat jointFormat, boolean paletteJoints) {
+        this.jointOffset = jointOffset;
+        this.nextJointOffset = nextJointOffset;
+        this.frameBlend = frameBlend;
+        this.jointFormat = jointFormat;
+        this.paletteJoints = paletteJoints;
+    }
+
+    /**
+     * @return the joint format with a flag set when the joint matrices are read from the palette, as skinning shaders
+     * reading both buffers expect it
+     */
+    public int getJointFlags() {
+        return this.jointFormat.ordinal() | (this.paletteJoints ? PALETTE_JOINTS : 0);
+    }
+
     public record VulkanAnimMesh(
             int meshOffset,
             GpuModel.VulkanMesh vulkanMesh
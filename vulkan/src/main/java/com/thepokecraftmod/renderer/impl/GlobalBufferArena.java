@@ -0,0 +1,89 @@
+package com.thepokecraftmod.renderer.impl;
+
+import java.util.TreeMap;
+
+/**
+ * Hands out ranges of one of the {@link GlobalBuffers} and takes them back once the model using them is unloaded.
+ * Free ranges are kept sorted by offset, so allocation takes the first one large enough and freed ranges merge with
+ * their free neighbours.
+ */
+public class GlobalBufferArena {
+    private final String name;
+    private final int alignment;
+    private final int start;
+    private final int end;
+    // Offset of every free range to its size
+    private final TreeMap<Integer, Integer> freeRanges = new TreeMap<>();
+    private int used;
+
+    /**
+     * @param alignment every range starts at a multiple of this from start and its size is rounded up to one, so
+     *                  ranges of whole vertices or materials can be addressed by index
+     */
+    public GlobalBufferArena(String name, int start, int end, int alignment) {
+        this.name = name;
+        this.alignment = alignment;
+        this.start = start;
+        this.end = end - (end - start) % alignment;
+        if (this.end > start) this.freeRanges.put(start, this.end - start);
+    }
+
+    /**
+     * @return the allocated range. Empty ranges take no space
+     */
+    public Allocation allocate(long size) {
+        var alignedSize = (size + this.alignment - 1) / this.alignment * this.alignment;
+        if (alignedSize == 0) return new Allocation(this.start, 0);
+
+        for (var range : this.freeRanges.entrySet()) {
+            int offset = range.getKey();
+            int free = range.getValue();
+            if (free < alignedSize) continue;
+
+            this.freeRanges.remove(offset);
+            if (free > alignedSize) this.freeRanges.put((int) (offset + alignedSize), (int) (free - alignedSize));
+            this.used += (int) alignedSize;
+            return new Allocation(offset, (int) alignedSize);
+        }
+
+        throw new RuntimeException("Not enough space left in the " + this.name + " buffer. Requested " + size + " bytes with " + (this.end - this.start - this.used) + " of " + (this.end - this.start) + " free");
+    }
+
+    /**
+     * @throws RuntimeException if any of the range is already free or outside the buffer, as freeing it twice would
+     *                          hand it out to two models
+     */
+    public void free(Allocation allocation) {
+        if (allocation.size() == 0) return;
+        var offset = allocation.offset();
+        var size = allocation.size();
+        var previous = this.freeRanges.floorEntry(offset);
+        var following = this.freeRanges.ceilingEntry(offset);
+        if (offset < this.start || offset + size > this.end
+                || (previous != null && previous.getKey() + previous.getValue() > offset)
+                || (following != null && following.getKey() < offset + size))
+            throw new RuntimeException("Freeing " + size + " bytes at " + offset + " of the " + this.name + " buffer which are not allocated");
+        this.used -= size;
+
+        if (previous != null && previous.getKey() + previous.getValue() == offset) {
+            offset = previous.getKey();
+            size += previous.getValue();
+        }
+
+        var next = this.freeRanges.remove(allocation.offset() + allocation.size());
+        if (next != null) size += next;
+        this.freeRanges.put(offset, size);
+    }
+
+    /**
+     * @return bytes currently allocated
+     */
+    public int getUsed() {
+        return this.used;
+    }
+
+    public record Allocation(
+            int offset,
+            int size
+    ) {}
+}
@@ -1,16 +1,23 @@
 package com.thepokecraftmod.renderer.impl;
 
+import com.thepokecraftmod.renderer.impl.animation.AnimationCache;
 import com.thepokecraftmod.renderer.wrapper.core.Settings;
+import com.thepokecraftmod.renderer.scene.KeyframePacker;
 import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.renderer.scene.RksEntity;
 import com.thepokecraftmod.renderer.scene.Scene;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdBuffer;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdPool;
+import com.thepokecraftmod.renderer.wrapper.core.Fence;
 import com.thepokecraftmod.renderer.wrapper.core.Queue;
 import com.thepokecraftmod.renderer.wrapper.core.VkBuffer;
 import com.thepokecraftmod.renderer.wrapper.core.VkConstants;
 import com.thepokecraftmod.renderer.wrapper.image.Texture;
 import com.thepokecraftmod.renderer.wrapper.init.Device;
+import com.thepokecraftmod.renderer.wrapper.vertex.SkinnedVertexBufferStructure;
 import com.thepokecraftmod.renderer.wrapper.vertex.VertexBufferStructure;
+import com.thepokecraftmod.rks.model.animation.Animation;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VkBufferCopy;
@@ -19,15 +26,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import static org.lwjgl.vulkan.VK11.*;
 
-//TODO: stage only part which contains new model uploaded. add ability to mark space for removal. GlobalBufferArena?
 public class GlobalBuffers {
     private static final Logger LOGGER = LoggerFactory.getLogger(GlobalBuffers.class);
     public static final int IND_COMMAND_STRIDE = VkDrawIndexedIndirectCommand.SIZEOF;
@@ -35,61 +49,143 @@ public class GlobalBuffers {
     private static final int MATERIAL_PADDING = VkConstants.FLOAT_LENGTH * 3;
     private static final int MATERIAL_SIZE = VkConstants.VEC4_SIZE + VkConstants.INT_LENGTH * 3 + VkConstants.FLOAT_LENGTH * 2 + MATERIAL_PADDING;
     private final VkBuffer animJointMatricesBuffer;
+    private final VkBuffer animKeyframesBuffer;
     private final VkBuffer animWeightsBuffer;
     private final VkBuffer indicesBuffer;
     private final VkBuffer materialsBuffer;
     private final VkBuffer verticesBuffer;
-    private VkBuffer animIndirectBuffer;
+    private final AnimationCache animationCache;
+    private final boolean vertexSkinning;
+    // Animation buffers are written and read by both the graphics queue and the animator's compute queue
+    private final int[] animQueueFamilies;
+    // Joint matrices past this offset belong to the animation cache
+    private final int animJointMatricesLimit;
+    private VkBuffer[] animIndirectBuffers;
     private VkBuffer[] animInstanceDataBuffers;
+    private VkBuffer animPaletteBuffer;
     private VkBuffer animVerticesBuffer;
     private VkBuffer indirectBuffer;
     private VkBuffer[] instanceDataBuffers;
     private int numAnimIndirectCommands;
     private int numIndirectCommands;
     private List<AnimatedEntity> animatedEntityList;
+    // Ranges of the global buffers in use, freed again when the models using them are unloaded
+    private final GlobalBufferArena verticesArena;
+    private final GlobalBufferArena indicesArena;
+    private final GlobalBufferArena materialsArena;
+    private final GlobalBufferArena animJointMatricesArena;
+    private final GlobalBufferArena animKeyframesArena;
+    private final GlobalBufferArena animWeightsArena;
+    private final Map<GpuModel, ModelAllocation> modelAllocations = new IdentityHashMap<>();
+    private boolean defaultMaterialLoaded;
+    private int animVerticesFrameSize;
+    private int paletteFrameSize;
+    private final Set<String> placeholderModelIds = new HashSet<>();
+    // Animation data is uploaded once and shared by every model with an identical clip, see getAnimationKey
+    private final Map<Object, SharedAnimation> sharedAnimations = new HashMap<>();
+    private final Map<GpuModel.GpuAnimationData, SharedAnimation> sharedAnimationsByData = new IdentityHashMap<>();
+    private GpuModel placeholderModel;
 
     public GlobalBuffers(Device device) {
         LOGGER.info("Creating global buffers");
         var settings = Settings.getInstance();
-        this.verticesBuffer = new VkBuffer(device, settings.getMaxVerticesBuffer(), VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+        this.animQueueFamilies = new int[]{Queue.GraphicsQueue.getGraphicsQueueFamilyIndex(device), Queue.ComputeQueue.getComputeQueueFamilyIndex(device)};
+        this.verticesBuffer = new VkBuffer(device, settings.getMaxVerticesBuffer(), VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
         this.indicesBuffer = new VkBuffer(device, settings.getMaxIndicesBuffer(), VK_BUFFER_USAGE_INDEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
         this.materialsBuffer = new VkBuffer(device, (long) settings.getMaxMaterials() * VkConstants.VEC4_SIZE * 9, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
-        this.animJointMatricesBuffer = new VkBuffer(device, settings.getMaxJointMatricesBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
-        this.animWeightsBuffer = new VkBuffer(device, settings.getMaxAnimWeightsBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+        this.animJointMatricesBuffer = new VkBuffer(device, settings.getMaxJointMatricesBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
+        this.animKeyframesBuffer = new VkBuffer(device, settings.getMaxKeyframesBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
+        this.animWeightsBuffer = new VkBuffer(device, settings.getMaxAnimWeightsBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
         this.numIndirectCommands = 0;
+        this.vertexSkinning = settings.isVertexSkinning();
+
+        if (settings.isLazyAnimationBaking()) {
+            var cacheStart = settings.getMaxJointMatricesBuffer() - settings.getAnimationCacheSize();
+            this.animJointMatricesLimit = cacheStart - cacheStart % VkConstants.MAT4X4_SIZE;
+            this.animationCache = new AnimationCache(device, this.animJointMatricesBuffer, this.animJointMatricesLimit, settings.getMaxJointMatricesBuffer());
+        } else {
+            this.animJointMatricesLimit = settings.getMaxJointMatricesBuffer();
+            this.animationCache = null;
+        }
+
+        // Vertices and materials are addressed by index, everything the shaders read as vectors has to start on one
+        this.verticesArena = new GlobalBufferArena("vertices", 0, settings.getMaxVerticesBuffer(), VertexBufferStructure.SIZE_IN_BYTES);
+        this.indicesArena = new GlobalBufferArena("indices", 0, settings.getMaxIndicesBuffer(), VkConstants.INT_LENGTH);
+        this.materialsArena = new GlobalBufferArena("materials", 0, (int) this.materialsBuffer.getRequestedSize(), MATERIAL_SIZE);
+        this.animJointMatricesArena = new GlobalBufferArena("joint matrices", 0, this.animJointMatricesLimit, VkConstants.VEC4_SIZE);
+        this.animKeyframesArena = new GlobalBufferArena("keyframes", 0, settings.getMaxKeyframesBuffer(), VkConstants.VEC4_SIZE);
+        this.animWeightsArena = new GlobalBufferArena("weights", 0, settings.getMaxAnimWeightsBuffer(), VkConstants.VEC4_SIZE);
     }
 
     public void close() {
         LOGGER.info("Closing");
         this.verticesBuffer.close();
+        if (this.animationCache != null) this.animationCache.close();
         this.indicesBuffer.close();
         if (this.indirectBuffer != null) this.indirectBuffer.close();
         if (this.animVerticesBuffer != null) this.animVerticesBuffer.close();
-        if (this.animIndirectBuffer != null) this.animIndirectBuffer.close();
+        if (this.animIndirectBuffers != null) Arrays.stream(this.animIndirectBuffers).forEach(VkBuffer::close);
+        if (this.animPaletteBuffer != null) this.animPaletteBuffer.close();
         this.materialsBuffer.close();
         this.animJointMatricesBuffer.close();
+        this.animKeyframesBuffer.close();
         this.animWeightsBuffer.close();
         if (this.instanceDataBuffers != null) Arrays.stream(this.instanceDataBuffers).forEach(VkBuffer::close);
         if (this.animInstanceDataBuffers != null)
             Arrays.stream(this.animInstanceDataBuffers).forEach(VkBuffer::close);
     }
 
-    public VkBuffer getAnimIndirectBuffer() {
-        return this.animIndirectBuffer;
+    public VkBuffer[] getAnimIndirectBuffers() {
+        return this.animIndirectBuffers;
     }
 
     public VkBuffer[] getAnimInstanceDataBuffers() {
         return this.animInstanceDataBuffers;
     }
 
+    /**
+     * @return the cache lazily baked animations are played from, or null when lazy baking is disabled
+     */
+    public AnimationCache getAnimationCache() {
+        return this.animationCache;
+    }
+
     public VkBuffer getAnimJointMatricesBuffer() {
         return this.animJointMatricesBuffer;
     }
 
+    public VkBuffer getAnimKeyframesBuffer() {
+        return this.animKeyframesBuffer;
+    }
+
+    /**
+     * @return the joint matrices of entities whose animations are evaluated on the GPU, written every frame
+     */
+    public VkBuffer getAnimPaletteBuffer() {
+        return this.animPaletteBuffer;
+    }
+
+    /**
+     * @return the skinned copies of every animated entity's meshes, or null when skinning happens in the vertex shader
+     */
     public VkBuffer getAnimVerticesBuffer() {
         return this.animVerticesBuffer;
     }
 
+    /**
+     * @return the size in bytes of the region every frame in flight has in the anim vertices buffer
+     */
+    public int getAnimVerticesFrameSize() {
+        return this.animVerticesFrameSize;
+    }
+
+    /**
+     * @return how many joint matrices every frame in flight has in the palette buffer
+     */
+    public int getPaletteFrameSize() {
+        return this.paletteFrameSize;
+    }
+
     public VkBuffer getAnimWeightsBuffer() {
         return this.animWeightsBuffer;
     }
@@ -126,23 +222,59 @@ public class GlobalBuffers {
         return this.animatedEntityList;
     }
 
+    /**
+     * Entities of models marked with {@link #addPlaceholderModelId(String)} are drawn with this model instead
+     */
+    public void setPlaceholderModel(GpuModel placeholderModel) {
+        this.placeholderModel = placeholderModel;
+    }
+
+    public void addPlaceholderModelId(String modelId) {
+        this.placeholderModelIds.add(modelId);
+    }
+
+    public void removePlaceholderModelId(String modelId) {
+        this.placeholderModelIds.remove(modelId);
+    }
+
+    private List<RksEntity> getEntities(Scene scene, GpuModel model) {
+        if (model == this.placeholderModel) {
+            var entities = new ArrayList<RksEntity>();
+            for (var modelId : this.placeholderModelIds) entities.addAll(getEntities(scene, modelId));
+            return entities;
+        }
+
+        return getEntities(scene, model.getModelId());
+    }
+
+    private static List<RksEntity> getEntities(Scene scene, String modelId) {
+        var entities = scene.getEntitiesByModelId(modelId);
+        return entities != null ? entities : Collections.emptyList();
+    }
+
     private void loadAnimEntities(List<GpuModel> gpuModelList, Scene scene, CmdPool cmdPool, Queue queue, int numSwapChainImages) {
         try (var stack = MemoryStack.stackPush()) {
             this.animatedEntityList = new ArrayList<>();
             this.numAnimIndirectCommands = 0;
             var device = cmdPool.device;
-            var cmdBuffer = cmdPool.newBuffer(true, true);
 
             var bufferOffset = 0;
+            var paletteSize = 0;
             var firstInstance = 0;
             var animatedCmdList = new ArrayList<VkDrawIndexedIndirectCommand>();
             for (var vulkanModel : gpuModelList) {
-                var entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
-                if (entities.isEmpty()) continue;
+                var entities = getEntities(scene, vulkanModel);
+                if (entities.isEmpty() || !vulkanModel.hasAnimations()) continue;
+                var paletteJointCount = getPaletteJointCount(vulkanModel);
+                var modelEntityCount = 0;
                 for (var entity : entities) {
                     if (!entity.hasAnimation()) continue;
-                    var vulkanAnimEntity = new AnimatedEntity(entity, vulkanModel);
+                    var vulkanAnimEntity = new AnimatedEntity(entity, vulkanModel, paletteJointCount > 0 ? paletteSize : -1, paletteJointCount);
+                    paletteSize += paletteJointCount;
                     this.animatedEntityList.add(vulkanAnimEntity);
+                    modelEntityCount++;
+                    if (this.vertexSkinning) continue;
+
                     var vulkanAnimMeshList = vulkanAnimEntity.meshes;
                     for (var vulkanMesh : vulkanModel.getVulkanMeshList()) {
                         var cmd = VkDrawIndexedIndirectCommand.calloc(stack);
@@ -158,24 +290,49 @@ public class GlobalBuffers {
                         firstInstance++;
                     }
                 }
+
+                // Every entity is skinned from the model's own vertices, so they are drawn instanced like static ones
+                if (this.vertexSkinning && modelEntityCount > 0)
+                    for (var vulkanMesh : vulkanModel.getVulkanMeshList()) {
+                        var cmd = VkDrawIndexedIndirectCommand.calloc(stack);
+                        cmd.indexCount(vulkanMesh.numIndices());
+                        cmd.firstIndex(vulkanMesh.indicesOffset() / VkConstants.INT_LENGTH);
+                        cmd.instanceCount(modelEntityCount);
+                        cmd.vertexOffset(vulkanMesh.verticesOffset() / VertexBufferStructure.SIZE_IN_BYTES);
+                        cmd.firstInstance(firstInstance);
+                        animatedCmdList.add(cmd);
+                        firstInstance += modelEntityCount;
+                    }
             }
-            this.animVerticesBuffer = new VkBuffer(device, bufferOffset, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+            // Every frame in flight skins into its own region, so the animator never writes what a frame being drawn reads
+            this.animVerticesFrameSize = bufferOffset;
+            this.paletteFrameSize = paletteSize;
+            if (this.animVerticesBuffer != null) this.animVerticesBuffer.close();
+            this.animVerticesBuffer = this.vertexSkinning ? null : new VkBuffer(device, (long) bufferOffset * numSwapChainImages, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_SRC_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
+            if (this.animPaletteBuffer != null) this.animPaletteBuffer.close();
+            // Always created, as the animator binds it even when nothing is evaluated on the GPU
+            this.animPaletteBuffer = new VkBuffer(device, (long) Math.max(paletteSize * numSwapChainImages, 1) * VkConstants.MAT4X4_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_SRC_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, this.animQueueFamilies);
 
             this.numAnimIndirectCommands = animatedCmdList.size();
-            if (this.numAnimIndirectCommands > 0) cmdBuffer.record(queue, true, () -> {
-                var indirectStgBuffer = new StagingBuffer(device, (long) IND_COMMAND_STRIDE * this.numAnimIndirectCommands);
-                if (this.animIndirectBuffer != null) this.animIndirectBuffer.close();
-                this.animIndirectBuffer = new VkBuffer(
-                        device,
-                        indirectStgBuffer.stgVkBuffer.getRequestedSize(),
-                        VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT,
-                        0
-                );
-                var dataBuffer = indirectStgBuffer.mappedMem();
-                var indCommandBuffer = new VkDrawIndexedIndirectCommand.Buffer(dataBuffer);
-
-                animatedCmdList.forEach(indCommandBuffer::put);
+            var numInstances = firstInstance;
+            var instanceSize = this.vertexSkinning ? SkinnedVertexBufferStructure.INSTANCE_SIZE_IN_BYTES : VkConstants.MAT4X4_SIZE + VkConstants.INT_LENGTH;
+            if (this.numAnimIndirectCommands > 0) {
+                // Per frame and host visible, as entities sharing a pose get drawn with the same skinned vertices
+                if (this.animIndirectBuffers != null)
+                    Arrays.stream(this.animIndirectBuffers).forEach(VkBuffer::close);
+                this.animIndirectBuffers = new VkBuffer[numSwapChainImages];
+                for (var i = 0; i < numSwapChainImages; i++) {
+                    this.animIndirectBuffers[i] = new VkBuffer(
+                            device,
+                            (long) IND_COMMAND_STRIDE * this.numAnimIndirectCommands,
+                            VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT,
+                            VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT,
+                            0
+                    );
+                    var indCommandBuffer = new VkDrawIndexedIndirectCommand.Buffer(this.animIndirectBuffers[i].map(), this.numAnimIndirectCommands);
+                    animatedCmdList.forEach(indCommandBuffer::put);
+                    this.animIndirectBuffers[i].unMap();
+                }
 
                 if (this.animInstanceDataBuffers != null)
                     Arrays.stream(this.animInstanceDataBuffers).forEach(VkBuffer::close);
@@ -183,37 +340,127 @@ public class GlobalBuffers {
                 for (var i = 0; i < numSwapChainImages; i++)
                     this.animInstanceDataBuffers[i] = new VkBuffer(
                             device,
-                            (long) this.numAnimIndirectCommands * (VkConstants.MAT4X4_SIZE + VkConstants.INT_LENGTH),
+                            (long) numInstances * instanceSize,
                             VK_BUFFER_USAGE_VERTEX_BUFFER_BIT,
                             VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT,
                             0
                     );
-
-                indirectStgBuffer.recordTransferCommand(cmdBuffer, this.animIndirectBuffer);
-                return indirectStgBuffer::close;
-            });
+            }
         }
     }
 
-    private void loadAnimationData(ModelData modelData, GpuModel gpuModel, StagingBuffer animJointMatricesStagingBuffer) {
-        var animationsList = modelData.getAnimations();
+    /**
+     * @return how many joint matrices an entity of the model needs in the palette buffer. Every animated entity gets
+     * room for its largest clip, as any of them can be evaluated on the GPU or blended with another
+     */
+    private static int getPaletteJointCount(GpuModel model) {
+        var jointCount = 0;
+        for (var animationData : model.getAnimationData())
+            jointCount = Math.max(jointCount, animationData.getJointCount());
+
+        return jointCount;
+    }
+
+    private void loadAnimationData(ModelData modelData, GpuModel gpuModel, StagingBuffer animJointMatricesStagingBuffer, StagingBuffer animKeyframesStagingBuffer, Map<ModelData.PreComputedAnimation, Object> animationKeys, Map<Object, AnimationAllocation> animationAllocations) {
         if (!modelData.hasAnimations()) return;
-        var dataBuffer = animJointMatricesStagingBuffer.mappedMem();
-
-        for (var animation : animationsList) {
-            var animationData = new GpuModel.GpuAnimationData();
-            gpuModel.addVulkanAnimationData(animationData);
-            var frameList = animation.frames();
-            for (var matrices : frameList) {
-                animationData.addFrame(new GpuModel.GpuAnimationFrame(dataBuffer.position()));
-                for (var matrix : matrices) {
-                    matrix.get(dataBuffer);
-                    dataBuffer.position(dataBuffer.position() + VkConstants.MAT4X4_SIZE);
-                }
+
+        for (var animation : modelData.getAnimations()) {
+            var key = animationKeys.get(animation);
+            var shared = this.sharedAnimations.get(key);
+            if (shared == null) {
+                var allocation = animationAllocations.get(key);
+                animJointMatricesStagingBuffer.beginRegion(allocation.jointMatrices().offset());
+                animKeyframesStagingBuffer.beginRegion(allocation.keyframes().offset());
+                shared = new SharedAnimation(key, createAnimationData(animation, animJointMatricesStagingBuffer, animKeyframesStagingBuffer), allocation);
+                this.sharedAnimations.put(key, shared);
+                this.sharedAnimationsByData.put(shared.data, shared);
             }
+
+            shared.references++;
+            gpuModel.addVulkanAnimationData(shared.data);
+        }
+    }
+
+    private static GpuModel.GpuAnimationData createAnimationData(ModelData.PreComputedAnimation animation, StagingBuffer animJointMatricesStagingBuffer, StagingBuffer animKeyframesStagingBuffer) {
+        if (animation.isGpuEvaluated()) {
+            var keyframes = animation.keyframes();
+            var animationData = new GpuModel.GpuAnimationData(animKeyframesStagingBuffer.dstPosition(), KeyframePacker.getNodeCount(keyframes), animation.jointCount(), animation.frameCount(), animation.ticksPerFrame());
+            animKeyframesStagingBuffer.mappedMem().put(keyframes.duplicate());
+            return animationData;
+        }
+
+        if (!animation.isBaked()) return new GpuModel.GpuAnimationData(animation);
+
+        var animationData = new GpuModel.GpuAnimationData(animation.jointFormat(), animation.jointCount());
+        var start = animJointMatricesStagingBuffer.dstPosition();
+        for (var i = 0; i < animation.frameCount(); i++)
+            animationData.addFrame(new GpuModel.GpuAnimationFrame(start + i * animation.frameSize()));
+
+        animJointMatricesStagingBuffer.mappedMem().put(animation.frames().duplicate());
+        return animationData;
+    }
+
+    /**
+     * @return what identifies the animation's GPU data. That is the animation it was processed from, which
+     * {@link com.thepokecraftmod.rks.model.animation.AnimationRegistry} shares between models, with how it was
+     * processed. Clips read from the model cache have no animation, so they are keyed by a SHA-256 hash of their contents
+     */
+    private static Object getAnimationKey(ModelData.PreComputedAnimation animation) {
+        if (animation.source() != null)
+            return new AnimationKey(animation.source(), animation.isBaked(), animation.isGpuEvaluated(), animation.jointFormat(), animation.frameCount(), animation.ticksPerFrame());
+
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(VkConstants.INT_LENGTH * 4 + VkConstants.FLOAT_LENGTH)
+                    .putInt(animation.isBaked() ? 0 : 1)
+                    .putInt(animation.jointFormat().ordinal())
+                    .putInt(animation.frameCount())
+                    .putInt(animation.jointCount())
+                    .putFloat(animation.ticksPerFrame())
+                    .flip());
+            digest.update((animation.isBaked() ? animation.frames() : animation.keyframes()).duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
         }
     }
 
+    /**
+     * Drops the model's references to its animation data. Data no model references anymore stops being shared and its
+     * space in the global buffers is freed, so the GPU must be done reading it
+     */
+    private void releaseAnimations(GpuModel model) {
+        for (var animationData : model.getAnimationData()) {
+            var shared = this.sharedAnimationsByData.get(animationData);
+            if (shared == null || --shared.references > 0) continue;
+
+            this.sharedAnimations.remove(shared.key);
+            this.sharedAnimationsByData.remove(animationData);
+            free(shared.allocation);
+            if (this.animationCache != null && animationData.isLazy()) this.animationCache.release(animationData);
+        }
+    }
+
+    /**
+     * Frees the model's ranges of the global buffers for later uploads to reuse and releases its animations. Nothing
+     * still being drawn or skinned may use the model.
+     */
+    public void unloadModel(GpuModel model) {
+        var allocation = this.modelAllocations.remove(model);
+        if (allocation == null) return;
+
+        free(allocation);
+        releaseAnimations(model);
+    }
+
+    /**
+     * @return how many models use the animation data
+     */
+    public int getReferenceCount(GpuModel.GpuAnimationData animationData) {
+        var shared = this.sharedAnimationsByData.get(animationData);
+        return shared != null ? shared.references : 0;
+    }
+
     public void loadEntities(List<GpuModel> gpuModelList, Scene scene, CmdPool cmdPool, Queue queue, int numSwapChainImages) {
         loadStaticEntities(gpuModelList, scene, cmdPool, queue, numSwapChainImages);
         loadAnimEntities(gpuModelList, scene, cmdPool, queue, numSwapChainImages);
@@ -226,18 +473,79 @@ public class GlobalBuffers {
         }
 
         if (this.animInstanceDataBuffers != null) {
+            if (this.vertexSkinning) {
+                loadSkinnedInstanceData(this.animInstanceDataBuffers[currentSwapChainIdx]);
+                return;
+            }
+
             Predicate<GpuModel> excludedStaticEntitiesPredicate = v -> !v.hasAnimations();
             loadInstanceData(scene, gpuModels, this.animInstanceDataBuffers[currentSwapChainIdx], excludedStaticEntitiesPredicate);
+            loadAnimIndirectCommands(this.animIndirectBuffers[currentSwapChainIdx]);
         }
     }
 
+    /**
+     * Points the draws of every animated entity at the vertices of the entity it shares its pose with. Commands are in
+     * the same order as the animated entities and their meshes
+     */
+    private void loadAnimIndirectCommands(VkBuffer indirectBuffer) {
+        var dataBuffer = MemoryUtil.memByteBuffer(indirectBuffer.map(), (int) indirectBuffer.getRequestedSize());
+        var pos = VkDrawIndexedIndirectCommand.VERTEXOFFSET;
+        for (var animatedEntity : this.animatedEntityList)
+            for (var vulkanAnimMesh : animatedEntity.skinSource.meshes) {
+                dataBuffer.putInt(pos, vulkanAnimMesh.meshOffset() / VertexBufferStructure.SIZE_IN_BYTES);
+                pos += IND_COMMAND_STRIDE;
+            }
+        indirectBuffer.unMap();
+    }
+
+    /**
+     * Writes what the vertex shader skins each animated entity with next to its model matrix. An entity's pose must be
+     * updated before this is called. A model's entities are next to each other in the animated entity list and every
+     * mesh of the model draws all of them
+     */
+    private void loadSkinnedInstanceData(VkBuffer instanceBuffer) {
+        var mappedMemory = instanceBuffer.map();
+        var dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) instanceBuffer.getRequestedSize());
+        var weightFloats = ModelProcessor.WEIGHTS_SIZE_IN_BYTES / VkConstants.FLOAT_LENGTH;
+        var pos = 0;
+        var start = 0;
+        while (start < this.animatedEntityList.size()) {
+            var model = this.animatedEntityList.get(start).model;
+            var end = start + 1;
+            while (end < this.animatedEntityList.size() && this.animatedEntityList.get(end).model == model) end++;
+
+            for (var vulkanMesh : model.getVulkanMeshList()) {
+                // The shader adds gl_VertexIndex, which counts from the start of the vertices buffer
+                var weightsBase = vulkanMesh.weightsOffset() / VkConstants.FLOAT_LENGTH - vulkanMesh.verticesOffset() / VertexBufferStructure.SIZE_IN_BYTES * weightFloats;
+                for (var i = start; i < end; i++) {
+                    var animatedEntity = this.animatedEntityList.get(i);
+                    animatedEntity.entity.getModelMatrix().get(pos, dataBuffer);
+                    pos += VkConstants.MAT4X4_SIZE;
+                    dataBuffer.putInt(pos, vulkanMesh.globalMaterialIdx());
+                    pos += VkConstants.INT_LENGTH;
+                    dataBuffer.putInt(pos, weightsBase);
+                    dataBuffer.putInt(pos + VkConstants.INT_LENGTH, animatedEntity.posed ? animatedEntity.jointOffset / VkConstants.VEC4_SIZE : -1);
+                    dataBuffer.putInt(pos + VkConstants.INT_LENGTH * 2, animatedEntity.nextJointOffset / VkConstants.VEC4_SIZE);
+                    dataBuffer.putInt(pos + VkConstants.INT_LENGTH * 3, animatedEntity.getJointFlags());
+                    pos += VkConstants.INT_LENGTH * 4;
+                    dataBuffer.putFloat(pos, animatedEntity.frameBlend);
+                    pos += VkConstants.FLOAT_LENGTH;
+                }
+            }
+
+            start = end;
+        }
+        instanceBuffer.unMap();
+    }
+
     private void loadInstanceData(Scene scene, List<GpuModel> gpuModels, VkBuffer instanceBuffer, Predicate<GpuModel> excludedEntitiesPredicate) {
         if (instanceBuffer == null) return;
         var mappedMemory = instanceBuffer.map();
         var dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) instanceBuffer.getRequestedSize());
         var pos = 0;
         for (var vulkanModel : gpuModels) {
-            var entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
+            var entities = getEntities(scene, vulkanModel);
             if (entities.isEmpty() || excludedEntitiesPredicate.test(vulkanModel)) continue;
             for (var vulkanMesh : vulkanModel.getVulkanMeshList())
                 for (var entity : entities) {
@@ -267,7 +575,7 @@ public class GlobalBuffers {
             if (texture != null) textureList.add(texture);
             var metalRoughMapIdx = textureCache.getPosition(material.metalRoughMap());
 
-            vulkanMaterialList.add(new GpuModel.VulkanMaterial(dataBuffer.position() / MATERIAL_SIZE));
+            vulkanMaterialList.add(new GpuModel.VulkanMaterial(materialsStagingBuffer.dstPosition() / MATERIAL_SIZE));
             material.diffuseColor().get(dataBuffer);
             dataBuffer.position(dataBuffer.position() + VkConstants.VEC4_SIZE);
             dataBuffer.putInt(textureIdx);
@@ -287,101 +595,178 @@ public class GlobalBuffers {
     private void loadMeshes(StagingBuffer verticesStagingBuffer, StagingBuffer indicesStagingBuffer, StagingBuffer animWeightsStagingBuffer, ModelData modelData, GpuModel gpuModel, List<GpuModel.VulkanMaterial> vulkanMaterialList) {
         var verticesBuffer = verticesStagingBuffer.mappedMem();
         var indicesBuffer = indicesStagingBuffer.mappedMem();
-        var weightsBuffer = animWeightsStagingBuffer.mappedMem();
         var meshes = modelData.getMeshDataList();
         var meshCount = 0;
+        var boundingRadiusSquared = 0f;
 
         for (var meshData : meshes) {
-            var positions = meshData.positions();
-            var normals = meshData.normals();
-            var tangents = meshData.tangents();
-            var biTangents = meshData.biTangents();
-            var textCoords = meshData.textCoords();
-            if (textCoords == null || textCoords.length == 0) textCoords = new float[(positions.length / 3) * 2];
+            var vertices = meshData.vertices();
             var indices = meshData.indices();
-
-            var numElements = positions.length + normals.length + tangents.length + biTangents.length + textCoords.length;
-            var verticesSize = numElements * VkConstants.FLOAT_LENGTH;
+            var verticesSize = vertices.remaining();
+            for (var i = vertices.position(); i < vertices.limit(); i += VertexBufferStructure.SIZE_IN_BYTES) {
+                var x = vertices.getFloat(i);
+                var y = vertices.getFloat(i + VkConstants.FLOAT_LENGTH);
+                var z = vertices.getFloat(i + VkConstants.FLOAT_LENGTH * 2);
+                boundingRadiusSquared = Math.max(boundingRadiusSquared, x * x + y * y + z * z);
+            }
 
             var localMaterialIdx = meshData.materialIdx();
             var globalMaterialIdx = 0;
             if (localMaterialIdx >= 0 && localMaterialIdx < vulkanMaterialList.size())
                 globalMaterialIdx = vulkanMaterialList.get(localMaterialIdx).globalMaterialIdx();
-            gpuModel.addVulkanMesh(new GpuModel.VulkanMesh(verticesSize, indices.length, verticesBuffer.position(), indicesBuffer.position(), globalMaterialIdx, weightsBuffer.position()));
-
-            var rows = positions.length / 3;
-            for (var row = 0; row < rows; row++) {
-                var startPos = row * 3;
-                var startTextCoord = row * 2;
-                verticesBuffer.putFloat(positions[startPos])
-                        .putFloat(positions[startPos + 1])
-                        .putFloat(positions[startPos + 2])
-                        .putFloat(normals[startPos])
-                        .putFloat(normals[startPos + 1])
-                        .putFloat(normals[startPos + 2])
-                        .putFloat(tangents[startPos])
-                        .putFloat(tangents[startPos + 1])
-                        .putFloat(tangents[startPos + 2])
-                        .putFloat(biTangents[startPos])
-                        .putFloat(biTangents[startPos + 1])
-                        .putFloat(biTangents[startPos + 2])
-                        .putFloat(textCoords[startTextCoord])
-                        .putFloat(textCoords[startTextCoord + 1]);
-            }
+            gpuModel.addVulkanMesh(new GpuModel.VulkanMesh(verticesSize, indices.remaining(), verticesStagingBuffer.dstPosition(), indicesStagingBuffer.dstPosition(), globalMaterialIdx, animWeightsStagingBuffer.dstPosition()));
 
-            Arrays.stream(indices).forEach(indicesBuffer::putInt);
+            verticesBuffer.put(vertices.duplicate());
+            indicesBuffer.put(MemoryUtil.memByteBuffer(indices));
 
             loadWeightsBuffer(modelData, animWeightsStagingBuffer, meshCount);
             meshCount++;
         }
+
+        gpuModel.setBoundingRadius((float) Math.sqrt(boundingRadiusSquared));
     }
 
     public List<GpuModel> loadModels(List<ModelData> models, TextureCache textureCache, CmdPool cmdPool, Queue queue) {
+        var upload = uploadModels(models, textureCache, cmdPool, queue);
+        upload.waitForCompletion();
+        upload.close();
+        return upload.models;
+    }
+
+    /**
+     * Writes the models into free ranges of the global buffers, which models unloaded earlier may have left. Only those
+     * ranges are staged and the transfer is submitted without waiting for it. The returned upload must be closed once
+     * it has completed.
+     */
+    public ModelUpload uploadModels(List<ModelData> models, TextureCache textureCache, CmdPool cmdPool, Queue queue) {
         var gpuModelList = new ArrayList<GpuModel>();
         var textureList = new ArrayList<Texture>();
+        GlobalBufferArena.Allocation defaultMaterial = null;
+
+        var verticesSize = 0L;
+        var indicesSize = 0L;
+        var materialsSize = 0L;
+        var animJointMatricesSize = 0L;
+        var animKeyframesSize = 0L;
+        var animWeightsSize = 0L;
+        var animationKeys = new IdentityHashMap<ModelData.PreComputedAnimation, Object>();
+        var modelAllocations = new ArrayList<ModelAllocation>();
+        var animationAllocations = new HashMap<Object, AnimationAllocation>();
+        var sharedCount = 0;
+        try {
+            // The default material is the first one allocated, so it always has index 0
+            if (!this.defaultMaterialLoaded) {
+                defaultMaterial = this.materialsArena.allocate(MATERIAL_SIZE);
+                materialsSize += MATERIAL_SIZE;
+            }
+
+            for (var modelData : models) {
+                var modelVerticesSize = 0L;
+                var modelIndicesSize = 0L;
+                var modelWeightsSize = 0L;
+                var modelMaterialsSize = (long) modelData.getMaterialList().size() * MATERIAL_SIZE;
+                for (var meshData : modelData.getMeshDataList()) {
+                    modelVerticesSize += meshData.vertices().remaining();
+                    modelIndicesSize += (long) meshData.indices().remaining() * VkConstants.INT_LENGTH;
+                }
+                if (modelData.getAnimMeshDataList() != null)
+                    for (var animMeshData : modelData.getAnimMeshDataList()) modelWeightsSize += animMeshData.weights().remaining();
+
+                modelAllocations.add(new ModelAllocation(this.verticesArena.allocate(modelVerticesSize), this.indicesArena.allocate(modelIndicesSize), this.materialsArena.allocate(modelMaterialsSize), this.animWeightsArena.allocate(modelWeightsSize)));
+                verticesSize += modelVerticesSize;
+                indicesSize += modelIndicesSize;
+                materialsSize += modelMaterialsSize;
+                animWeightsSize += modelWeightsSize;
+
+                if (modelData.hasAnimations())
+                    for (var animation : modelData.getAnimations()) {
+                        var key = getAnimationKey(animation);
+                        animationKeys.put(animation, key);
+                        // Only the first copy of a clip is uploaded
+                        if (this.sharedAnimations.containsKey(key) || animationAllocations.containsKey(key)) {
+                            sharedCount++;
+                            continue;
+                        }
+
+                        var jointMatricesSize = animation.isBaked() ? animation.frames().remaining() : 0L;
+                        var keyframesSize = animation.isGpuEvaluated() ? animation.keyframes().remaining() : 0L;
+                        animationAllocations.put(key, new AnimationAllocation(this.animJointMatricesArena.allocate(jointMatricesSize), this.animKeyframesArena.allocate(keyframesSize)));
+                        animJointMatricesSize += jointMatricesSize;
+                        animKeyframesSize += keyframesSize;
+                    }
+            }
+        } catch (RuntimeException e) {
+            // Nothing of the batch gets uploaded, so none of what it allocated stays in use
+            if (defaultMaterial != null) this.materialsArena.free(defaultMaterial);
+            modelAllocations.forEach(this::free);
+            animationAllocations.values().forEach(this::free);
+            throw e;
+        }
+        if (sharedCount > 0) LOGGER.info("Sharing {} animation(s) with identical ones already loaded", sharedCount);
 
         var device = cmdPool.device;
         var cmd = cmdPool.newBuffer(true, true);
 
-        var verticesStgBuffer = new StagingBuffer(device, this.verticesBuffer.getRequestedSize());
-        var indicesStgBuffer = new StagingBuffer(device, this.indicesBuffer.getRequestedSize());
-        var materialsStgBuffer = new StagingBuffer(device, this.materialsBuffer.getRequestedSize());
-        var animJointMatricesStgBuffer = new StagingBuffer(device, this.animJointMatricesBuffer.getRequestedSize());
-        var animWeightsStgBuffer = new StagingBuffer(device, this.animWeightsBuffer.getRequestedSize());
-
-        cmd.record(queue, true, () -> {
+        var verticesStgBuffer = new StagingBuffer(device, this.verticesBuffer, verticesSize);
+        var indicesStgBuffer = new StagingBuffer(device, this.indicesBuffer, indicesSize);
+        var materialsStgBuffer = new StagingBuffer(device, this.materialsBuffer, materialsSize);
+        var animJointMatricesStgBuffer = new StagingBuffer(device, this.animJointMatricesBuffer, animJointMatricesSize);
+        var animKeyframesStgBuffer = new StagingBuffer(device, this.animKeyframesBuffer, animKeyframesSize);
+        var animWeightsStgBuffer = new StagingBuffer(device, this.animWeightsBuffer, animWeightsSize);
+        var stagingBuffers = List.of(verticesStgBuffer, indicesStgBuffer, materialsStgBuffer, animJointMatricesStgBuffer, animKeyframesStgBuffer, animWeightsStgBuffer);
+        var fence = new Fence(device, false);
+
+        try {
+            cmd.beginRecording();
             // Load a default material
-            var defaultMaterialList = Collections.singletonList(new ModelData.Material());
-            loadMaterials(textureCache, materialsStgBuffer, defaultMaterialList, textureList);
+            if (defaultMaterial != null) {
+                var defaultMaterialList = Collections.singletonList(new ModelData.Material());
+                materialsStgBuffer.beginRegion(defaultMaterial.offset());
+                loadMaterials(textureCache, materialsStgBuffer, defaultMaterialList, textureList);
+            }
 
-            for (var modelData : models) {
-                var vulkanModel = new GpuModel(modelData.getModelId());
+            for (var i = 0; i < models.size(); i++) {
+                var modelData = models.get(i);
+                var vulkanModel = new GpuModel(modelData.getModelId(), modelData.getAcquiredAnimations());
+                var allocation = modelAllocations.get(i);
                 gpuModelList.add(vulkanModel);
+                this.modelAllocations.put(vulkanModel, allocation);
 
+                verticesStgBuffer.beginRegion(allocation.vertices().offset());
+                indicesStgBuffer.beginRegion(allocation.indices().offset());
+                materialsStgBuffer.beginRegion(allocation.materials().offset());
+                animWeightsStgBuffer.beginRegion(allocation.weights().offset());
                 var vulkanMaterialList = loadMaterials(textureCache, materialsStgBuffer, modelData.getMaterialList(), textureList);
                 loadMeshes(verticesStgBuffer, indicesStgBuffer, animWeightsStgBuffer, modelData, vulkanModel, vulkanMaterialList);
-                loadAnimationData(modelData, vulkanModel, animJointMatricesStgBuffer);
+                loadAnimationData(modelData, vulkanModel, animJointMatricesStgBuffer, animKeyframesStgBuffer, animationKeys, animationAllocations);
             }
 
             if (textureList.isEmpty()) throw new RuntimeException("Impossible Scenario. Not a single texture loaded");
 
-            materialsStgBuffer.recordTransferCommand(cmd, this.materialsBuffer);
-            verticesStgBuffer.recordTransferCommand(cmd, this.verticesBuffer);
-            indicesStgBuffer.recordTransferCommand(cmd, this.indicesBuffer);
-            animJointMatricesStgBuffer.recordTransferCommand(cmd, this.animJointMatricesBuffer);
-            animWeightsStgBuffer.recordTransferCommand(cmd, this.animWeightsBuffer);
+            stagingBuffers.forEach(stagingBuffer -> stagingBuffer.recordTransferCommand(cmd));
             textureList.forEach(t -> t.recordTextureTransition(cmd));
-            return null;
-        });
+            cmd.endRecording();
 
-        verticesStgBuffer.close();
-        indicesStgBuffer.close();
-        materialsStgBuffer.close();
-        animJointMatricesStgBuffer.close();
-        animWeightsStgBuffer.close();
-        textureList.forEach(Texture::closeStaging);
+            try (var stack = MemoryStack.stackPush()) {
+                queue.submit(stack.pointers(cmd.vk()), null, null, null, fence);
+            }
+        } catch (RuntimeException e) {
+            // The textures keep their staging data, as other uploads may still transfer them
+            stagingBuffers.forEach(StagingBuffer::close);
+            cmd.close();
+            fence.close();
+            // Clips which were allocated but not registered yet, as registered ones are freed with the models using them
+            animationAllocations.forEach((key, allocation) -> {
+                if (!this.sharedAnimations.containsKey(key)) free(allocation);
+            });
+            gpuModelList.forEach(this::unloadModel);
+            for (var i = gpuModelList.size(); i < modelAllocations.size(); i++) free(modelAllocations.get(i));
+            if (defaultMaterial != null) this.materialsArena.free(defaultMaterial);
+            throw e;
+        }
 
-        return gpuModelList;
+        if (defaultMaterial != null) this.defaultMaterialLoaded = true;
+        return new ModelUpload(gpuModelList, cmd, fence, stagingBuffers, textureList);
     }
 
     private void loadStaticEntities(List<GpuModel> gpuModelList, Scene scene, CmdPool cmdPool, Queue queue, int numSwapChainImages) {
@@ -394,7 +779,7 @@ public class GlobalBuffers {
             var numInstances = 0;
             var firstInstance = 0;
             for (var vulkanModel : gpuModelList) {
-                var entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
+                var entities = getEntities(scene, vulkanModel);
                 if (entities.isEmpty() || vulkanModel.hasAnimations()) continue;
                 for (var vulkanMesh : vulkanModel.getVulkanMeshList()) {
                     var indexedIndirectCommand = VkDrawIndexedIndirectCommand.calloc(stack);
@@ -442,21 +827,68 @@ public class GlobalBuffers {
         var animMeshDataList = modelData.getAnimMeshDataList();
         if (animMeshDataList == null || animMeshDataList.isEmpty()) return;
         var animMeshData = animMeshDataList.get(meshCount);
-        var weights = animMeshData.weights();
-        var boneIds = animMeshData.boneIds();
-        var dataBuffer = animWeightsBuffer.mappedMem();
-
-        var rows = weights.length / 4;
-        for (var row = 0; row < rows; row++) {
-            var startPos = row * 4;
-            dataBuffer.putFloat(weights[startPos])
-                    .putFloat(weights[startPos + 1])
-                    .putFloat(weights[startPos + 2])
-                    .putFloat(weights[startPos + 3])
-                    .putFloat(boneIds[startPos])
-                    .putFloat(boneIds[startPos + 1])
-                    .putFloat(boneIds[startPos + 2])
-                    .putFloat(boneIds[startPos + 3]);
+        animWeightsBuffer.mappedMem().put(animMeshData.weights().duplicate());
+    }
+
+    private void free(ModelAllocation allocation) {
+        this.verticesArena.free(allocation.vertices());
+        this.indicesArena.free(allocation.indices());
+        this.materialsArena.free(allocation.materials());
+        this.animWeightsArena.free(allocation.weights());
+    }
+
+    private void free(AnimationAllocation allocation) {
+        this.animJointMatricesArena.free(allocation.jointMatrices());
+        this.animKeyframesArena.free(allocation.keyframes());
+    }
+
+    private record ModelAllocation(GlobalBufferArena.Allocation vertices, GlobalBufferArena.Allocation indices, GlobalBufferArena.Allocation materials, GlobalBufferArena.Allocation weights) {}
+
+    private record AnimationAllocation(GlobalBufferArena.Allocation jointMatrices, GlobalBufferArena.Allocation keyframes) {}
+
+    private record AnimationKey(Animation source, boolean baked, boolean gpuEvaluated, ModelData.JointFormat jointFormat, int frameCount, float ticksPerFrame) {}
+
+    private static class SharedAnimation {
+        private final Object key;
+        private final GpuModel.GpuAnimationData data;
+        private final AnimationAllocation allocation;
+        private int references;
+
+        private SharedAnimation(Object key, GpuModel.GpuAnimationData data, AnimationAllocation allocation) {
+            this.key = key;
+            this.data = data;
+            this.allocation = allocation;
+        }
+    }
+
+    public static class ModelUpload {
+        public final List<GpuModel> models;
+        private final CmdBuffer cmd;
+        private final Fence fence;
+        private final List<StagingBuffer> stagingBuffers;
+        private final List<Texture> textures;
+
+        private ModelUpload(List<GpuModel> models, CmdBuffer cmd, Fence fence, List<StagingBuffer> stagingBuffers, List<Texture> textures) {
+            this.models = models;
+            this.cmd = cmd;
+            this.fence = fence;
+            this.stagingBuffers = stagingBuffers;
+            this.textures = textures;
+        }
+
+        public boolean isComplete() {
+            return this.fence.isSignaled();
+        }
+
+        public void waitForCompletion() {
+            this.fence.waitForFence();
+        }
+
+        public void close() {
+            this.stagingBuffers.forEach(StagingBuffer::close);
+            this.textures.forEach(Texture::closeStaging);
+            this.cmd.close();
+            this.fence.close();
         }
     }
 
@@ -464,11 +896,37 @@ public class GlobalBuffers {
 
         private final ByteBuffer dataBuffer;
         private final VkBuffer stgVkBuffer;
+        private final VkBuffer dstBuffer;
+        private final List<Region> regions = new ArrayList<>();
 
         public StagingBuffer(Device device, long size) {
-            this.stgVkBuffer = new VkBuffer(device, size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+            this(device, null, size);
+        }
+
+        /**
+         * Stages ranges of dstBuffer, see {@link #beginRegion(int)}
+         */
+        public StagingBuffer(Device device, VkBuffer dstBuffer, long size) {
+            this.dstBuffer = dstBuffer;
+            // Vulkan does not allow empty buffers
+            this.stgVkBuffer = new VkBuffer(device, Math.max(size, 1), VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
             var mappedMemory = this.stgVkBuffer.map();
-            this.dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) this.stgVkBuffer.getRequestedSize());
+            this.dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) size);
+        }
+
+        /**
+         * Makes the bytes written from now on end up at dstOffset in the destination buffer
+         */
+        public void beginRegion(int dstOffset) {
+            this.regions.add(new Region(this.dataBuffer.position(), dstOffset));
+        }
+
+        /**
+         * @return the offset in the destination buffer the next written byte ends up at
+         */
+        public int dstPosition() {
+            var region = this.regions.get(this.regions.size() - 1);
+            return region.dstOffset() + this.dataBuffer.position() - region.srcOffset();
         }
 
         public void close() {
@@ -480,6 +938,25 @@ public class GlobalBuffers {
             return this.dataBuffer;
         }
 
+        private void recordTransferCommand(CmdBuffer cmd) {
+            try (var stack = MemoryStack.stackPush()) {
+                var copyRegions = VkBufferCopy.calloc(this.regions.size(), stack);
+                var copyCount = 0;
+                for (var i = 0; i < this.regions.size(); i++) {
+                    var region = this.regions.get(i);
+                    var end = i + 1 < this.regions.size() ? this.regions.get(i + 1).srcOffset() : this.dataBuffer.position();
+                    if (end == region.srcOffset()) continue;
+                    copyRegions.get(copyCount++)
+                            .srcOffset(region.srcOffset())
+                            .dstOffset(region.dstOffset())
+                            .size(end - region.srcOffset());
+                }
+
+                if (copyCount > 0)
+                    vkCmdCopyBuffer(cmd.vk(), this.stgVkBuffer.getBuffer(), this.dstBuffer.getBuffer(), copyRegions.limit(copyCount));
+            }
+        }
+
         private void recordTransferCommand(CmdBuffer cmd, VkBuffer dstBuffer) {
             try (var stack = MemoryStack.stackPush()) {
                 var copyRegion = VkBufferCopy.calloc(1, stack)
@@ -489,5 +966,7 @@ public class GlobalBuffers {
                 vkCmdCopyBuffer(cmd.vk(), this.stgVkBuffer.getBuffer(), dstBuffer.getBuffer(), copyRegion);
             }
         }
+
+        private record Region(int srcOffset, int dstOffset) {}
     }
 }
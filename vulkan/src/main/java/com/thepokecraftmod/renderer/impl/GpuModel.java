@@ -1,5 +1,9 @@
 package com.thepokecraftmod.renderer.impl;
 
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.RksEntity;
+import com.thepokecraftmod.rks.model.animation.Animation;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,11 +12,14 @@ public class GpuModel {
     private final String modelId;
     private final List<GpuAnimationData> gpuAnimationDataList;
     private final List<VulkanMesh> vulkanMeshList;
+    private final List<Animation> acquiredAnimations;
+    private float boundingRadius;
 
-    public GpuModel(String modelId) {
+    public GpuModel(String modelId, List<Animation> acquiredAnimations) {
         this.modelId = modelId;
         this.vulkanMeshList = new ArrayList<>();
         this.gpuAnimationDataList = new ArrayList<>();
+        this.acquiredAnimations = acquiredAnimations;
     }
 
     public void addVulkanAnimationData(GpuAnimationData gpuAnimationData) {
@@ -31,6 +38,24 @@ public class GpuModel {
         return this.gpuAnimationDataList;
     }
 
+    /**
+     * @see ModelData#getAcquiredAnimations()
+     */
+    public List<Animation> getAcquiredAnimations() {
+        return this.acquiredAnimations;
+    }
+
+    /**
+     * @return the distance of the model's furthest bind pose vertex from its origin
+     */
+    public float getBoundingRadius() {
+        return this.boundingRadius;
+    }
+
+    public void setBoundingRadius(float boundingRadius) {
+        this.boundingRadius = boundingRadius;
+    }
+
     public List<VulkanMesh> getVulkanMeshList() {
         return this.vulkanMeshList;
     }
@@ -42,9 +67,97 @@ public class GpuModel {
     public static class GpuAnimationData {
 
         private final List<GpuAnimationFrame> frameList;
+        private final ModelData.JointFormat jointFormat;
+        private final ModelData.PreComputedAnimation lazyAnimation;
+        private final int keyframesOffset;
+        private final int nodeCount;
+        private final int jointCount;
+        private final float ticksPerFrame;
+        private final int evaluatedFrameCount;
+
+        public GpuAnimationData(ModelData.JointFormat jointFormat, int jointCount) {
+            this.frameList = new ArrayList<>();
+            this.jointFormat = jointFormat;
+            this.lazyAnimation = null;
+            this.keyframesOffset = -1;
+            this.nodeCount = 0;
+            this.jointCount = jointCount;
+            this.evaluatedFrameCount = 0;
+            this.ticksPerFrame = 1;
+        }
+
+        /**
+         * @param lazyAnimation the animation to bake on first use
+         */
+        public GpuAnimationData(ModelData.PreComputedAnimation lazyAnimation) {
+            this.frameList = new ArrayList<>();
+            this.jointFormat = lazyAnimation.jointFormat();
+            this.lazyAnimation = lazyAnimation;
+            this.keyframesOffset = -1;
+            this.nodeCount = 0;
+            this.jointCount = lazyAnimation.jointCount();
+            this.evaluatedFrameCount = 0;
+            this.ticksPerFrame = lazyAnimation.ticksPerFrame();
+        }
 
-        public GpuAnimationData() {
+        /**
+         * @param keyframesOffset where the packed keyframes start in the keyframes buffer, in bytes
+         */
+        public GpuAnimationData(int keyframesOffset, int nodeCount, int jointCount, int frameCount, float ticksPerFrame) {
             this.frameList = new ArrayList<>();
+            this.jointFormat = ModelData.JointFormat.MAT4;
+            this.lazyAnimation = null;
+            this.keyframesOffset = keyframesOffset;
+            this.nodeCount = nodeCount;
+            this.jointCount = jointCount;
+            this.evaluatedFrameCount = frameCount;
+            this.ticksPerFrame = ticksPerFrame;
+        }
+
+        public ModelData.JointFormat getJointFormat() {
+            return this.jointFormat;
+        }
+
+        public boolean isLazy() {
+            return this.lazyAnimation != null;
+        }
+
+        public ModelData.PreComputedAnimation getLazyAnimation() {
+            return this.lazyAnimation;
+        }
+
+        /**
+         * @return if the joint matrices are evaluated from keyframes by the GPU every frame
+         */
+        public boolean isGpuEvaluated() {
+            return this.keyframesOffset != -1;
+        }
+
+        public int getKeyframesOffset() {
+            return this.keyframesOffset;
+        }
+
+        public int getNodeCount() {
+            return this.nodeCount;
+        }
+
+        public int getJointCount() {
+            return this.jointCount;
+        }
+
+        /**
+         * @return the number of baked frames, which is what {@link RksEntity.AnimationInstance} frames wrap at
+         */
+        public int getFrameCount() {
+            if (isLazy()) return this.lazyAnimation.frameCount();
+            return isGpuEvaluated() ? this.evaluatedFrameCount : this.frameList.size();
+        }
+
+        /**
+         * @return animation ticks between two frames, used to turn a frame into a sample time for GPU evaluation
+         */
+        public float getTicksPerFrame() {
+            return this.ticksPerFrame;
         }
 
         public void addFrame(GpuAnimationFrame gpuAnimationFrame) {
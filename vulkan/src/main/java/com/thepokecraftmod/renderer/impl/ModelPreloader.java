@@ -0,0 +1,232 @@
+package com.thepokecraftmod.renderer.impl;
+
+import com.thepokecraftmod.renderer.scene.ModelCache;
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.renderer.wrapper.core.Settings;
+import com.thepokecraftmod.renderer.wrapper.init.Device;
+import com.thepokecraftmod.rks.ModelLocator;
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.AnimationRegistry;
+import com.thepokecraftmod.rks.model.texture.TextureType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R8G8B8A8_SRGB;
+
+/**
+ * Loads many models at once. Import, animation parsing, processing/baking and texture decoding run in parallel on a
+ * bounded pool. When the queue is full the submitting thread runs the work itself, which stops it from racing ahead
+ * of the workers. Only texture creation and the final upload run on the calling thread, as one batch. Models with an
+ * up to date {@link ModelCache} entry skip import, animation parsing and processing.
+ */
+public class ModelPreloader implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelPreloader.class);
+    private static final TextureType[] TEXTURE_TYPES = {TextureType.ALBEDO, TextureType.NORMALS, TextureType.ROUGHNESS};
+    private static final ModelCache MODEL_CACHE = new ModelCache(Settings.getInstance().getCacheDirectory().resolve("models"));
+    private final ThreadPoolExecutor executor;
+
+    public ModelPreloader(int threads) {
+        var threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 2), r -> {
+            var thread = new Thread(r, "RKS Model Loader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public ModelPreloader() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public Timings preload(Renderer renderer, List<ModelSource> sources) {
+        var start = System.nanoTime();
+        var stageTimes = new StageTimes();
+
+        var futures = new ArrayList<Future<LoadedModel>>();
+        for (var source : sources) futures.add(this.executor.submit(() -> load(source, stageTimes)));
+
+        var models = new ArrayList<LoadedModel>();
+        RuntimeException failure = null;
+        for (var future : futures) {
+            try {
+                models.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new RuntimeException("Interrupted while preloading models", e);
+            } catch (ExecutionException e) {
+                if (failure == null) failure = new RuntimeException("Failed to preload model", e.getCause());
+            }
+        }
+
+        var uploadStart = System.nanoTime();
+        try {
+            if (failure != null) throw failure;
+            for (var model : models) model.createTextures(renderer.textureCache, renderer.device);
+            renderer.loadModels(models.stream().map(LoadedModel::data).toList());
+        } catch (RuntimeException e) {
+            // None of the batch gets loaded, so neither do the animations it acquired
+            for (var model : models) releaseAnimations(model.data());
+            throw e;
+        }
+        var end = System.nanoTime();
+
+        var timings = new Timings(
+                sources.size(),
+                stageTimes.importTime.sum(),
+                stageTimes.animationTime.sum(),
+                stageTimes.processTime.sum(),
+                stageTimes.textureTime.sum(),
+                end - uploadStart,
+                end - start
+        );
+        LOGGER.info("Preloaded {}", timings);
+        return timings;
+    }
+
+    static LoadedModel load(ModelSource source) {
+        return load(source, new StageTimes());
+    }
+
+    private static LoadedModel load(ModelSource source, StageTimes stageTimes) {
+        var locator = source.locator();
+        Supplier<ModelData> processor = () -> {
+            var time = System.nanoTime();
+            var model = AssimpModelLoader.load(source.modelFile(), locator, source.assimpFlags());
+            time = stageTimes.record(stageTimes.importTime, time);
+
+            var animations = new ArrayList<Animation>();
+            try {
+                for (var animation : source.animations().entrySet())
+                    animations.add(ModelProcessor.acquireAnimation(animation.getKey(), locator.getFileBuffer(animation.getValue()), model.skeleton()));
+                time = stageTimes.record(stageTimes.animationTime, time);
+
+                var data = ModelProcessor.loadModel(source.modelId(), locator, model, animations, source.jointFormat());
+                data.setAcquiredAnimations(animations);
+                stageTimes.record(stageTimes.processTime, time);
+                return data;
+            } catch (RuntimeException e) {
+                animations.forEach(AnimationRegistry.getInstance()::release);
+                throw e;
+            }
+        };
+
+        var data = Settings.getInstance().isModelCache() ? MODEL_CACHE.load(source.modelId(), locator, source.sourceFiles(), source.jointFormat(), processor) : processor.get();
+
+        try {
+            // Read the config separately, as a cache hit never imports the model
+            var time = System.nanoTime();
+            var config = AssimpModelLoader.readConfig(locator);
+            var textures = new ArrayList<DecodedTexture>();
+            for (var material : config.materials.values())
+                for (var type : TEXTURE_TYPES)
+                    textures.add(new DecodedTexture(ModelProcessor.getTextureId(material, type), locator.readImage(material.getTextures(type))));
+            stageTimes.record(stageTimes.textureTime, time);
+
+            return new LoadedModel(data, textures);
+        } catch (RuntimeException e) {
+            releaseAnimations(data);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the animations a model which won't be uploaded acquired
+     */
+    static void releaseAnimations(ModelData data) {
+        data.getAcquiredAnimations().forEach(AnimationRegistry.getInstance()::release);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @param animations  name of every animation the model should be baked with to the tranm file it is read from
+     * @param jointFormat format the baked joint transforms of the animations are packed in
+     */
+    public record ModelSource(
+            String modelId,
+            ModelLocator locator,
+            String modelFile,
+            int assimpFlags,
+            Map<String, String> animations,
+            ModelData.JointFormat jointFormat
+    ) {
+
+        public ModelSource(String modelId, ModelLocator locator, String modelFile, int assimpFlags, Map<String, String> animations) {
+            this(modelId, locator, modelFile, assimpFlags, animations, ModelData.JointFormat.MAT4);
+        }
+
+        List<String> sourceFiles() {
+            var files = new ArrayList<String>();
+            files.add(this.modelFile);
+            files.add("model.config.json");
+            files.addAll(this.animations.values());
+            return files;
+        }
+    }
+
+    /**
+     * Worker stage times are summed over all models, so they can exceed the wall clock total.
+     */
+    public record Timings(
+            int modelCount,
+            long importNanos,
+            long animationNanos,
+            long processNanos,
+            long textureDecodeNanos,
+            long uploadNanos,
+            long totalNanos
+    ) {
+
+        @Override
+        public String toString() {
+            return String.format("%d model(s) in %.1fms [import %.1fms, animations %.1fms, process %.1fms, texture decode %.1fms, upload %.1fms]",
+                    this.modelCount, this.totalNanos / 1e6, this.importNanos / 1e6, this.animationNanos / 1e6,
+                    this.processNanos / 1e6, this.textureDecodeNanos / 1e6, this.uploadNanos / 1e6);
+        }
+    }
+
+    private record DecodedTexture(String id, BufferedImage image) {}
+
+    /**
+     * A model which has been processed on the CPU. Textures are decoded but not yet created on the GPU.
+     */
+    record LoadedModel(ModelData data, List<DecodedTexture> textures) {
+
+        void createTextures(TextureCache textureCache, Device device) {
+            for (var texture : this.textures)
+                textureCache.createTexture(device, texture.id(), texture.image(), false, VK_FORMAT_R8G8B8A8_SRGB);
+        }
+    }
+
+    private static class StageTimes {
+        private final LongAdder importTime = new LongAdder();
+        private final LongAdder animationTime = new LongAdder();
+        private final LongAdder processTime = new LongAdder();
+        private final LongAdder textureTime = new LongAdder();
+
+        private long record(LongAdder stage, long start) {
+            var now = System.nanoTime();
+            stage.add(now - start);
+            return now;
+        }
+    }
+}
@@ -2,11 +2,13 @@ package com.thepokecraftmod.renderer.impl;
 
 import com.thepokecraftmod.renderer.wrapper.core.Settings;
 import com.thepokecraftmod.renderer.Window;
+import com.thepokecraftmod.renderer.impl.animation.AnimationLodPolicy;
 import com.thepokecraftmod.renderer.impl.animation.GpuAnimator;
 import com.thepokecraftmod.renderer.impl.geometry.GeometryPass;
 import com.thepokecraftmod.renderer.impl.lighting.LightPass;
 import com.thepokecraftmod.renderer.impl.shadows.ShadowPass;
 import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
 import com.thepokecraftmod.renderer.scene.Scene;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdBuffer;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdPool;
@@ -19,18 +21,31 @@ import com.thepokecraftmod.renderer.wrapper.init.Instance;
 import com.thepokecraftmod.renderer.wrapper.init.PhysicalDevice;
 import com.thepokecraftmod.renderer.wrapper.pipeline.PipelineCache;
 import com.thepokecraftmod.renderer.wrapper.window.Surface;
+import com.thepokecraftmod.rks.model.animation.AnimationRegistry;
 import org.lwjgl.system.MemoryStack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.lwjgl.vulkan.VK11.VK_FORMAT_R8G8B8A8_SRGB;
 import static org.lwjgl.vulkan.VK11.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT;
+import static org.lwjgl.vulkan.VK11.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT;
+import static org.lwjgl.vulkan.VK11.VK_PIPELINE_STAGE_VERTEX_SHADER_BIT;
 
 public class Renderer {
     private static final Logger LOGGER = LoggerFactory.getLogger(Renderer.class);
+    public static final String PLACEHOLDER_ID = "rks_missing";
     private final GpuAnimator computeAnimator;
     private final GeometryPass geometryPass;
     private final LightPass lightPass;
@@ -51,6 +66,11 @@ public class Renderer {
     public long entitiesLoadedTimeStamp;
     public Fence[] fences;
     public Swapchain swapChain;
+    private final ExecutorService asyncLoadExecutor;
+    private final ConcurrentLinkedQueue<AsyncLoad> loadedModels = new ConcurrentLinkedQueue<>();
+    private final List<PendingUpload> pendingUploads = new ArrayList<>();
+    private boolean texturesChanged;
+    private boolean entitiesChanged;
 
     public Renderer(Window window, ExtensionProvider provider, Scene scene) {
         var settings = Settings.getInstance();
@@ -67,13 +87,37 @@ public class Renderer {
         this.textureCache = new TextureCache();
         this.globalBuffers = new GlobalBuffers(this.device);
         this.geometryPass = new GeometryPass(this.swapChain, this.pipelineCache, scene, this.globalBuffers);
-        this.shadowPass = new ShadowPass(this.swapChain, this.pipelineCache, scene);
+        this.shadowPass = new ShadowPass(this.swapChain, this.pipelineCache, scene, this.globalBuffers);
         var attachments = new ArrayList<>(this.geometryPass.getAttachments());
         attachments.add(this.shadowPass.getDepthAttachment());
         this.lightPass = new LightPass(this.swapChain, this.cmdPool, this.pipelineCache, attachments, scene);
-        this.computeAnimator = new GpuAnimator(this.cmdPool, this.pipelineCache);
+        this.computeAnimator = new GpuAnimator(this.pipelineCache, this.swapChain.getImageCount());
         this.entitiesLoadedTimeStamp = 0;
+        var threadCount = new AtomicInteger();
+        this.asyncLoadExecutor = Executors.newFixedThreadPool(2, r -> {
+            var thread = new Thread(r, "RKS Async Model Loader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
         createCommandBuffers();
+        loadPlaceholder();
+    }
+
+    private void loadPlaceholder() {
+        try (var is = Renderer.class.getResourceAsStream("/" + PLACEHOLDER_ID + ".png")) {
+            if (is == null) throw new RuntimeException("Missing placeholder texture");
+            var image = ImageIO.read(is);
+            var converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            converted.getGraphics().drawImage(image, 0, 0, null);
+            this.textureCache.createTexture(this.device, PLACEHOLDER_ID, converted, false, VK_FORMAT_R8G8B8A8_SRGB);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read placeholder texture", e);
+        }
+
+        var placeholder = this.globalBuffers.loadModels(List.of(ModelProcessor.createPlaceholderModel(PLACEHOLDER_ID, PLACEHOLDER_ID)), this.textureCache, this.cmdPool, this.graphicsQueue).get(0);
+        this.globalBuffers.setPlaceholderModel(placeholder);
+        this.gpuModels.add(placeholder);
+        this.geometryPass.loadModels(this.textureCache);
     }
 
     private CmdBuffer acquireCurrentCommandBuffer() {
@@ -89,6 +133,12 @@ public class Renderer {
     }
 
     public void close() {
+        this.asyncLoadExecutor.shutdownNow();
+        for (var pending : this.pendingUploads) {
+            pending.upload().waitForCompletion();
+            pending.upload().close();
+        }
+
         this.presentQueue.waitIdle();
         this.graphicsQueue.waitIdle();
         this.device.waitIdle();
@@ -120,14 +170,95 @@ public class Renderer {
         }
     }
 
+    /**
+     * Sets how often animated entities are re-skinned based on their distance and visibility
+     */
+    public void setAnimationLodPolicy(AnimationLodPolicy policy) {
+        this.computeAnimator.setLodPolicy(policy);
+    }
+
     public void loadModels(List<ModelData> models) {
         LOGGER.info("Loading {} model(s)", models.size());
         this.gpuModels.addAll(this.globalBuffers.loadModels(models, this.textureCache, this.cmdPool, this.graphicsQueue));
         LOGGER.info("Loaded {} model(s)", models.size());
 
+        // Only the submitted frames can still read the texture descriptor set that is about to be freed
+        waitForFramesInFlight();
         this.geometryPass.loadModels(this.textureCache);
     }
 
+    /**
+     * Frees the model's space in the global buffers for models loaded later and releases the animations it shares.
+     * Entities still using it stop being drawn. Must be called from the render thread.
+     */
+    public void unloadModel(GpuModel model) {
+        if (!this.gpuModels.remove(model)) return;
+        LOGGER.info("Unloading model \"{}\"", model.getModelId());
+        waitForFramesInFlight();
+        this.globalBuffers.unloadModel(model);
+        model.getAcquiredAnimations().forEach(AnimationRegistry.getInstance()::release);
+        this.entitiesChanged = true;
+    }
+
+    /**
+     * Loads a model without blocking the render thread. Until it is on the GPU, entities using the model are drawn with
+     * the placeholder model. Must be called from the render thread.
+     */
+    public CompletableFuture<GpuModel> loadModelAsync(ModelPreloader.ModelSource source) {
+        var future = new CompletableFuture<GpuModel>();
+        this.globalBuffers.addPlaceholderModelId(source.modelId());
+        this.entitiesChanged = true;
+
+        CompletableFuture.supplyAsync(() -> ModelPreloader.load(source), this.asyncLoadExecutor).whenComplete((model, throwable) -> {
+            // Failed loads keep drawing the placeholder so the problem stays visible
+            if (throwable != null) {
+                LOGGER.error("Failed to load model \"{}\"", source.modelId(), throwable);
+                future.completeExceptionally(throwable);
+            } else this.loadedModels.add(new AsyncLoad(source.modelId(), model, future));
+        });
+
+        return future;
+    }
+
+    private void processAsyncLoads() {
+        AsyncLoad load;
+        while ((load = this.loadedModels.poll()) != null) {
+            try {
+                load.model().createTextures(this.textureCache, this.device);
+                var upload = this.globalBuffers.uploadModels(List.of(load.model().data()), this.textureCache, this.cmdPool, this.graphicsQueue);
+                this.pendingUploads.add(new PendingUpload(load.modelId(), upload, load.future()));
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to upload model \"{}\"", load.modelId(), e);
+                ModelPreloader.releaseAnimations(load.model().data());
+                load.future().completeExceptionally(e);
+            }
+        }
+
+        var iterator = this.pendingUploads.iterator();
+        while (iterator.hasNext()) {
+            var pending = iterator.next();
+            if (!pending.upload().isComplete()) continue;
+
+            iterator.remove();
+            pending.upload().close();
+            var model = pending.upload().models.get(0);
+            this.gpuModels.add(model);
+            this.globalBuffers.removePlaceholderModelId(pending.modelId());
+            this.texturesChanged = true;
+            this.entitiesChanged = true;
+            pending.future().complete(model);
+        }
+    }
+
+    /**
+     * Waits for every submitted frame and animation dispatch, which is all that can be reading the buffers and
+     * descriptors we are about to rebuild. Cheaper than waiting for the whole device to go idle.
+     */
+    private void waitForFramesInFlight() {
+        for (var fence : this.fences) fence.waitForFence();
+        this.computeAnimator.waitForCompletion();
+    }
+
     private void recordCommands() {
         var idx = 0;
         for (var cmdBuffer : this.cmdBuffers) {
@@ -143,11 +274,20 @@ public class Renderer {
     }
 
     public void render(Window window, Scene scene) {
-        if (this.entitiesLoadedTimeStamp < scene.getEntitiesLoadedTimeStamp()) {
+        processAsyncLoads();
+        if (this.entitiesChanged || this.entitiesLoadedTimeStamp < scene.getEntitiesLoadedTimeStamp()) {
             this.entitiesLoadedTimeStamp = scene.getEntitiesLoadedTimeStamp();
-            this.device.waitIdle();
+            this.entitiesChanged = false;
+            waitForFramesInFlight();
+            if (this.texturesChanged) {
+                this.texturesChanged = false;
+                this.geometryPass.loadModels(this.textureCache);
+            }
+
             this.globalBuffers.loadEntities(this.gpuModels, scene, this.cmdPool, this.graphicsQueue, this.swapChain.getImageCount());
             this.computeAnimator.onAnimatedEntitiesLoaded(this.globalBuffers);
+            this.geometryPass.onAnimatedEntitiesLoaded(this.globalBuffers);
+            this.shadowPass.onAnimatedEntitiesLoaded(this.globalBuffers);
             recordCommands();
         }
         if (window.getWidth() <= 0 && window.getHeight() <= 0) return;
@@ -158,12 +298,13 @@ public class Renderer {
             this.swapChain.acquireNextImage();
         }
 
+        // The frame's previous draws have to be done before the animator skins into the region they read
+        var commandBuffer = acquireCurrentCommandBuffer();
+        // Poses the animator picks are part of the instance data when skinning in the vertex shader
+        this.computeAnimator.recordCommandBuffer(this.globalBuffers, scene, this.swapChain.getCurrentFrame());
         this.globalBuffers.loadInstanceData(scene, this.gpuModels, this.swapChain.getCurrentFrame());
-
-        this.computeAnimator.recordCommandBuffer(this.globalBuffers);
         this.computeAnimator.submit();
 
-        var commandBuffer = acquireCurrentCommandBuffer();
         this.geometryPass.render();
         this.shadowPass.render();
         submitSceneCommand(this.graphicsQueue, commandBuffer);
@@ -196,10 +337,15 @@ public class Renderer {
             var idx = this.swapChain.getCurrentFrame();
             var currentFence = this.fences[idx];
             var syncSemaphores = this.swapChain.getSyncSemaphoresList()[idx];
+            // Skinned vertices and palettes come from the animator's queue, so only vertex work waits for it
             queue.submit(stack.pointers(cmdBuffer.vk()),
-                    stack.longs(syncSemaphores.imgAcquisitionSemaphore().getVkSemaphore()),
-                    stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT),
+                    stack.longs(syncSemaphores.imgAcquisitionSemaphore().getVkSemaphore(), this.computeAnimator.getSkinningSemaphore().getVkSemaphore()),
+                    stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT | VK_PIPELINE_STAGE_VERTEX_SHADER_BIT),
                     stack.longs(syncSemaphores.geometryCompleteSemaphore().getVkSemaphore()), currentFence);
         }
     }
+
+    private record AsyncLoad(String modelId, ModelPreloader.LoadedModel model, CompletableFuture<GpuModel> future) {}
+
+    private record PendingUpload(String modelId, GlobalBuffers.ModelUpload upload, CompletableFuture<GpuModel> future) {}
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package com.thepokecraftmod.renderer.impl.animation;
+
+import com.thepokecraftmod.renderer.impl.GpuModel;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.renderer.wrapper.cmd.CmdBuffer;
+import com.thepokecraftmod.renderer.wrapper.core.VkBuffer;
+import com.thepokecraftmod.renderer.wrapper.init.Device;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkBufferCopy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+/**
+ * Holds lazily baked animations in a fixed region of the joint matrices buffer. A clip is baked on a worker thread the
+ * first time it is played and the least recently played clips are evicted when the region runs out of space, so
+ * memory use follows the clips actually in use rather than every clip of every loaded model. Clips played by the frame
+ * being recorded or by a frame still in flight are never evicted, as the GPU may still read them.
+ */
+public class AnimationCache implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnimationCache.class);
+    private final Device device;
+    private final VkBuffer jointMatricesBuffer;
+    private final int regionStart;
+    private final int regionEnd;
+    private final ExecutorService bakeExecutor;
+    // Access ordered, so iteration starts at the least recently used clip
+    private final LinkedHashMap<GpuModel.GpuAnimationData, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final TreeMap<Integer, Entry> entriesByOffset = new TreeMap<>();
+    private final Map<GpuModel.GpuAnimationData, CompletableFuture<ByteBuffer>> baking = new HashMap<>();
+    private final Set<GpuModel.GpuAnimationData> failed = new HashSet<>();
+    // Staging buffers of the uploads recorded for each frame in flight
+    private final Map<Integer, List<VkBuffer>> stagingBuffers = new HashMap<>();
+    // Clips played by each frame in flight
+    private final Map<Integer, Set<GpuModel.GpuAnimationData>> usedByFrame = new HashMap<>();
+    private int frame;
+
+    public AnimationCache(Device device, VkBuffer jointMatricesBuffer, int regionStart, int regionEnd) {
+        this.device = device;
+        this.jointMatricesBuffer = jointMatricesBuffer;
+        this.regionStart = regionStart;
+        this.regionEnd = regionEnd;
+        this.bakeExecutor = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r, "RKS Animation Baker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the offset of the frame's joint matrices in the joint matrices buffer, or -1 while the clip is baking
+     */
+    public int getFrameOffset(GpuModel.GpuAnimationData animationData, int frame) {
+        var entry = this.entries.get(animationData);
+        if (entry != null) {
+            this.usedByFrame.computeIfAbsent(this.frame, f -> new HashSet<>()).add(animationData);
+            return entry.offset + frame * animationData.getLazyAnimation().frameSize();
+        }
+
+        if (!this.baking.containsKey(animationData) && !this.failed.contains(animationData)) {
+            var animation = animationData.getLazyAnimation();
+            this.baking.put(animationData, CompletableFuture.supplyAsync(() -> ModelProcessor.bakeFrames(animation.source(), animation.frameCount(), animation.ticksPerFrame(), animation.jointFormat()), this.bakeExecutor));
+        }
+
+        return -1;
+    }
+
+    /**
+     * Forgets the clip and frees its space in the cache, once no loaded model plays it anymore
+     */
+    public void release(GpuModel.GpuAnimationData animationData) {
+        var entry = this.entries.remove(animationData);
+        if (entry != null) this.entriesByOffset.remove(entry.offset);
+        var bake = this.baking.remove(animationData);
+        if (bake != null) bake.cancel(false);
+        this.failed.remove(animationData);
+        this.usedByFrame.values().forEach(used -> used.remove(animationData));
+    }
+
+    /**
+     * Copies every clip which finished baking into the cache region. Must only be called once the GPU is done with the
+     * commands previously recorded by this cache for the same frame. Clips which don't fit without evicting one still in
+     * use stay queued until space frees up.
+     *
+     * @return if any copies were recorded
+     */
+    public boolean recordUploads(CmdBuffer cmd, int frame) {
+        var frameStagingBuffers = this.stagingBuffers.computeIfAbsent(frame, f -> new ArrayList<>());
+        frameStagingBuffers.forEach(VkBuffer::close);
+        frameStagingBuffers.clear();
+        // The GPU is done with the frame's previous use, so only the clips played from here on pin their space
+        this.frame = frame;
+        this.usedByFrame.computeIfAbsent(frame, f -> new HashSet<>()).clear();
+
+        var recorded = false;
+        var iterator = this.baking.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var bake = iterator.next();
+            if (!bake.getValue().isDone()) continue;
+
+            var animationData = bake.getKey();
+            var animation = animationData.getLazyAnimation();
+            ByteBuffer frames;
+            try {
+                frames = bake.getValue().join();
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to bake animation \"{}\"", animation.name(), e);
+                iterator.remove();
+                this.failed.add(animationData);
+                continue;
+            }
+
+            var size = frames.remaining();
+            if (size > this.regionEnd - this.regionStart) {
+                LOGGER.error("Animation \"{}\" needs {} bytes which is more than the whole animation cache", animation.name(), size);
+                iterator.remove();
+                this.failed.add(animationData);
+                continue;
+            }
+
+            var offset = allocate(size);
+            if (offset == -1) continue;
+            iterator.remove();
+
+            var stagingBuffer = new VkBuffer(this.device, size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+            MemoryUtil.memByteBuffer(stagingBuffer.map(), size).put(frames);
+            frameStagingBuffers.add(stagingBuffer);
+
+            try (var stack = MemoryStack.stackPush()) {
+                var copyRegion = VkBufferCopy.calloc(1, stack)
+                        .srcOffset(0)
+                        .dstOffset(offset)
+                        .size(size);
+                vkCmdCopyBuffer(cmd.vk(), stagingBuffer.getBuffer(), this.jointMatricesBuffer.getBuffer(), copyRegion);
+            }
+
+            var entry = new Entry(offset, size);
+            this.entries.put(animationData, entry);
+            this.entriesByOffset.put(offset, entry);
+            recorded = true;
+        }
+
+        return recorded;
+    }
+
+    /**
+     * Finds the first gap large enough for size bytes, evicting the least recently used clips not in use until one
+     * exists
+     *
+     * @return the offset of the gap, or -1 if only evicting clips in use would make room
+     */
+    private int allocate(int size) {
+        while (true) {
+            var gapStart = this.regionStart;
+            for (var entry : this.entriesByOffset.values()) {
+                if (entry.offset - gapStart >= size) return gapStart;
+                gapStart = entry.offset + entry.size;
+            }
+            if (this.regionEnd - gapStart >= size) return gapStart;
+
+            var lru = this.entries.keySet().stream()
+                    .filter(animationData -> !isInUse(animationData))
+                    .findFirst()
+                    .orElse(null);
+            if (lru == null) return -1;
+            this.entriesByOffset.remove(this.entries.remove(lru).offset);
+        }
+    }
+
+    private boolean isInUse(GpuModel.GpuAnimationData animationData) {
+        for (var used : this.usedByFrame.values())
+            if (used.contains(animationData)) return true;
+        return false;
+    }
+
+    @Override
+    public void close() {
+        this.bakeExecutor.shutdownNow();
+        this.stagingBuffers.values().forEach(buffers -> buffers.forEach(VkBuffer::close));
+        this.stagingBuffers.clear();
+        this.usedByFrame.clear();
+    }
+
+    private record Entry(int offset, int size) {}
+}
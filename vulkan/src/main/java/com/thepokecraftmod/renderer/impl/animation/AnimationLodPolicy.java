@@ -0,0 +1,27 @@
+package com.thepokecraftmod.renderer.impl.animation;
+
+/**
+ * How often {@link GpuAnimator} re-skins an animated entity depending on how far it is from the camera. Past
+ * halfRateDistance an entity is skinned every 2nd frame, past quarterRateDistance every 4th and past holdDistance it
+ * keeps its last pose.
+ *
+ * @param cullInvisible if entities outside the view frustum skip skinning. Their shadows keep the last pose too
+ * @param boundsScale   how far past its bind pose bounds an animated entity is assumed to reach when culling
+ */
+public record AnimationLodPolicy(float halfRateDistance, float quarterRateDistance, float holdDistance, boolean cullInvisible, float boundsScale) {
+    public static final AnimationLodPolicy DEFAULT = new AnimationLodPolicy(32, 64, 128, true, 1.5f);
+    /**
+     * Skins every playing entity every frame
+     */
+    public static final AnimationLodPolicy DISABLED = new AnimationLodPolicy(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, false, 1);
+
+    /**
+     * @return how many frames apart the entity is skinned, or 0 if it holds its pose
+     */
+    public int getUpdateInterval(float distance) {
+        if (distance > this.holdDistance) return 0;
+        if (distance > this.quarterRateDistance) return 4;
+        if (distance > this.halfRateDistance) return 2;
+        return 1;
+    }
+}
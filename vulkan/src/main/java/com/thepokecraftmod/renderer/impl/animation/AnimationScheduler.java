@@ -0,0 +1,62 @@
+package com.thepokecraftmod.renderer.impl.animation;
+
+import com.thepokecraftmod.renderer.impl.AnimatedEntity;
+import com.thepokecraftmod.renderer.scene.Scene;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks which playing entities get skinned this frame following an {@link AnimationLodPolicy}. Entities sharing an
+ * update interval are staggered by their index, so a crowd at half rate skins half of itself every frame rather than
+ * all of itself every other frame. An entity that was never skinned is always picked while it is visible.
+ */
+public class AnimationScheduler {
+    private final List<AnimatedEntity> scheduled = new ArrayList<>();
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f projView = new Matrix4f();
+    private final Vector3f cameraPosition = new Vector3f();
+    private AnimationLodPolicy policy = AnimationLodPolicy.DEFAULT;
+    private int frame;
+
+    public AnimationLodPolicy getPolicy() {
+        return this.policy;
+    }
+
+    public void setPolicy(AnimationLodPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return the entities to animate this frame. The list is reused by the next call
+     */
+    public List<AnimatedEntity> schedule(List<AnimatedEntity> entities, Scene scene) {
+        this.scheduled.clear();
+        this.frame++;
+        var viewMatrix = scene.getCamera().getViewMatrix();
+        viewMatrix.originAffine(this.cameraPosition);
+        if (this.policy.cullInvisible())
+            this.frustum.set(this.projView.set(scene.getProjection().getProjectionMatrix()).mul(viewMatrix));
+
+        for (var i = 0; i < entities.size(); i++) {
+            var animatedEntity = entities.get(i);
+            var entity = animatedEntity.entity;
+            if (!entity.getAnimation().playing) continue;
+
+            var position = entity.getPosition();
+            if (this.policy.cullInvisible()) {
+                var radius = animatedEntity.model.getBoundingRadius() * this.policy.boundsScale() * entity.getScale();
+                if (!this.frustum.testSphere(position.x, position.y, position.z, radius)) continue;
+            }
+
+            var interval = this.policy.getUpdateInterval(position.distance(this.cameraPosition));
+            if (!animatedEntity.posed || (interval != 0 && Math.floorMod(this.frame + i, interval) == 0))
+                this.scheduled.add(animatedEntity);
+        }
+
+        return this.scheduled;
+    }
+}
@@ -1,10 +1,17 @@
 package com.thepokecraftmod.renderer.impl.animation;
 
+import com.thepokecraftmod.renderer.impl.AnimatedEntity;
+import com.thepokecraftmod.renderer.impl.GpuModel;
 import com.thepokecraftmod.renderer.impl.ImplUtils;
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.RksEntity;
+import com.thepokecraftmod.renderer.scene.Scene;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdBuffer;
 import com.thepokecraftmod.renderer.wrapper.cmd.CmdPool;
 import com.thepokecraftmod.renderer.wrapper.core.Fence;
 import com.thepokecraftmod.renderer.wrapper.core.Queue;
+import com.thepokecraftmod.renderer.wrapper.core.Semaphore;
+import com.thepokecraftmod.renderer.wrapper.core.VkBuffer;
 import com.thepokecraftmod.renderer.wrapper.core.VkConstants;
 import com.thepokecraftmod.renderer.wrapper.descriptor.DescriptorPool;
 import com.thepokecraftmod.renderer.wrapper.descriptor.DescriptorSet;
@@ -14,66 +21,156 @@ import com.thepokecraftmod.renderer.wrapper.manager.PoolManager;
 import com.thepokecraftmod.renderer.wrapper.memory.MemoryBarrier;
 import com.thepokecraftmod.renderer.wrapper.pipeline.ComputePipeline;
 import com.thepokecraftmod.renderer.wrapper.pipeline.PipelineCache;
+import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderConstants;
 import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderProgram;
 import com.thepokecraftmod.renderer.wrapper.vertex.InstancedVertexBufferStructure;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.util.shaderc.Shaderc;
+import org.lwjgl.vulkan.VkBufferCopy;
 import com.thepokecraftmod.renderer.wrapper.core.Settings;
 import com.thepokecraftmod.renderer.impl.GlobalBuffers;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
 
 import static org.lwjgl.vulkan.VK11.*;
 
 public class GpuAnimator {
-    private static final String ANIM_COMPUTE_SHADER_FILE_GLSL = "animations_comp.glsl";
-    private static final String ANIM_COMPUTE_SHADER_FILE_SPV = ANIM_COMPUTE_SHADER_FILE_GLSL + ".spv";
+    static final String ANIM_COMPUTE_SHADER_FILE_GLSL = "animations_comp.glsl";
+    static final String ANIM_COMPUTE_SHADER_FILE_SPV = ANIM_COMPUTE_SHADER_FILE_GLSL + ".spv";
+    private static final String EVAL_COMPUTE_SHADER_FILE_GLSL = "animations_eval_comp.glsl";
+    private static final String EVAL_COMPUTE_SHADER_FILE_SPV = EVAL_COMPUTE_SHADER_FILE_GLSL + ".spv";
+    private static final String BLEND_COMPUTE_SHADER_FILE_GLSL = "animations_blend_comp.glsl";
+    private static final String BLEND_COMPUTE_SHADER_FILE_SPV = BLEND_COMPUTE_SHADER_FILE_GLSL + ".spv";
+    private static final String BATCH_COMPUTE_SHADER_FILE_GLSL = "animations_batch_comp.glsl";
+    static final String BATCH_COMPUTE_SHADER_FILE_SPV = BATCH_COMPUTE_SHADER_FILE_GLSL + ".spv";
+    // Workgroup size of the eval and blend shaders, skinning uses the one SkinningTuner picked
     private static final int LOCAL_SIZE_X = 32;
-    private static final int PUSH_CONSTANTS_SIZE = VkConstants.INT_LENGTH * 5;
+    // Every blended clip reads the two baked frames it is between
+    private static final int MAX_BLEND_SOURCES = RksEntity.AnimationInstance.MAX_BLEND_CLIPS * 2;
+    static final int PUSH_CONSTANTS_SIZE = VkConstants.INT_LENGTH * 7 + VkConstants.FLOAT_LENGTH;
+    private static final int EVAL_PUSH_CONSTANTS_SIZE = VkConstants.INT_LENGTH * 2 + VkConstants.FLOAT_LENGTH;
+    private static final int BLEND_PUSH_CONSTANTS_SIZE = VkConstants.INT_LENGTH * (4 + MAX_BLEND_SOURCES) + VkConstants.FLOAT_LENGTH * MAX_BLEND_SOURCES;
+    static final int BATCH_PUSH_CONSTANTS_SIZE = VkConstants.INT_LENGTH * 2;
+    // Matches SkinningJob in animations_batch_comp.glsl
+    static final int JOB_SIZE = VkConstants.INT_LENGTH * 8 + VkConstants.FLOAT_LENGTH;
+    // The smallest maxComputeWorkGroupCount Vulkan guarantees
+    private static final int MAX_DISPATCH_GROUPS = 65535;
 
     private final Queue.ComputeQueue computeQueue;
+    private final CmdPool cmdPool;
     private final Device device;
-    private final MemoryBarrier memoryBarrier;
+    private final int framesInFlight;
+    private final MemoryBarrier previousFrameBarrier;
+    private final MemoryBarrier uploadBarrier;
+    private final MemoryBarrier evalBarrier;
+    private final int[] blendOffsets = new int[MAX_BLEND_SOURCES];
+    private final float[] blendWeights = new float[MAX_BLEND_SOURCES];
+    private final ModelData.JointFormat[] blendJointFormats = new ModelData.JointFormat[MAX_BLEND_SOURCES];
+    private final AnimationScheduler scheduler = new AnimationScheduler();
+    // Skinning happens in the geometry and shadow passes, which only need to know where each entity's pose is
+    private final boolean vertexSkinning;
+    private final boolean batchedSkinning;
+    // Entities whose palette got written to this frame's region
+    private final Set<AnimatedEntity> paletteEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+    // The entity whose range holds the vertices of each pose in this frame's region and in the previous frame's
+    private Map<Object, AnimatedEntity> posedEntities = new HashMap<>();
+    private Map<Object, AnimatedEntity> previousPosedEntities = new HashMap<>();
 
+    private CmdBuffer[] cmdBuffers;
+    private Fence[] fences;
+    private Semaphore[] semaphores;
+    // The frame being recorded and the one recorded before it, whose regions hold the poses entities keep
+    private int frame;
+    private int previousFrame = -1;
+    private int verticesBase;
+    private int paletteBase;
     private CmdBuffer cmdBuffer;
     private ComputePipeline computePipeline;
+    private ComputePipeline evalPipeline;
+    private ComputePipeline blendPipeline;
+    private ComputePipeline batchPipeline;
     private PoolManager pools;
     private DescriptorSetLayout[] descriptorSetLayouts;
+    private DescriptorSetLayout[] evalDescriptorSetLayouts;
+    private DescriptorSetLayout[] blendDescriptorSetLayouts;
+    private DescriptorSetLayout[] batchDescriptorSetLayouts;
     private DescriptorSet.StorageDescriptorSet dstVerticesDescriptorSet;
-    private Fence fence;
+    private DescriptorPool entitiesDescriptorPool;
     private DescriptorSet.StorageDescriptorSet jointMatricesDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet keyframesDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet paletteDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet[] jobsDescriptorSets;
+    private VkBuffer[] jobsBuffers;
     private ShaderProgram shaderProgram;
+    private ShaderProgram evalShaderProgram;
+    private ShaderProgram blendShaderProgram;
+    private ShaderProgram batchShaderProgram;
+    private SkinningTuner.SkinningConfig skinningConfig;
+    private ShaderConstants skinningConstants;
     private DescriptorSet.StorageDescriptorSet srcVerticesDescriptorSet;
     private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
     private DescriptorSet.StorageDescriptorSet weightsDescriptorSet;
 
-    public GpuAnimator(CmdPool cmdPool, PipelineCache pipelineCache) {
+    public GpuAnimator(PipelineCache pipelineCache, int framesInFlight) {
         this.device = pipelineCache.getDevice();
         this.computeQueue = new Queue.ComputeQueue(this.device, 0);
+        // The compute queue can be from another family than the graphics queue, so it needs its own pool
+        this.cmdPool = new CmdPool(this.device, this.computeQueue.getQueueFamilyIndex());
+        this.framesInFlight = framesInFlight;
+        this.vertexSkinning = Settings.getInstance().isVertexSkinning();
+        this.batchedSkinning = Settings.getInstance().isBatchedSkinning();
         createDescriptorPool();
         createDescriptorSets();
-        createShaders();
+        createShaders(pipelineCache);
         createPipeline(pipelineCache);
-        createCommandBuffers(cmdPool);
-        this.memoryBarrier = new MemoryBarrier(0, VK_ACCESS_SHADER_WRITE_BIT);
+        createCommandBuffers();
+        this.previousFrameBarrier = new MemoryBarrier(VK_ACCESS_SHADER_WRITE_BIT | VK_ACCESS_TRANSFER_WRITE_BIT, VK_ACCESS_SHADER_READ_BIT | VK_ACCESS_SHADER_WRITE_BIT | VK_ACCESS_TRANSFER_READ_BIT | VK_ACCESS_TRANSFER_WRITE_BIT);
+        this.uploadBarrier = new MemoryBarrier(VK_ACCESS_TRANSFER_WRITE_BIT, VK_ACCESS_SHADER_READ_BIT);
+        this.evalBarrier = new MemoryBarrier(VK_ACCESS_SHADER_WRITE_BIT, VK_ACCESS_SHADER_READ_BIT);
     }
 
     public void close() {
         computePipeline.close();
+        evalPipeline.close();
+        blendPipeline.close();
+        batchPipeline.close();
         shaderProgram.close();
-        cmdBuffer.close();
+        evalShaderProgram.close();
+        blendShaderProgram.close();
+        batchShaderProgram.close();
+        skinningConstants.close();
+        if (jobsBuffers != null) for (var jobsBuffer : jobsBuffers) jobsBuffer.close();
+        for (var cmdBuffer : cmdBuffers) cmdBuffer.close();
+        cmdPool.close();
         pools.close();
         storageDescriptorSetLayout.close();
-        fence.close();
+        for (var fence : fences) fence.close();
+        for (var semaphore : semaphores) semaphore.close();
     }
 
-    private void createCommandBuffers(CmdPool cmdPool) {
-        this.cmdBuffer = cmdPool.newBuffer(true, false);
-        this.fence = new Fence(this.device, true);
+    private void createCommandBuffers() {
+        this.cmdBuffers = new CmdBuffer[this.framesInFlight];
+        this.fences = new Fence[this.framesInFlight];
+        this.semaphores = new Semaphore[this.framesInFlight];
+        for (var i = 0; i < this.framesInFlight; i++) {
+            this.cmdBuffers[i] = this.cmdPool.newBuffer(true, false);
+            this.fences[i] = new Fence(this.device, true);
+            this.semaphores[i] = new Semaphore(this.device);
+        }
+        this.cmdBuffer = this.cmdBuffers[0];
     }
 
     private void createDescriptorPool() {
-        this.pools = new PoolManager(this.device, List.of(new DescriptorPool.DescriptorTypeCount(4, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)));
+        // Every frame in flight has its own jobs
+        this.pools = new PoolManager(this.device, List.of(new DescriptorPool.DescriptorTypeCount(6 + this.framesInFlight, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)));
     }
 
     private void createDescriptorSets() {
@@ -84,86 +181,490 @@ public class GpuAnimator {
                 this.storageDescriptorSetLayout,
                 this.storageDescriptorSetLayout,
         };
+        this.evalDescriptorSetLayouts = new DescriptorSetLayout[]{
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+        };
+        this.blendDescriptorSetLayouts = new DescriptorSetLayout[]{
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+        };
+        this.batchDescriptorSetLayouts = new DescriptorSetLayout[]{
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+                this.storageDescriptorSetLayout,
+        };
     }
 
     private void createPipeline(PipelineCache pipelineCache) {
         var pipeLineCreationInfo = new ComputePipeline.PipelineCreationInfo(this.shaderProgram, this.descriptorSetLayouts, PUSH_CONSTANTS_SIZE);
         this.computePipeline = new ComputePipeline(pipelineCache, pipeLineCreationInfo);
+        var evalPipelineCreationInfo = new ComputePipeline.PipelineCreationInfo(this.evalShaderProgram, this.evalDescriptorSetLayouts, EVAL_PUSH_CONSTANTS_SIZE);
+        this.evalPipeline = new ComputePipeline(pipelineCache, evalPipelineCreationInfo);
+        var blendPipelineCreationInfo = new ComputePipeline.PipelineCreationInfo(this.blendShaderProgram, this.blendDescriptorSetLayouts, BLEND_PUSH_CONSTANTS_SIZE);
+        this.blendPipeline = new ComputePipeline(pipelineCache, blendPipelineCreationInfo);
+        var batchPipelineCreationInfo = new ComputePipeline.PipelineCreationInfo(this.batchShaderProgram, this.batchDescriptorSetLayouts, BATCH_PUSH_CONSTANTS_SIZE);
+        this.batchPipeline = new ComputePipeline(pipelineCache, batchPipelineCreationInfo);
     }
 
-    private void createShaders() {
+    private void createShaders(PipelineCache pipelineCache) {
         var settings = Settings.getInstance();
-        if (settings.isShaderRecompilation())
+        if (settings.isShaderRecompilation()) {
             ImplUtils.compileShaderIfChanged(ANIM_COMPUTE_SHADER_FILE_GLSL, Shaderc.shaderc_compute_shader);
-        this.shaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, ImplUtils.get(ANIM_COMPUTE_SHADER_FILE_SPV))});
+            ImplUtils.compileShaderIfChanged(EVAL_COMPUTE_SHADER_FILE_GLSL, Shaderc.shaderc_compute_shader);
+            ImplUtils.compileShaderIfChanged(BLEND_COMPUTE_SHADER_FILE_GLSL, Shaderc.shaderc_compute_shader);
+            ImplUtils.compileShaderIfChanged(BATCH_COMPUTE_SHADER_FILE_GLSL, Shaderc.shaderc_compute_shader);
+        }
+        // Vertex skinning never runs the skinning shaders, so there is nothing to tune
+        this.skinningConfig = this.vertexSkinning ? SkinningTuner.SkinningConfig.DEFAULT : SkinningTuner.getConfig(this.device, pipelineCache, this.batchedSkinning);
+        this.skinningConstants = this.skinningConfig.createConstants();
+        this.shaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, ImplUtils.get(ANIM_COMPUTE_SHADER_FILE_SPV), this.skinningConstants)});
+        this.evalShaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, ImplUtils.get(EVAL_COMPUTE_SHADER_FILE_SPV))});
+        this.blendShaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, ImplUtils.get(BLEND_COMPUTE_SHADER_FILE_SPV))});
+        this.batchShaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, ImplUtils.get(BATCH_COMPUTE_SHADER_FILE_SPV), this.skinningConstants)});
     }
 
     public void onAnimatedEntitiesLoaded(GlobalBuffers globalBuffers) {
-        this.srcVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pools.getPool(), storageDescriptorSetLayout, globalBuffers.getVerticesBuffer(), 0);
-        this.weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(pools.getPool(), storageDescriptorSetLayout, globalBuffers.getAnimWeightsBuffer(), 0);
-        this.dstVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pools.getPool(), storageDescriptorSetLayout, globalBuffers.getAnimVerticesBuffer(), 0);
-        this.jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pools.getPool(), storageDescriptorSetLayout, globalBuffers.getAnimJointMatricesBuffer(), 0);
+        // The sets of the previous buffers are freed first, so streaming models in does not run the pool out of sets
+        freeEntitiesDescriptorSets();
+        var pool = this.entitiesDescriptorPool = this.pools.getPool();
+        this.srcVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getVerticesBuffer(), 0);
+        this.weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getAnimWeightsBuffer(), 0);
+        if (!this.vertexSkinning)
+            this.dstVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getAnimVerticesBuffer(), 0);
+        this.jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getAnimJointMatricesBuffer(), 0);
+        this.keyframesDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getAnimKeyframesBuffer(), 0);
+        this.paletteDescriptorSet = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, globalBuffers.getAnimPaletteBuffer(), 0);
+        // The regions of the new buffers hold no poses yet
+        this.previousFrame = -1;
+        this.posedEntities.clear();
+        this.previousPosedEntities.clear();
+        if (this.vertexSkinning || !this.batchedSkinning) return;
+
+        // Room for a job per mesh of every animated entity, as all of them can be scheduled in the same frame
+        var jobCount = 0;
+        for (var animatedEntity : globalBuffers.getAnimatedEntities()) jobCount += animatedEntity.meshes.size();
+        if (this.jobsBuffers != null) for (var jobsBuffer : this.jobsBuffers) jobsBuffer.close();
+        this.jobsBuffers = new VkBuffer[this.framesInFlight];
+        this.jobsDescriptorSets = new DescriptorSet.StorageDescriptorSet[this.framesInFlight];
+        for (var i = 0; i < this.framesInFlight; i++) {
+            // Vulkan does not allow empty buffers
+            this.jobsBuffers[i] = new VkBuffer(this.device, (long) Math.max(jobCount, 1) * JOB_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+            this.jobsDescriptorSets[i] = new DescriptorSet.StorageDescriptorSet(pool, storageDescriptorSetLayout, this.jobsBuffers[i], 0);
+        }
+    }
+
+    private void freeEntitiesDescriptorSets() {
+        if (this.entitiesDescriptorPool == null) return;
+        var pool = this.entitiesDescriptorPool;
+        pool.freeDescriptorSet(this.srcVerticesDescriptorSet.vk());
+        pool.freeDescriptorSet(this.weightsDescriptorSet.vk());
+        if (this.dstVerticesDescriptorSet != null) pool.freeDescriptorSet(this.dstVerticesDescriptorSet.vk());
+        pool.freeDescriptorSet(this.jointMatricesDescriptorSet.vk());
+        pool.freeDescriptorSet(this.keyframesDescriptorSet.vk());
+        pool.freeDescriptorSet(this.paletteDescriptorSet.vk());
+        if (this.jobsDescriptorSets != null) for (var jobsDescriptorSet : this.jobsDescriptorSets) pool.freeDescriptorSet(jobsDescriptorSet.vk());
+        this.dstVerticesDescriptorSet = null;
+        this.jobsDescriptorSets = null;
+    }
+
+    public AnimationLodPolicy getLodPolicy() {
+        return this.scheduler.getPolicy();
     }
 
-    public void recordCommandBuffer(GlobalBuffers globalBuffers) {
+    public void setLodPolicy(AnimationLodPolicy policy) {
+        this.scheduler.setPolicy(policy);
+    }
+
+    /**
+     * Records skinning into the frame's region of the anim vertices and palette buffers. The draws of the frame's
+     * previous use must be done, as they read the same region
+     */
+    public void recordCommandBuffer(GlobalBuffers globalBuffers, Scene scene, int frame) {
         try (var stack = MemoryStack.stackPush()) {
-            this.fence.waitForFence();
-            this.fence.reset();
+            this.fences[frame].waitForFence();
+            this.fences[frame].reset();
+            this.frame = frame;
+            this.cmdBuffer = this.cmdBuffers[frame];
+            this.verticesBase = frame * globalBuffers.getAnimVerticesFrameSize();
+            this.paletteBase = frame * globalBuffers.getPaletteFrameSize();
+            this.paletteEntities.clear();
+            // Entities left out keep the vertices they were last skinned to
+            var entities = this.scheduler.schedule(globalBuffers.getAnimatedEntities(), scene);
 
             this.cmdBuffer.reset();
             this.cmdBuffer.record(null, false, () -> {
-                vkCmdPipelineBarrier(cmdBuffer.vk(), VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, this.memoryBarrier.vk(), null, null);
-                vkCmdBindPipeline(cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.computePipeline.vk());
-
-                var descriptorSets = stack.mallocLong(4)
-                        .put(this.srcVerticesDescriptorSet.vk())
-                        .put(this.weightsDescriptorSet.vk())
-                        .put(this.dstVerticesDescriptorSet.vk())
-                        .put(this.jointMatricesDescriptorSet.vk())
-                        .flip();
-                vkCmdBindDescriptorSets(cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.computePipeline.layout, 0, descriptorSets, null);
-
-                var entities = globalBuffers.getAnimatedEntities();
-                for (var animatedMesh : entities) {
-                    var entity = animatedMesh.entity;
-                    var entityAnimation = entity.getAnimation();
-                    if (!entityAnimation.playing) continue;
-                    var model = animatedMesh.model;
-                    var animIdx = entity.getAnimation().animationIdx;
-                    var currentFrame = entity.getAnimation().currentFrame;
-                    var jointOffset = model.getAnimationData().get(animIdx).getFrameList().get(currentFrame).jointOffset();
-
-                    for (var vulkanAnimMesh : animatedMesh.meshes) {
-                        var mesh = vulkanAnimMesh.vulkanMesh();
-                        var groupSize = (int) Math.ceil((mesh.verticesSize() / (float) InstancedVertexBufferStructure.SIZE_IN_BYTES) / LOCAL_SIZE_X);
-
-                        // Push constants
-                        var pushConstantBuffer = stack.malloc(PUSH_CONSTANTS_SIZE)
-                                .putInt(mesh.verticesOffset() / VkConstants.FLOAT_LENGTH)
-                                .putInt(mesh.verticesSize() / VkConstants.FLOAT_LENGTH)
-                                .putInt(mesh.weightsOffset() / VkConstants.FLOAT_LENGTH)
-                                .putInt(jointOffset / VkConstants.MAT4X4_SIZE)
-                                .putInt(vulkanAnimMesh.meshOffset() / VkConstants.FLOAT_LENGTH)
-                                .flip();
-                        vkCmdPushConstants(cmdBuffer.vk(), this.computePipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
-                        vkCmdDispatch(cmdBuffer.vk(), groupSize, 1, 1);
+                // Earlier submissions may still run, and this frame copies what they wrote and overwrites what they read
+                vkCmdPipelineBarrier(cmdBuffer.vk(), VK_PIPELINE_STAGE_TRANSFER_BIT | VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT | VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, this.previousFrameBarrier.vk(), null, null);
+                var animationCache = globalBuffers.getAnimationCache();
+                if (animationCache != null && animationCache.recordUploads(cmdBuffer, frame))
+                    vkCmdPipelineBarrier(cmdBuffer.vk(), VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, this.uploadBarrier.vk(), null, null);
+
+                var evaluated = recordEvaluation(stack, entities);
+                var blended = recordBlending(stack, entities, animationCache);
+                if (this.vertexSkinning) {
+                    // Posing is only picking joint matrices, so every entity keeps following its clip. The schedule
+                    // only limits how often palettes are evaluated and blended
+                    var heldPalettes = new ArrayList<AnimatedEntity>();
+                    for (var animatedEntity : globalBuffers.getAnimatedEntities()) {
+                        if (animatedEntity.posed && animatedEntity.paletteJoints && !this.paletteEntities.contains(animatedEntity)) {
+                            // The palette from an earlier frame moves along to this frame's region
+                            var paletteOffset = (this.paletteBase + animatedEntity.paletteOffset) * VkConstants.MAT4X4_SIZE;
+                            animatedEntity.setPose(paletteOffset, paletteOffset, 0, ModelData.JointFormat.MAT4, true);
+                            heldPalettes.add(animatedEntity);
+                        }
+                        if (updatePose(animatedEntity, animationCache, this.paletteBase)) animatedEntity.posed = true;
                     }
+                    recordHeldCopies(globalBuffers.getAnimPaletteBuffer(), globalBuffers.getPaletteFrameSize() * VkConstants.MAT4X4_SIZE, heldPalettes, heldPalettes,
+                            animatedEntity -> animatedEntity.paletteOffset * VkConstants.MAT4X4_SIZE,
+                            animatedEntity -> animatedEntity.paletteJointCount * VkConstants.MAT4X4_SIZE);
+                    return null;
                 }
 
+                // Both write palettes that skinning reads, so one barrier covers them
+                if (evaluated || blended)
+                    vkCmdPipelineBarrier(cmdBuffer.vk(), VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, this.evalBarrier.vk(), null, null);
+
+                for (var animatedEntity : entities)
+                    // The clip is still being baked, so leave the last skinned pose in place
+                    if (updatePose(animatedEntity, animationCache, this.paletteBase)) animatedEntity.posed = true;
+
+                var skinned = new ArrayList<AnimatedEntity>();
+                var copySources = new ArrayList<AnimatedEntity>();
+                var copyTargets = new ArrayList<AnimatedEntity>();
+                assignSkinSources(globalBuffers.getAnimatedEntities(), skinned, copySources, copyTargets);
+                if (this.batchedSkinning) recordBatchedSkinning(stack, skinned);
+                else recordSkinning(stack, skinned);
+                recordHeldCopies(globalBuffers.getAnimVerticesBuffer(), globalBuffers.getAnimVerticesFrameSize(), copySources, copyTargets,
+                        animatedEntity -> animatedEntity.meshes.get(0).meshOffset(),
+                        GpuAnimator::getSkinnedSize);
                 return null;
             });
+            this.previousFrame = frame;
+        }
+    }
+
+    /**
+     * Picks the entity every posed entity is drawn with this frame. The first entity with a pose gets skinned, or the
+     * vertices of the pose copied over when the previous frame's region holds them, and the ones after it share its
+     * vertices. Paused entities and ones whose frame did not advance since the last update keep their pose
+     */
+    private void assignSkinSources(List<AnimatedEntity> animatedEntities, List<AnimatedEntity> skinned, List<AnimatedEntity> copySources, List<AnimatedEntity> copyTargets) {
+        var previous = this.previousPosedEntities;
+        this.previousPosedEntities = this.posedEntities;
+        this.posedEntities = previous;
+        this.posedEntities.clear();
+
+        for (var animatedEntity : animatedEntities) {
+            if (!animatedEntity.posed || animatedEntity.meshes.isEmpty()) continue;
+            var owner = this.posedEntities.putIfAbsent(animatedEntity.poseKey, animatedEntity);
+            if (owner != null) {
+                animatedEntity.skinSource = owner;
+                continue;
+            }
+
+            animatedEntity.skinSource = animatedEntity;
+            var previousOwner = this.previousPosedEntities.get(animatedEntity.poseKey);
+            if (previousOwner == null) skinned.add(animatedEntity);
+            else {
+                copySources.add(previousOwner);
+                copyTargets.add(animatedEntity);
+            }
         }
     }
 
+    private void recordSkinning(MemoryStack stack, List<AnimatedEntity> entities) {
+        if (entities.isEmpty()) return;
+        vkCmdBindPipeline(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.computePipeline.vk());
+
+        var descriptorSets = stack.mallocLong(4)
+                .put(this.srcVerticesDescriptorSet.vk())
+                .put(this.weightsDescriptorSet.vk())
+                .put(this.dstVerticesDescriptorSet.vk())
+                .put(this.jointMatricesDescriptorSet.vk())
+                .flip();
+        vkCmdBindDescriptorSets(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.computePipeline.layout, 0, descriptorSets, null);
+        var boundJointsSet = this.jointMatricesDescriptorSet;
+
+        for (var animatedMesh : entities) {
+            // GPU evaluated and blended joint matrices live in the palette buffer instead of the joint matrices buffer
+            var jointsSet = animatedMesh.paletteJoints ? this.paletteDescriptorSet : this.jointMatricesDescriptorSet;
+            if (jointsSet != boundJointsSet) {
+                vkCmdBindDescriptorSets(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.computePipeline.layout, 3, stack.longs(jointsSet.vk()), null);
+                boundJointsSet = jointsSet;
+            }
+
+            for (var vulkanAnimMesh : animatedMesh.meshes) {
+                var mesh = vulkanAnimMesh.vulkanMesh();
+                var groupSize = (int) Math.ceil((mesh.verticesSize() / (float) InstancedVertexBufferStructure.SIZE_IN_BYTES) / this.skinningConfig.groupSize());
+
+                // Push constants
+                var pushConstantBuffer = stack.malloc(PUSH_CONSTANTS_SIZE)
+                        .putInt(mesh.verticesOffset() / VkConstants.FLOAT_LENGTH)
+                        .putInt(mesh.verticesSize() / VkConstants.FLOAT_LENGTH)
+                        .putInt(mesh.weightsOffset() / VkConstants.FLOAT_LENGTH)
+                        .putInt(animatedMesh.jointOffset / VkConstants.VEC4_SIZE)
+                        .putInt((this.verticesBase + vulkanAnimMesh.meshOffset()) / VkConstants.FLOAT_LENGTH)
+                        .putInt(animatedMesh.jointFormat.ordinal())
+                        .putInt(animatedMesh.nextJointOffset / VkConstants.VEC4_SIZE)
+                        .putFloat(animatedMesh.frameBlend)
+                        .flip();
+                vkCmdPushConstants(this.cmdBuffer.vk(), this.computePipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
+                vkCmdDispatch(this.cmdBuffer.vk(), groupSize, 1, 1);
+            }
+        }
+    }
+
+    /**
+     * Copies the ranges the source entities have in the previous frame's region of the buffer to the ranges of the
+     * target entities in this frame's region
+     */
+    private void recordHeldCopies(VkBuffer buffer, int frameSize, List<AnimatedEntity> sources, List<AnimatedEntity> targets, ToIntFunction<AnimatedEntity> offset, ToIntFunction<AnimatedEntity> size) {
+        if (sources.isEmpty() || this.previousFrame == -1) return;
+
+        var regions = VkBufferCopy.calloc(sources.size());
+        for (var i = 0; i < sources.size(); i++) {
+            var srcOffset = (long) this.previousFrame * frameSize + offset.applyAsInt(sources.get(i));
+            var dstOffset = (long) this.frame * frameSize + offset.applyAsInt(targets.get(i));
+            // Already in place when the same region is recorded twice in a row
+            if (srcOffset != dstOffset) regions.get()
+                    .srcOffset(srcOffset)
+                    .dstOffset(dstOffset)
+                    .size(size.applyAsInt(targets.get(i)));
+        }
+        regions.flip();
+        if (regions.hasRemaining())
+            vkCmdCopyBuffer(this.cmdBuffer.vk(), buffer.getBuffer(), buffer.getBuffer(), regions);
+        regions.free();
+    }
+
+    /**
+     * @return the size of the entity's skinned vertices, which are next to each other in the anim vertices buffer
+     */
+    private static int getSkinnedSize(AnimatedEntity animatedEntity) {
+        var last = animatedEntity.meshes.get(animatedEntity.meshes.size() - 1);
+        return last.meshOffset() + last.vulkanMesh().verticesSize() - animatedEntity.meshes.get(0).meshOffset();
+    }
+
+    /**
+     * Writes a job for every mesh of the entities and skins all of them with as few dispatches as the workgroup count
+     * limit allows. Every job starts at its own workgroup, so a workgroup only ever reads one job
+     */
+    private void recordBatchedSkinning(MemoryStack stack, List<AnimatedEntity> entities) {
+        var jobsBuffer = this.jobsBuffers[this.frame];
+        var jobs = MemoryUtil.memByteBuffer(jobsBuffer.map(), (int) jobsBuffer.getRequestedSize());
+        var jobCount = 0;
+        var groupCount = 0;
+        for (var animatedEntity : entities) {
+            for (var vulkanAnimMesh : animatedEntity.meshes) {
+                var mesh = vulkanAnimMesh.vulkanMesh();
+                var pos = jobCount * JOB_SIZE;
+                jobs.putInt(pos, groupCount)
+                        .putInt(pos + VkConstants.INT_LENGTH, mesh.verticesOffset() / VkConstants.FLOAT_LENGTH)
+                        .putInt(pos + VkConstants.INT_LENGTH * 2, mesh.verticesSize() / VkConstants.FLOAT_LENGTH)
+                        .putInt(pos + VkConstants.INT_LENGTH * 3, mesh.weightsOffset() / VkConstants.FLOAT_LENGTH)
+                        .putInt(pos + VkConstants.INT_LENGTH * 4, animatedEntity.jointOffset / VkConstants.VEC4_SIZE)
+                        .putInt(pos + VkConstants.INT_LENGTH * 5, (this.verticesBase + vulkanAnimMesh.meshOffset()) / VkConstants.FLOAT_LENGTH)
+                        .putInt(pos + VkConstants.INT_LENGTH * 6, animatedEntity.getJointFlags())
+                        .putInt(pos + VkConstants.INT_LENGTH * 7, animatedEntity.nextJointOffset / VkConstants.VEC4_SIZE)
+                        .putFloat(pos + VkConstants.INT_LENGTH * 8, animatedEntity.frameBlend);
+                groupCount += (mesh.verticesSize() / InstancedVertexBufferStructure.SIZE_IN_BYTES + this.skinningConfig.groupSize() - 1) / this.skinningConfig.groupSize();
+                jobCount++;
+            }
+        }
+        jobsBuffer.unMap();
+        if (groupCount == 0) return;
+
+        vkCmdBindPipeline(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.batchPipeline.vk());
+        var descriptorSets = stack.longs(
+                this.srcVerticesDescriptorSet.vk(),
+                this.weightsDescriptorSet.vk(),
+                this.dstVerticesDescriptorSet.vk(),
+                this.jointMatricesDescriptorSet.vk(),
+                this.paletteDescriptorSet.vk(),
+                this.jobsDescriptorSets[this.frame].vk()
+        );
+        vkCmdBindDescriptorSets(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.batchPipeline.layout, 0, descriptorSets, null);
+        for (var firstGroup = 0; firstGroup < groupCount; firstGroup += MAX_DISPATCH_GROUPS) {
+            var pushConstantBuffer = stack.malloc(BATCH_PUSH_CONSTANTS_SIZE)
+                    .putInt(jobCount)
+                    .putInt(firstGroup)
+                    .flip();
+            vkCmdPushConstants(this.cmdBuffer.vk(), this.batchPipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
+            vkCmdDispatch(this.cmdBuffer.vk(), Math.min(groupCount - firstGroup, MAX_DISPATCH_GROUPS), 1, 1);
+        }
+    }
+
+    /**
+     * Points the entity at the joint matrices it is skinned with this frame
+     *
+     * @return false while the clip is still being baked, leaving the last pose in place
+     */
+    private static boolean updatePose(AnimatedEntity animatedEntity, AnimationCache animationCache, int paletteBase) {
+        var entityAnimation = animatedEntity.entity.getAnimation();
+        var animationData = animatedEntity.model.getAnimationData().get(entityAnimation.animationIdx);
+        if (animationData.isGpuEvaluated() || animatedEntity.blended) {
+            // The palette is already evaluated or blended at the fractional time
+            var paletteOffset = (paletteBase + animatedEntity.paletteOffset) * VkConstants.MAT4X4_SIZE;
+            animatedEntity.setPose(paletteOffset, paletteOffset, 0, ModelData.JointFormat.MAT4, true);
+            // Written for this entity alone, so nothing else is posed the same way
+            animatedEntity.poseKey = new Object();
+            return true;
+        }
+
+        var currentFrame = entityAnimation.currentFrame;
+        var frameBlend = entityAnimation.frameBlend;
+        var nextFrame = (currentFrame + 1) % animationData.getFrameCount();
+        var jointOffset = getFrameOffset(animationCache, animationData, currentFrame);
+        var nextJointOffset = frameBlend > 0 ? getFrameOffset(animationCache, animationData, nextFrame) : jointOffset;
+        if (jointOffset == -1 || nextJointOffset == -1) return false;
+
+        animatedEntity.setPose(jointOffset, nextJointOffset, frameBlend, animationData.getJointFormat(), false);
+        animatedEntity.poseKey = new PoseKey(animatedEntity.model, animationData, currentFrame, frameBlend > 0 ? nextFrame : currentFrame, frameBlend);
+        return true;
+    }
+
+    private static int getFrameOffset(AnimationCache animationCache, GpuModel.GpuAnimationData animationData, int frame) {
+        if (animationData.isLazy()) return animationCache.getFrameOffset(animationData, frame);
+        return animationData.getFrameList().get(frame).jointOffset();
+    }
+
+    /**
+     * Evaluates the joint matrices of every scheduled entity whose animation is evaluated on the GPU into its palette
+     *
+     * @return if anything was dispatched
+     */
+    private boolean recordEvaluation(MemoryStack stack, List<AnimatedEntity> entities) {
+        var recorded = false;
+        for (var animatedEntity : entities) {
+            var entityAnimation = animatedEntity.entity.getAnimation();
+            var animationData = animatedEntity.model.getAnimationData().get(entityAnimation.animationIdx);
+            if (!animationData.isGpuEvaluated()) continue;
+
+            if (!recorded) {
+                vkCmdBindPipeline(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.evalPipeline.vk());
+                vkCmdBindDescriptorSets(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.evalPipeline.layout, 0, stack.longs(this.keyframesDescriptorSet.vk(), this.paletteDescriptorSet.vk()), null);
+                recorded = true;
+            }
+
+            var pushConstantBuffer = stack.malloc(EVAL_PUSH_CONSTANTS_SIZE)
+                    .putInt(animationData.getKeyframesOffset() / VkConstants.INT_LENGTH)
+                    .putInt(this.paletteBase + animatedEntity.paletteOffset)
+                    .putFloat((entityAnimation.currentFrame + entityAnimation.frameBlend) * animationData.getTicksPerFrame())
+                    .flip();
+            vkCmdPushConstants(this.cmdBuffer.vk(), this.evalPipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
+            vkCmdDispatch(this.cmdBuffer.vk(), (animationData.getNodeCount() + LOCAL_SIZE_X - 1) / LOCAL_SIZE_X, 1, 1);
+            this.paletteEntities.add(animatedEntity);
+        }
+
+        return recorded;
+    }
+
+    /**
+     * Blends the clips of every scheduled entity with animation layers into its palette. Entities with a GPU evaluated
+     * clip among them play their main clip unblended
+     *
+     * @return if anything was dispatched
+     */
+    private boolean recordBlending(MemoryStack stack, List<AnimatedEntity> entities, AnimationCache animationCache) {
+        var recorded = false;
+        for (var animatedEntity : entities) {
+            var entityAnimation = animatedEntity.entity.getAnimation();
+            animatedEntity.blended = false;
+            if (!entityAnimation.isBlended() || animatedEntity.paletteOffset == -1) continue;
+            var animationDataList = animatedEntity.model.getAnimationData();
+            var layers = entityAnimation.getLayers();
+            var sourceCount = 0;
+            var jointFormats = 0;
+            var totalWeight = 0f;
+
+            for (var i = 0; i <= layers.size(); i++) {
+                var clip = i == 0 ? entityAnimation : layers.get(i - 1);
+                var animationData = animationDataList.get(clip.animationIdx);
+                if (animationData.isGpuEvaluated()) {
+                    sourceCount = -1;
+                    break;
+                }
+
+                var nextFrame = (clip.currentFrame + 1) % animationData.getFrameCount();
+                sourceCount = addBlendSource(animationCache, animationData, clip.currentFrame, clip.weight * (1 - clip.frameBlend), sourceCount);
+                sourceCount = addBlendSource(animationCache, animationData, nextFrame, clip.weight * clip.frameBlend, sourceCount);
+            }
+            // Without sources every clip is still being baked or weighted 0, so the last skinned pose stays in place
+            if (sourceCount <= 0) continue;
+
+            for (var i = 0; i < sourceCount; i++) {
+                totalWeight += this.blendWeights[i];
+                jointFormats |= this.blendJointFormats[i].ordinal() << i;
+            }
+
+            if (!recorded) {
+                vkCmdBindPipeline(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.blendPipeline.vk());
+                vkCmdBindDescriptorSets(this.cmdBuffer.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, this.blendPipeline.layout, 0, stack.longs(this.jointMatricesDescriptorSet.vk(), this.paletteDescriptorSet.vk()), null);
+                recorded = true;
+            }
+            animatedEntity.blended = true;
+            this.paletteEntities.add(animatedEntity);
+
+            var jointCount = animationDataList.get(entityAnimation.animationIdx).getJointCount();
+            var pushConstantBuffer = stack.malloc(BLEND_PUSH_CONSTANTS_SIZE)
+                    .putInt(jointCount)
+                    .putInt(this.paletteBase + animatedEntity.paletteOffset)
+                    .putInt(sourceCount)
+                    .putInt(jointFormats);
+            for (var i = 0; i < MAX_BLEND_SOURCES; i++) pushConstantBuffer.putInt(i < sourceCount ? this.blendOffsets[i] / VkConstants.VEC4_SIZE : 0);
+            for (var i = 0; i < MAX_BLEND_SOURCES; i++) pushConstantBuffer.putFloat(i < sourceCount ? this.blendWeights[i] / totalWeight : 0);
+            pushConstantBuffer.flip();
+            vkCmdPushConstants(this.cmdBuffer.vk(), this.blendPipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
+            vkCmdDispatch(this.cmdBuffer.vk(), (jointCount + LOCAL_SIZE_X - 1) / LOCAL_SIZE_X, 1, 1);
+        }
+
+        return recorded;
+    }
+
+    /**
+     * @return the new source count. Frames without weight or still being baked are left out
+     */
+    private int addBlendSource(AnimationCache animationCache, GpuModel.GpuAnimationData animationData, int frame, float weight, int sourceCount) {
+        if (weight <= 0) return sourceCount;
+        var offset = getFrameOffset(animationCache, animationData, frame);
+        if (offset == -1) return sourceCount;
+
+        this.blendOffsets[sourceCount] = offset;
+        this.blendWeights[sourceCount] = weight;
+        this.blendJointFormats[sourceCount] = animationData.getJointFormat();
+        return sourceCount + 1;
+    }
+
+    public void waitForCompletion() {
+        for (var fence : this.fences) fence.waitForFence();
+    }
+
+    /**
+     * @return the semaphore signaled once the last submitted frame is skinned, which its draws have to wait for
+     */
+    public Semaphore getSkinningSemaphore() {
+        return this.semaphores[this.frame];
+    }
+
     public void submit() {
         try (var stack = MemoryStack.stackPush()) {
             this.computeQueue.submit(
                     stack.pointers(this.cmdBuffer.vk()),
                     null,
                     null,
-                    null,
-                    this.fence
+                    stack.longs(this.semaphores[this.frame].getVkSemaphore()),
+                    this.fences[this.frame]
             );
         }
     }
+
+    /**
+     * Identifies a pose by the clip frames it blends rather than by their offsets, as cached frames can be evicted and
+     * their space reused by another clip
+     */
+    private record PoseKey(GpuModel model, GpuModel.GpuAnimationData animationData, int frame, int nextFrame, float frameBlend) {}
 }
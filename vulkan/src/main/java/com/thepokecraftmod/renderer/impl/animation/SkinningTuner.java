@@ -0,0 +1,338 @@
+package com.thepokecraftmod.renderer.impl.animation;
+
+import com.thepokecraftmod.renderer.impl.ImplUtils;
+import com.thepokecraftmod.renderer.wrapper.cmd.CmdPool;
+import com.thepokecraftmod.renderer.wrapper.core.Queue;
+import com.thepokecraftmod.renderer.wrapper.core.Settings;
+import com.thepokecraftmod.renderer.wrapper.core.VkBuffer;
+import com.thepokecraftmod.renderer.wrapper.core.VkConstants;
+import com.thepokecraftmod.renderer.wrapper.core.VkUtils;
+import com.thepokecraftmod.renderer.wrapper.descriptor.DescriptorPool;
+import com.thepokecraftmod.renderer.wrapper.descriptor.DescriptorSet;
+import com.thepokecraftmod.renderer.wrapper.descriptor.DescriptorSetLayout;
+import com.thepokecraftmod.renderer.wrapper.init.Device;
+import com.thepokecraftmod.renderer.wrapper.init.PhysicalDevice;
+import com.thepokecraftmod.renderer.wrapper.memory.MemoryBarrier;
+import com.thepokecraftmod.renderer.wrapper.pipeline.ComputePipeline;
+import com.thepokecraftmod.renderer.wrapper.pipeline.PipelineCache;
+import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderConstants;
+import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderProgram;
+import com.thepokecraftmod.renderer.wrapper.vertex.InstancedVertexBufferStructure;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkBufferCopy;
+import org.lwjgl.vulkan.VkPhysicalDeviceLimits;
+import org.lwjgl.vulkan.VkQueryPoolCreateInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+/**
+ * Picks the workgroup size and load width of the skinning shaders for a device by timing every combination on a
+ * synthetic mesh. Choices are cached per device, driver and shader in the cache directory, so the benchmark only runs the
+ * first time a device is used
+ */
+public class SkinningTuner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SkinningTuner.class);
+    private static final String CACHE_FILE = "skinning.properties";
+    private static final int[] GROUP_SIZES = {32, 64, 128, 256};
+    private static final int VERTICES = 1 << 18;
+    // The batched shader skins the synthetic mesh as meshes of this many vertices, about the size of real ones
+    private static final int MESH_VERTICES = 4096;
+    private static final int JOINTS = 64;
+    private static final int WEIGHT_FLOATS = 8;
+    private static final int DISPATCHES = 8;
+    private static final int RUNS = 3;
+
+    /**
+     * @param batched whether the configuration is for animations_batch_comp.glsl instead of animations_comp.glsl
+     * @return the cached configuration for the device, benchmarking it first if there is none
+     */
+    public static SkinningConfig getConfig(Device device, PipelineCache pipelineCache, boolean batched) {
+        if (!Settings.getInstance().isSkinningTuning()) return SkinningConfig.DEFAULT;
+        var limits = device.getPhysicalDevice().getVkPhysicalDeviceProperties().limits();
+        var key = getDeviceKey(device.getPhysicalDevice()) + (batched ? " batched" : " per mesh");
+        var cacheFile = Settings.getInstance().getCacheDirectory().resolve(CACHE_FILE);
+        var cache = loadCache(cacheFile);
+        var cached = cache.getProperty(key);
+        if (cached != null) {
+            var config = SkinningConfig.parse(cached, limits);
+            if (config != null) return config;
+            LOGGER.warn("Ignoring invalid skinning configuration {} cached for {}", cached, key);
+        }
+
+        LOGGER.info("Benchmarking skinning configurations for {}", key);
+        var config = benchmark(device, pipelineCache, batched);
+        LOGGER.info("Skinning with {} threads per workgroup and {} loads", config.groupSize(), config.vectorLoads() ? "vector" : "scalar");
+        cache.setProperty(key, config.toString());
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (var writer = Files.newBufferedWriter(cacheFile)) {
+                cache.store(writer, "Skinning shader configuration per device and shader, picked by SkinningTuner");
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache skinning configuration", e);
+        }
+        return config;
+    }
+
+    private static String getDeviceKey(PhysicalDevice physicalDevice) {
+        var properties = physicalDevice.getVkPhysicalDeviceProperties();
+        return physicalDevice.getDeviceName() + " " + Integer.toHexString(properties.vendorID()) + ":" + Integer.toHexString(properties.deviceID()) + " driver " + properties.driverVersion();
+    }
+
+    private static Properties loadCache(Path cacheFile) {
+        var cache = new Properties();
+        if (Files.exists(cacheFile)) try (var reader = Files.newBufferedReader(cacheFile)) {
+            cache.load(reader);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read cached skinning configurations", e);
+        }
+        return cache;
+    }
+
+    private static boolean isSupported(int groupSize, VkPhysicalDeviceLimits limits) {
+        return groupSize <= limits.maxComputeWorkGroupSize(0) && groupSize <= limits.maxComputeWorkGroupInvocations();
+    }
+
+    private static SkinningConfig benchmark(Device device, PipelineCache pipelineCache, boolean batched) {
+        var physicalDevice = device.getPhysicalDevice();
+        var limits = physicalDevice.getVkPhysicalDeviceProperties().limits();
+        var queue = new Queue.ComputeQueue(device, 0);
+        if (physicalDevice.getVkQueueFamilyProps().get(queue.getQueueFamilyIndex()).timestampValidBits() == 0) {
+            LOGGER.warn("Compute queue can not write timestamps, skinning with the default configuration");
+            return SkinningConfig.DEFAULT;
+        }
+
+        var candidates = new ArrayList<SkinningConfig>();
+        for (var groupSize : GROUP_SIZES)
+            if (isSupported(groupSize, limits)) {
+                candidates.add(new SkinningConfig(groupSize, false));
+                candidates.add(new SkinningConfig(groupSize, true));
+            }
+
+        var verticesSize = (long) VERTICES * InstancedVertexBufferStructure.SIZE_IN_BYTES;
+        var weightsSize = (long) VERTICES * WEIGHT_FLOATS * VkConstants.FLOAT_LENGTH;
+        var jointsSize = (long) JOINTS * VkConstants.MAT4X4_SIZE;
+        var srcBuffer = new VkBuffer(device, verticesSize, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+        var weightsBuffer = new VkBuffer(device, weightsSize, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+        var dstBuffer = new VkBuffer(device, verticesSize, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+        var jointsBuffer = new VkBuffer(device, jointsSize, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+
+        // Neighbouring vertices mostly share joints, like they do in real meshes
+        var weightsStgBuffer = new VkBuffer(device, weightsSize, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+        var weights = MemoryUtil.memFloatBuffer(weightsStgBuffer.map(), (int) (weightsSize / VkConstants.FLOAT_LENGTH));
+        for (var i = 0; i < VERTICES; i++) {
+            for (var j = 0; j < 4; j++) weights.put(0.25f);
+            for (var j = 0; j < 4; j++) weights.put((i / 16 + j) % JOINTS);
+        }
+        weightsStgBuffer.unMap();
+
+        // The batched shader also reads palettes and a table of jobs per candidate. Palettes are never read with the
+        // joint flags used here, so the joint matrices stand in for them
+        var descriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(device, 0, VK_SHADER_STAGE_COMPUTE_BIT);
+        var descriptorPool = new DescriptorPool(device, List.of(new DescriptorPool.DescriptorTypeCount(batched ? 5 + candidates.size() : 4, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)), 1);
+        var descriptorSets = new ArrayList<DescriptorSet>(List.of(
+                new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, srcBuffer, 0),
+                new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, weightsBuffer, 0),
+                new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, dstBuffer, 0),
+                new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, jointsBuffer, 0)
+        ));
+        if (batched) descriptorSets.add(new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, jointsBuffer, 0));
+        var descriptorSetLayouts = new DescriptorSetLayout[batched ? 6 : 4];
+        Arrays.fill(descriptorSetLayouts, descriptorSetLayout);
+
+        var spv = ImplUtils.get(batched ? GpuAnimator.BATCH_COMPUTE_SHADER_FILE_SPV : GpuAnimator.ANIM_COMPUTE_SHADER_FILE_SPV);
+        var constants = new ArrayList<ShaderConstants>();
+        var shaderPrograms = new ArrayList<ShaderProgram>();
+        var pipelines = new ArrayList<ComputePipeline>();
+        var jobsBuffers = new ArrayList<VkBuffer>();
+        var jobsDescriptorSets = new ArrayList<DescriptorSet>();
+        for (var candidate : candidates) {
+            var candidateConstants = candidate.createConstants();
+            var shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderData[]{new ShaderProgram.ShaderData(VK_SHADER_STAGE_COMPUTE_BIT, spv, candidateConstants)});
+            constants.add(candidateConstants);
+            shaderPrograms.add(shaderProgram);
+            pipelines.add(new ComputePipeline(pipelineCache, new ComputePipeline.PipelineCreationInfo(shaderProgram, descriptorSetLayouts, batched ? GpuAnimator.BATCH_PUSH_CONSTANTS_SIZE : GpuAnimator.PUSH_CONSTANTS_SIZE)));
+            if (batched) {
+                var jobsBuffer = createJobsBuffer(device, candidate.groupSize());
+                jobsBuffers.add(jobsBuffer);
+                jobsDescriptorSets.add(new DescriptorSet.StorageDescriptorSet(descriptorPool, descriptorSetLayout, jobsBuffer, 0));
+            }
+        }
+
+        var cmdPool = new CmdPool(device, queue.getQueueFamilyIndex());
+        var barrier = new MemoryBarrier(VK_ACCESS_SHADER_WRITE_BIT, VK_ACCESS_SHADER_WRITE_BIT);
+        var queryCount = candidates.size() * 2;
+        var ticks = new long[candidates.size()];
+        Arrays.fill(ticks, Long.MAX_VALUE);
+        try (var stack = MemoryStack.stackPush()) {
+            var lp = stack.mallocLong(1);
+            var queryPoolInfo = VkQueryPoolCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .queryType(VK_QUERY_TYPE_TIMESTAMP)
+                    .queryCount(queryCount);
+            VkUtils.ok(vkCreateQueryPool(device.vk(), queryPoolInfo, null, lp), "Failed to create query pool");
+            var queryPool = lp.get(0);
+
+            var uploadCmd = cmdPool.newBuffer(true, true);
+            uploadCmd.record(queue, true, () -> {
+                vkCmdFillBuffer(uploadCmd.vk(), srcBuffer.getBuffer(), 0, verticesSize, Float.floatToIntBits(1));
+                vkCmdFillBuffer(uploadCmd.vk(), jointsBuffer.getBuffer(), 0, jointsSize, Float.floatToIntBits(1));
+                vkCmdCopyBuffer(uploadCmd.vk(), weightsStgBuffer.getBuffer(), weightsBuffer.getBuffer(), VkBufferCopy.calloc(1, stack).size(weightsSize));
+                return null;
+            });
+
+            var pDescriptorSets = stack.mallocLong(descriptorSetLayouts.length);
+            for (var descriptorSet : descriptorSets) pDescriptorSets.put(descriptorSet.vk());
+            var pushConstantBuffer = batched
+                    ? stack.malloc(GpuAnimator.BATCH_PUSH_CONSTANTS_SIZE)
+                    .putInt(VERTICES / MESH_VERTICES)
+                    .putInt(0)
+                    .flip()
+                    : stack.malloc(GpuAnimator.PUSH_CONSTANTS_SIZE)
+                    .putInt(0)
+                    .putInt((int) (verticesSize / VkConstants.FLOAT_LENGTH))
+                    .putInt(0)
+                    .putInt(0)
+                    .putInt(0)
+                    .putInt(0)
+                    .putInt(0)
+                    // Blending between frames is the common case and skins with both frames' matrices
+                    .putFloat(0.5f)
+                    .flip();
+
+            var cmd = cmdPool.newBuffer(true, false);
+            cmd.beginRecording();
+            vkCmdResetQueryPool(cmd.vk(), queryPool, 0, queryCount);
+            for (var i = 0; i < candidates.size(); i++) {
+                var pipeline = pipelines.get(i);
+                var groupSize = candidates.get(i).groupSize();
+                if (batched) pDescriptorSets.put(5, jobsDescriptorSets.get(i).vk());
+                vkCmdBindPipeline(cmd.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.vk());
+                vkCmdBindDescriptorSets(cmd.vk(), VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.layout, 0, pDescriptorSets.rewind(), null);
+                vkCmdPushConstants(cmd.vk(), pipeline.layout, VK_SHADER_STAGE_COMPUTE_BIT, 0, pushConstantBuffer);
+                vkCmdPipelineBarrier(cmd.vk(), VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, barrier.vk(), null, null);
+                vkCmdWriteTimestamp(cmd.vk(), VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, queryPool, i * 2);
+                // Every job starts at its own workgroup, so meshes which don't fill their last one cost more groups
+                var groupCount = batched ? VERTICES / MESH_VERTICES * ((MESH_VERTICES + groupSize - 1) / groupSize) : (VERTICES + groupSize - 1) / groupSize;
+                for (var j = 0; j < DISPATCHES; j++) {
+                    vkCmdDispatch(cmd.vk(), groupCount, 1, 1);
+                    vkCmdPipelineBarrier(cmd.vk(), VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, 0, barrier.vk(), null, null);
+                }
+                vkCmdWriteTimestamp(cmd.vk(), VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, queryPool, i * 2 + 1);
+            }
+            cmd.endRecording();
+
+            // The first run only warms up caches and clocks
+            var timestamps = stack.mallocLong(queryCount);
+            for (var run = 0; run <= RUNS; run++) {
+                cmd.submitAndWait(queue);
+                VkUtils.ok(vkGetQueryPoolResults(device.vk(), queryPool, 0, queryCount, timestamps, Long.BYTES, VK_QUERY_RESULT_64_BIT | VK_QUERY_RESULT_WAIT_BIT), "Failed to get query pool results");
+                if (run > 0) for (var i = 0; i < candidates.size(); i++)
+                    ticks[i] = Math.min(ticks[i], timestamps.get(i * 2 + 1) - timestamps.get(i * 2));
+            }
+
+            cmd.close();
+            vkDestroyQueryPool(device.vk(), queryPool, null);
+        }
+
+        var best = 0;
+        for (var i = 0; i < candidates.size(); i++) {
+            LOGGER.debug("{}: {} ns a dispatch", candidates.get(i), ticks[i] * limits.timestampPeriod() / DISPATCHES);
+            if (ticks[i] < ticks[best]) best = i;
+        }
+
+        barrier.close();
+        cmdPool.close();
+        pipelines.forEach(ComputePipeline::close);
+        jobsBuffers.forEach(VkBuffer::close);
+        shaderPrograms.forEach(ShaderProgram::close);
+        constants.forEach(ShaderConstants::close);
+        descriptorPool.close();
+        descriptorSetLayout.close();
+        weightsStgBuffer.close();
+        srcBuffer.close();
+        weightsBuffer.close();
+        dstBuffer.close();
+        jointsBuffer.close();
+        return candidates.get(best);
+    }
+
+    /**
+     * @return a table of SkinningJob for animations_batch_comp.glsl, skinning the synthetic mesh as meshes of
+     * MESH_VERTICES vertices
+     */
+    private static VkBuffer createJobsBuffer(Device device, int groupSize) {
+        var jobCount = VERTICES / MESH_VERTICES;
+        var groupsPerJob = (MESH_VERTICES + groupSize - 1) / groupSize;
+        var meshFloats = MESH_VERTICES * InstancedVertexBufferStructure.SIZE_IN_BYTES / VkConstants.FLOAT_LENGTH;
+        var jobsBuffer = new VkBuffer(device, (long) jobCount * GpuAnimator.JOB_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+        var jobs = MemoryUtil.memByteBuffer(jobsBuffer.map(), (int) jobsBuffer.getRequestedSize());
+        for (var i = 0; i < jobCount; i++) {
+            var pos = i * GpuAnimator.JOB_SIZE;
+            jobs.putInt(pos, i * groupsPerJob)
+                    .putInt(pos + VkConstants.INT_LENGTH, i * meshFloats)
+                    .putInt(pos + VkConstants.INT_LENGTH * 2, meshFloats)
+                    .putInt(pos + VkConstants.INT_LENGTH * 3, i * MESH_VERTICES * WEIGHT_FLOATS)
+                    .putInt(pos + VkConstants.INT_LENGTH * 4, 0)
+                    .putInt(pos + VkConstants.INT_LENGTH * 5, i * meshFloats)
+                    .putInt(pos + VkConstants.INT_LENGTH * 6, 0)
+                    .putInt(pos + VkConstants.INT_LENGTH * 7, 0)
+                    .putFloat(pos + VkConstants.INT_LENGTH * 8, 0.5f);
+        }
+        jobsBuffer.unMap();
+        return jobsBuffer;
+    }
+
+    /**
+     * Specialization of the skinning shaders
+     *
+     * @param groupSize   threads per workgroup
+     * @param vectorLoads whether vertices and weights are read with vec4 loads instead of a float at a time
+     */
+    public record SkinningConfig(
+            int groupSize,
+            boolean vectorLoads
+    ) {
+        public static final SkinningConfig DEFAULT = new SkinningConfig(32, false);
+
+        /**
+         * @return the specialization constants of animations_comp.glsl and animations_batch_comp.glsl
+         */
+        public ShaderConstants createConstants() {
+            return new ShaderConstants.Builder()
+                    .entry(Integer.BYTES, data -> data.putInt(this.groupSize))
+                    .entry(Integer.BYTES, data -> data.putInt(this.vectorLoads ? VK_TRUE : VK_FALSE))
+                    .build();
+        }
+
+        @Override
+        public String toString() {
+            return this.groupSize + "," + this.vectorLoads;
+        }
+
+        /**
+         * @return the configuration, or null if it is malformed or the device can't run its workgroup size
+         */
+        private static SkinningConfig parse(String value, VkPhysicalDeviceLimits limits) {
+            var parts = value.split(",");
+            if (parts.length != 2) return null;
+            try {
+                var groupSize = Integer.parseInt(parts[0].trim());
+                return groupSize > 0 && isSupported(groupSize, limits) ? new SkinningConfig(groupSize, Boolean.parseBoolean(parts[1].trim())) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -13,13 +13,13 @@ import com.thepokecraftmod.renderer.wrapper.image.TextureDescriptorSet;
 import com.thepokecraftmod.renderer.wrapper.image.TextureSampler;
 import com.thepokecraftmod.renderer.wrapper.init.Device;
 import com.thepokecraftmod.renderer.wrapper.manager.PoolManager;
-import com.thepokecraftmod.renderer.wrapper.memory.MemoryBarrier;
 import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderProgram;
 import com.thepokecraftmod.renderer.wrapper.pipeline.ShaderConstants;
 import com.thepokecraftmod.renderer.wrapper.renderpass.Attachment;
 import com.thepokecraftmod.renderer.wrapper.pipeline.Pipeline;
 import com.thepokecraftmod.renderer.wrapper.pipeline.PipelineCache;
 import com.thepokecraftmod.renderer.wrapper.vertex.InstancedVertexBufferStructure;
+import com.thepokecraftmod.renderer.wrapper.vertex.SkinnedVertexBufferStructure;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkClearValue;
 import org.lwjgl.vulkan.VkRect2D;
@@ -42,24 +42,34 @@ public class GeometryPass implements Closeable {
     private static final String GEOMETRY_FRAGMENT_SHADER_FILE_SPV = GEOMETRY_FRAGMENT_SHADER_FILE_GLSL + ".spv";
     private static final String GEOMETRY_VERTEX_SHADER_FILE_GLSL = "geometry_vertex.glsl";
     private static final String GEOMETRY_VERTEX_SHADER_FILE_SPV = GEOMETRY_VERTEX_SHADER_FILE_GLSL + ".spv";
+    private static final String GEOMETRY_SKINNED_VERTEX_SHADER_FILE_GLSL = "geometry_skinned_vertex.glsl";
+    private static final String GEOMETRY_SKINNED_VERTEX_SHADER_FILE_SPV = GEOMETRY_SKINNED_VERTEX_SHADER_FILE_GLSL + ".spv";
 
     private final Device device;
     private final GeometryFrameBuffer frameBuffer;
     private final ShaderConstants constants;
-    private final MemoryBarrier barrier;
     private final PipelineCache cache;
     private final Scene scene;
+    private final boolean vertexSkinning;
 
     private PoolManager pools;
     private DescriptorSetLayout[] descSetLayouts;
     private DescriptorSetLayout.DynUniformDescriptorSetLayout materialDescSetLayout;
     private DescriptorSet.StorageDescriptorSet materialDescSet;
     private Pipeline pipeline;
+    private Pipeline skinnedPipeline;
+    private ShaderProgram skinnedShaderProgram;
+    private DescriptorSetLayout.StorageDescriptorSetLayout skinningDescriptorSetLayout;
+    private DescriptorSet.StorageDescriptorSet weightsDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet jointMatricesDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet paletteDescriptorSet;
+    private DescriptorPool paletteDescriptorPool;
     private DescriptorSet.UniformDescriptorSet projMatrixDescriptorSet;
     private VkBuffer projMatrixUniform;
     private ShaderProgram shaderProgram;
     private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
     private Swapchain swapChain;
+    private DescriptorPool textureDescriptorPool;
     private TextureDescriptorSet textureDescriptorSet;
     private DescriptorSetLayout.SamplerDescriptorSetLayout textureDescriptorSetLayout;
     private TextureSampler textureSampler;
@@ -72,6 +82,7 @@ public class GeometryPass implements Closeable {
         this.cache = cache;
         this.scene = scene;
         this.device = swapChain.getDevice();
+        this.vertexSkinning = Settings.getInstance().isVertexSkinning();
         this.constants = new ShaderConstants.Builder()
                 .entry(Integer.BYTES, data -> data.putInt(Settings.getInstance().getMaxTextures()))
                 .build();
@@ -84,11 +95,15 @@ public class GeometryPass implements Closeable {
         System.out.println("NUMBER_COLOR_ATTACHMENTS");
         createPipeline(3); // FIXME: NO
         VkUtils.copyMatrixToBuffer(this.projMatrixUniform, scene.getProjection().getProjectionMatrix());
-        this.barrier = new MemoryBarrier(VK_ACCESS_SHADER_WRITE_BIT, VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT);
     }
 
     public void close() {
         this.pipeline.close();
+        if (this.vertexSkinning) {
+            this.skinnedPipeline.close();
+            this.skinnedShaderProgram.close();
+            this.skinningDescriptorSetLayout.close();
+        }
         this.constants.close();
         Arrays.stream(this.viewMatricesBuffer).forEach(VkBuffer::close);
         this.projMatrixUniform.close();
@@ -108,7 +123,8 @@ public class GeometryPass implements Closeable {
         descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(this.swapChain.getImageCount() + 1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
         descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(settings.getMaxMaterials() * 3, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
         descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
+        // Skinning in the vertex shader also reads the weights, joint matrices and palette
+        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(this.vertexSkinning ? 4 : 1, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
         this.pools = new PoolManager(this.device, descriptorTypeCounts);
     }
 
@@ -130,6 +146,12 @@ public class GeometryPass implements Closeable {
         this.projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet(this.pools.getPool(), this.uniformDescriptorSetLayout, this.projMatrixUniform, 0);
         this.materialDescSet = new DescriptorSet.StorageDescriptorSet(this.pools.getPool(), this.storageDescriptorSetLayout, globalBuffers.getMaterialsBuffer(), 0);
 
+        if (this.vertexSkinning) {
+            this.skinningDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(this.device, 0, VK_SHADER_STAGE_VERTEX_BIT);
+            this.weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.pools.getPool(), this.skinningDescriptorSetLayout, globalBuffers.getAnimWeightsBuffer(), 0);
+            this.jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.pools.getPool(), this.skinningDescriptorSetLayout, globalBuffers.getAnimJointMatricesBuffer(), 0);
+        }
+
         this.viewMatricesDescriptorSets = new DescriptorSet.UniformDescriptorSet[numImages];
         this.viewMatricesBuffer = new VkBuffer[numImages];
         for (var i = 0; i < numImages; i++) {
@@ -142,6 +164,14 @@ public class GeometryPass implements Closeable {
         var creationInfo = new Pipeline.PipeLineCreationInfo(this.frameBuffer.getRenderPass().vk(), this.shaderProgram, colorAttachmentCount, true, true, 0, new InstancedVertexBufferStructure(), descSetLayouts);
         this.pipeline = new Pipeline(this.cache, creationInfo);
         creationInfo.close();
+        if (!this.vertexSkinning) return;
+
+        // Shares the first sets with the static pipeline so they stay bound when switching between the two
+        var skinnedDescSetLayouts = Arrays.copyOf(this.descSetLayouts, this.descSetLayouts.length + 3);
+        Arrays.fill(skinnedDescSetLayouts, this.descSetLayouts.length, skinnedDescSetLayouts.length, this.skinningDescriptorSetLayout);
+        var skinnedCreationInfo = new Pipeline.PipeLineCreationInfo(this.frameBuffer.getRenderPass().vk(), this.skinnedShaderProgram, colorAttachmentCount, true, true, 0, new SkinnedVertexBufferStructure(), skinnedDescSetLayouts);
+        this.skinnedPipeline = new Pipeline(this.cache, skinnedCreationInfo);
+        skinnedCreationInfo.close();
     }
 
     private void createShaders() {
@@ -149,14 +179,31 @@ public class GeometryPass implements Closeable {
                 new ShaderProgram.ShaderData(VK_SHADER_STAGE_VERTEX_BIT, ImplUtils.get(GEOMETRY_VERTEX_SHADER_FILE_SPV)),
                 new ShaderProgram.ShaderData(VK_SHADER_STAGE_FRAGMENT_BIT, ImplUtils.get(GEOMETRY_FRAGMENT_SHADER_FILE_SPV), constants)
         });
+        if (this.vertexSkinning) this.skinnedShaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{
+                new ShaderProgram.ShaderData(VK_SHADER_STAGE_VERTEX_BIT, ImplUtils.get(GEOMETRY_SKINNED_VERTEX_SHADER_FILE_SPV)),
+                new ShaderProgram.ShaderData(VK_SHADER_STAGE_FRAGMENT_BIT, ImplUtils.get(GEOMETRY_FRAGMENT_SHADER_FILE_SPV), constants)
+        });
+    }
+
+    /**
+     * Points the skinned vertex shader at the palette buffer recreated with the animated entities. The caller must make
+     * sure no submitted frame still uses the previous one.
+     */
+    public void onAnimatedEntitiesLoaded(GlobalBuffers globalBuffers) {
+        if (!this.vertexSkinning) return;
+        if (this.paletteDescriptorSet != null) this.paletteDescriptorPool.freeDescriptorSet(this.paletteDescriptorSet.vk());
+        this.paletteDescriptorPool = this.pools.getPool();
+        this.paletteDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.paletteDescriptorPool, this.skinningDescriptorSetLayout, globalBuffers.getAnimPaletteBuffer(), 0);
     }
 
     public List<Attachment> getAttachments() {
         return this.frameBuffer.getRenderPass().attachments;
     }
 
+    /**
+     * Rebuilds the texture descriptors. The caller must make sure no submitted frame still uses them.
+     */
     public void loadModels(TextureCache textureCache) {
-        this.device.waitIdle();
         // Size of the descriptor is set up in the layout, we need to fill up the texture list
         // up to the number defined in the layout (reusing last texture)
         var textureCacheList = textureCache.getAll();
@@ -165,7 +212,9 @@ public class GeometryPass implements Closeable {
         var settings = Settings.getInstance();
         var maxTextures = settings.getMaxTextures();
         for (var i = 0; i < maxTextures - textureCacheSize; i++) textureList.add(textureCacheList.get(textureCacheSize - 1));
-        this.textureDescriptorSet = new TextureDescriptorSet(this.pools.getPool(), this.textureDescriptorSetLayout, textureList, this.textureSampler, 0);
+        if (this.textureDescriptorSet != null) this.textureDescriptorPool.freeDescriptorSet(this.textureDescriptorSet.vk());
+        this.textureDescriptorPool = this.pools.getPool();
+        this.textureDescriptorSet = new TextureDescriptorSet(this.textureDescriptorPool, this.textureDescriptorSetLayout, textureList, this.textureSampler, 0);
     }
 
     public void recordCommandBuffer(CmdBuffer cmdBuffer, GlobalBuffers globalBuffers, int idx) {
@@ -186,7 +235,6 @@ public class GeometryPass implements Closeable {
             var renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack).sType$Default().renderPass(this.frameBuffer.getRenderPass().vk()).pClearValues(clearValues).renderArea(a -> a.extent().set(width, height)).framebuffer(frameBuffer.vk());
             var cmdHandle = cmdBuffer.vk();
 
-            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, 0, this.barrier.vk(), null, null);
             vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
             vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, this.pipeline.vk());
 
@@ -234,13 +282,21 @@ public class GeometryPass implements Closeable {
 
             // Draw commands for animated entities
             if (globalBuffers.getNumAnimIndirectCommands() > 0) {
-                vertexBuffer.put(0, globalBuffers.getAnimVerticesBuffer().getBuffer());
+                if (this.vertexSkinning) {
+                    vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, this.skinnedPipeline.vk());
+                    var skinningDescriptorSets = stack.longs(this.weightsDescriptorSet.vk(), this.jointMatricesDescriptorSet.vk(), this.paletteDescriptorSet.vk());
+                    vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, this.skinnedPipeline.layout, this.descSetLayouts.length, skinningDescriptorSets, null);
+                }
+
+                vertexBuffer.put(0, this.vertexSkinning ? globalBuffers.getVerticesBuffer().getBuffer() : globalBuffers.getAnimVerticesBuffer().getBuffer());
                 instanceBuffer.put(0, globalBuffers.getAnimInstanceDataBuffers()[idx].getBuffer());
+                // Every frame in flight reads the region the animator skinned it into
+                var animOffsets = stack.longs(this.vertexSkinning ? 0 : (long) idx * globalBuffers.getAnimVerticesFrameSize());
 
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
+                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, animOffsets);
                 vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
                 vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
-                var animIndirectBuffer = globalBuffers.getAnimIndirectBuffer();
+                var animIndirectBuffer = globalBuffers.getAnimIndirectBuffers()[idx];
                 vkCmdDrawIndexedIndirect(cmdHandle, animIndirectBuffer.getBuffer(), 0, globalBuffers.getNumAnimIndirectCommands(), GlobalBuffers.IND_COMMAND_STRIDE);
             }
 
@@ -19,6 +19,7 @@ import com.thepokecraftmod.renderer.wrapper.renderpass.Attachment;
 import com.thepokecraftmod.renderer.wrapper.pipeline.Pipeline;
 import com.thepokecraftmod.renderer.wrapper.pipeline.PipelineCache;
 import com.thepokecraftmod.renderer.wrapper.vertex.InstancedVertexBufferStructure;
+import com.thepokecraftmod.renderer.wrapper.vertex.SkinnedVertexBufferStructure;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkClearValue;
 import org.lwjgl.vulkan.VkRect2D;
@@ -37,35 +38,51 @@ public class ShadowPass {
     private static final String SHADOW_GEOMETRY_SHADER_FILE_SPV = SHADOW_GEOMETRY_SHADER_FILE_GLSL + ".spv";
     private static final String SHADOW_VERTEX_SHADER_FILE_GLSL = "shadow_vertex.glsl";
     private static final String SHADOW_VERTEX_SHADER_FILE_SPV = SHADOW_VERTEX_SHADER_FILE_GLSL + ".spv";
+    private static final String SHADOW_SKINNED_VERTEX_SHADER_FILE_GLSL = "shadow_skinned_vertex.glsl";
+    private static final String SHADOW_SKINNED_VERTEX_SHADER_FILE_SPV = SHADOW_SKINNED_VERTEX_SHADER_FILE_GLSL + ".spv";
 
     private final Device device;
     private final Scene scene;
     private final ShadowsFrameBuffer shadowsFrameBuffer;
+    private final boolean vertexSkinning;
 
     private List<CascadeShadow> cascadeShadows;
     private PoolManager pools;
     private DescriptorSetLayout[] descriptorSetLayouts;
     private Pipeline pipeline;
+    private Pipeline skinnedPipeline;
+    private ShaderProgram skinnedShaderProgram;
+    private DescriptorSetLayout.StorageDescriptorSetLayout skinningDescriptorSetLayout;
+    private DescriptorSet.StorageDescriptorSet weightsDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet jointMatricesDescriptorSet;
+    private DescriptorSet.StorageDescriptorSet paletteDescriptorSet;
+    private DescriptorPool paletteDescriptorPool;
     private DescriptorSet.UniformDescriptorSet[] projMatrixDescriptorSet;
     private ShaderProgram shaderProgram;
     private VkBuffer[] shadowsUniforms;
     private Swapchain swapChain;
     private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
 
-    public ShadowPass(Swapchain swapChain, PipelineCache pipelineCache, Scene scene) {
+    public ShadowPass(Swapchain swapChain, PipelineCache pipelineCache, Scene scene, GlobalBuffers globalBuffers) {
         this.swapChain = swapChain;
         this.scene = scene;
         this.device = swapChain.getDevice();
+        this.vertexSkinning = Settings.getInstance().isVertexSkinning();
         this.shadowsFrameBuffer = new ShadowsFrameBuffer(this.device);
         createShaders();
         createDescriptorPool(swapChain.getImageCount());
-        createDescriptorSets(swapChain.getImageCount());
+        createDescriptorSets(swapChain.getImageCount(), globalBuffers);
         createPipeline(pipelineCache);
         createShadowCascades();
     }
 
     public void close() {
         this.pipeline.close();
+        if (this.vertexSkinning) {
+            this.skinnedPipeline.close();
+            this.skinnedShaderProgram.close();
+            this.skinningDescriptorSetLayout.close();
+        }
         Arrays.stream(this.shadowsUniforms).forEach(VkBuffer::close);
         this.uniformDescriptorSetLayout.close();
         this.pools.close();
@@ -76,15 +93,23 @@ public class ShadowPass {
     private void createDescriptorPool(int numImages) {
         List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
         descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(numImages, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
+        // Weights, joint matrices and palette read when skinning in the vertex shader
+        if (this.vertexSkinning) descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(3, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
         this.pools = new PoolManager(this.device, descriptorTypeCounts);
     }
 
-    private void createDescriptorSets(int numImages) {
+    private void createDescriptorSets(int numImages, GlobalBuffers globalBuffers) {
         this.uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(this.device, 0, VK_SHADER_STAGE_GEOMETRY_BIT);
         this.descriptorSetLayouts = new DescriptorSetLayout[]{
                 this.uniformDescriptorSetLayout,
         };
 
+        if (this.vertexSkinning) {
+            this.skinningDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(this.device, 0, VK_SHADER_STAGE_VERTEX_BIT);
+            this.weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.pools.getPool(), this.skinningDescriptorSetLayout, globalBuffers.getAnimWeightsBuffer(), 0);
+            this.jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.pools.getPool(), this.skinningDescriptorSetLayout, globalBuffers.getAnimJointMatricesBuffer(), 0);
+        }
+
         this.projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet[numImages];
         this.shadowsUniforms = new VkBuffer[numImages];
         for (var i = 0; i < numImages; i++) {
@@ -100,6 +125,19 @@ public class ShadowPass {
                 3, true, true, 0,
                 new InstancedVertexBufferStructure(), this.descriptorSetLayouts);
         this.pipeline = new Pipeline(pipelineCache, pipeLineCreationInfo);
+        if (!this.vertexSkinning) return;
+
+        var skinnedDescriptorSetLayouts = new DescriptorSetLayout[]{
+                this.uniformDescriptorSetLayout,
+                this.skinningDescriptorSetLayout,
+                this.skinningDescriptorSetLayout,
+                this.skinningDescriptorSetLayout,
+        };
+        var skinnedCreationInfo = new Pipeline.PipeLineCreationInfo(
+                this.shadowsFrameBuffer.getRenderPass().getVkRenderPass(), this.skinnedShaderProgram,
+                3, true, true, 0,
+                new SkinnedVertexBufferStructure(), skinnedDescriptorSetLayouts);
+        this.skinnedPipeline = new Pipeline(pipelineCache, skinnedCreationInfo);
     }
 
     private void createShaders() {
@@ -107,6 +145,21 @@ public class ShadowPass {
                 new ShaderProgram.ShaderData(VK_SHADER_STAGE_VERTEX_BIT, ImplUtils.get(SHADOW_VERTEX_SHADER_FILE_SPV)),
                 new ShaderProgram.ShaderData(VK_SHADER_STAGE_GEOMETRY_BIT, ImplUtils.get(SHADOW_GEOMETRY_SHADER_FILE_SPV)),
         });
+        if (this.vertexSkinning) this.skinnedShaderProgram = new ShaderProgram(this.device, new ShaderProgram.ShaderData[]{
+                new ShaderProgram.ShaderData(VK_SHADER_STAGE_VERTEX_BIT, ImplUtils.get(SHADOW_SKINNED_VERTEX_SHADER_FILE_SPV)),
+                new ShaderProgram.ShaderData(VK_SHADER_STAGE_GEOMETRY_BIT, ImplUtils.get(SHADOW_GEOMETRY_SHADER_FILE_SPV)),
+        });
+    }
+
+    /**
+     * Points the skinned vertex shader at the palette buffer recreated with the animated entities. The caller must make
+     * sure no submitted frame still uses the previous one.
+     */
+    public void onAnimatedEntitiesLoaded(GlobalBuffers globalBuffers) {
+        if (!this.vertexSkinning) return;
+        if (this.paletteDescriptorSet != null) this.paletteDescriptorPool.freeDescriptorSet(this.paletteDescriptorSet.vk());
+        this.paletteDescriptorPool = this.pools.getPool();
+        this.paletteDescriptorSet = new DescriptorSet.StorageDescriptorSet(this.paletteDescriptorPool, this.skinningDescriptorSetLayout, globalBuffers.getAnimPaletteBuffer(), 0);
     }
 
     private void createShadowCascades() {
@@ -187,13 +240,21 @@ public class ShadowPass {
 
             if (globalBuffers.getNumAnimIndirectCommands() > 0) {
                 // Draw commands for  animated models
-                vertexBuffer.put(0, globalBuffers.getAnimVerticesBuffer().getBuffer());
+                if (this.vertexSkinning) {
+                    vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, this.skinnedPipeline.vk());
+                    var skinningDescriptorSets = stack.longs(this.weightsDescriptorSet.vk(), this.jointMatricesDescriptorSet.vk(), this.paletteDescriptorSet.vk());
+                    vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, this.skinnedPipeline.layout, 1, skinningDescriptorSets, null);
+                }
+
+                vertexBuffer.put(0, this.vertexSkinning ? globalBuffers.getVerticesBuffer().getBuffer() : globalBuffers.getAnimVerticesBuffer().getBuffer());
                 instanceBuffer.put(0, globalBuffers.getAnimInstanceDataBuffers()[idx].getBuffer());
+                // Every frame in flight reads the region the animator skinned it into
+                var animOffsets = stack.longs(this.vertexSkinning ? 0 : (long) idx * globalBuffers.getAnimVerticesFrameSize());
 
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
+                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, animOffsets);
                 vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
                 vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
-                var animIndirectBuffer = globalBuffers.getAnimIndirectBuffer();
+                var animIndirectBuffer = globalBuffers.getAnimIndirectBuffers()[idx];
                 vkCmdDrawIndexedIndirect(cmdHandle, animIndirectBuffer.getBuffer(), 0, globalBuffers.getNumAnimIndirectCommands(), GlobalBuffers.IND_COMMAND_STRIDE);
             }
 
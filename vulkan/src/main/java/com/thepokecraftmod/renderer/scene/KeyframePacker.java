@@ -0,0 +1,105 @@
+package com.thepokecraftmod.renderer.scene;
+
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.BoneNode;
+import com.thepokecraftmod.rks.model.animation.Keyframes;
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * Packs the keyframe tracks of an animation together with its flattened skeleton into the layout animations_eval_comp.glsl
+ * evaluates. Everything is a 32 bit word and offsets are in words relative to the start of the clip.
+ * <p>
+ * The clip starts with {@link #HEADER_WORDS} words holding the node count, followed by one {@link #NODE_WORDS} record
+ * per node in {@link com.thepokecraftmod.rks.model.animation.Skeleton#nodes} order:
+ * parent, joint, position keys offset, position key count, rotation keys offset, rotation key count, scale keys
+ * offset, scale key count, rest transform, inverse bind matrix. Nodes without a track have a position key count of 0.
+ * A track is stored as its key times followed by its values.
+ */
+public class KeyframePacker {
+    public static final int HEADER_WORDS = 4;
+    public static final int NODE_WORDS = 8 + 16 + 16;
+    private static final int WORD_SIZE = Integer.BYTES;
+
+    public static ByteBuffer pack(Animation animation) {
+        var skeleton = animation.skeleton;
+        var nodes = skeleton.nodes;
+        var nodeIds = new IdentityHashMap<BoneNode, Integer>();
+        for (var i = 0; i < nodes.length; i++) nodeIds.put(nodes[i], i);
+
+        var size = HEADER_WORDS + nodes.length * NODE_WORDS;
+        for (var node : nodes) {
+            var track = getTrack(animation, node);
+            if (track != null)
+                size += getTrackWords(track.positionKeys) + getTrackWords(track.rotationKeys) + getTrackWords(track.scaleKeys);
+        }
+
+        var buffer = BufferUtils.createByteBuffer(size * WORD_SIZE);
+        buffer.putInt(0, nodes.length);
+        var keysOffset = HEADER_WORDS + nodes.length * NODE_WORDS;
+
+        for (var i = 0; i < nodes.length; i++) {
+            var node = nodes[i];
+            var track = getTrack(animation, node);
+            var joint = skeleton.getId(node.name);
+            var nodeOffset = HEADER_WORDS + i * NODE_WORDS;
+
+            buffer.putInt(nodeOffset * WORD_SIZE, node.parent != null ? nodeIds.get(node.parent) : -1);
+            buffer.putInt((nodeOffset + 1) * WORD_SIZE, joint);
+            if (track != null) {
+                keysOffset = putTrack(buffer, track.positionKeys, nodeOffset + 2, keysOffset);
+                keysOffset = putTrack(buffer, track.rotationKeys, nodeOffset + 4, keysOffset);
+                keysOffset = putTrack(buffer, track.scaleKeys, nodeOffset + 6, keysOffset);
+            }
+
+            putMatrix(buffer, node.transform, nodeOffset + 8);
+            if (joint != -1) putMatrix(buffer, skeleton.getBone(joint).inverseBindMatrix, nodeOffset + 24);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * @return the node count of a clip packed by {@link #pack(Animation)}
+     */
+    public static int getNodeCount(ByteBuffer keyframes) {
+        return keyframes.getInt(keyframes.position());
+    }
+
+    private static Animation.AnimationNode getTrack(Animation animation, BoneNode node) {
+        var trackId = animation.nodeIdMap.getOrDefault(node.name, -1);
+        return trackId != -1 ? animation.animationNodes[trackId] : null;
+    }
+
+    // Constant tracks only keep their first key, so the shader never has to interpolate them
+    private static int getKeyCount(Keyframes keys) {
+        return keys.isConstant() ? 1 : keys.size();
+    }
+
+    private static int getTrackWords(Keyframes keys) {
+        return getKeyCount(keys) * (1 + keys.components());
+    }
+
+    private static int putTrack(ByteBuffer buffer, Keyframes keys, int headerOffset, int keysOffset) {
+        var keyCount = getKeyCount(keys);
+        var components = keys.components();
+        buffer.putInt(headerOffset * WORD_SIZE, keysOffset);
+        buffer.putInt((headerOffset + 1) * WORD_SIZE, keyCount);
+
+        var valuesOffset = keysOffset + keyCount;
+        for (var i = 0; i < keyCount; i++) {
+            buffer.putFloat((keysOffset + i) * WORD_SIZE, keys.getTime(i));
+            for (var c = 0; c < components; c++)
+                buffer.putFloat((valuesOffset + i * components + c) * WORD_SIZE, keys.getValue(i, c));
+        }
+
+        return valuesOffset + keyCount * components;
+    }
+
+    private static void putMatrix(ByteBuffer buffer, Matrix4f matrix, int offset) {
+        matrix.get(offset * WORD_SIZE, buffer);
+    }
+}
@@ -0,0 +1,271 @@
+package com.thepokecraftmod.renderer.scene;
+
+import com.thepokecraftmod.renderer.wrapper.core.Settings;
+import com.thepokecraftmod.rks.ModelLocator;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Stores fully processed {@link ModelData} on disk so warm starts can skip Assimp and animation baking. Entries are
+ * keyed by a hash of the source files and are rebuilt whenever the sources, the joint format, the bake rate, the
+ * keyframe reduction, the lazy baking or GPU evaluation settings or {@link #VERSION} change.
+ * Cached vertex, index, weight and animation data is sliced straight out of a single read only mapping.
+ */
+public class ModelCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelCache.class);
+    private static final int MAGIC = 0x524B5343; // RKSC
+    public static final int VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+    private static final int ALIGNMENT = 8;
+    private final Path cacheDir;
+
+    public ModelCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @param sourceFiles every file read by the locator to produce the model (model, config and animations)
+     * @param jointFormat the joint format the processor packs baked animations with
+     * @param processor   produces the model when no valid cache entry exists
+     */
+    public ModelData load(String modelId, ModelLocator locator, List<String> sourceFiles, ModelData.JointFormat jointFormat, Supplier<ModelData> processor) {
+        var hash = hash(locator, sourceFiles, jointFormat);
+        var file = this.cacheDir.resolve(modelId.replaceAll("[^a-zA-Z0-9_.-]", "_") + ".rksc");
+
+        if (Files.exists(file)) {
+            try {
+                var data = read(file, hash, modelId, locator);
+                if (data != null) {
+                    LOGGER.info("Loaded model \"{}\" from cache", modelId);
+                    return data;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Discarding unreadable model cache {}", file, e);
+            }
+        }
+
+        var data = processor.get();
+        write(file, hash, data);
+        return data;
+    }
+
+    private static byte[] hash(ModelLocator locator, List<String> sourceFiles, ModelData.JointFormat jointFormat) {
+        try {
+            var settings = Settings.getInstance();
+            var digest = MessageDigest.getInstance("SHA-256");
+            // Lazy baking and GPU evaluation leave animations unbaked, so they change what an entry holds
+            var header = ByteBuffer.allocate(14)
+                    .putInt(VERSION)
+                    .putInt(settings.getAnimationBakeRate())
+                    .putInt(jointFormat.ordinal())
+                    .put((byte) (settings.isLazyAnimationBaking() ? 1 : 0))
+                    .put((byte) (settings.isGpuAnimationEvaluation() ? 1 : 0))
+                    .flip();
+            digest.update(header);
+            var reduction = ModelProcessor.getKeyframeReduction();
+            if (reduction != null)
+                digest.update(ByteBuffer.allocate(12).putFloat(reduction.angularTolerance()).putFloat(reduction.positionTolerance()).putFloat(reduction.scaleTolerance()).flip());
+
+            for (var sourceFile : sourceFiles) {
+                digest.update(sourceFile.getBytes(StandardCharsets.UTF_8));
+                digest.update(locator.getFileBuffer(sourceFile));
+            }
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ModelData read(Path file, byte[] hash, String modelId, ModelLocator locator) {
+        var buffer = ModelLocator.mapFile(file).order(ByteOrder.nativeOrder());
+
+        // The magic is written in native order, so a file from a machine with a different byte order is also stale
+        if (buffer.remaining() < 8 + HASH_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+        var storedHash = new byte[HASH_LENGTH];
+        buffer.get(storedHash);
+        if (!Arrays.equals(hash, storedHash)) return null;
+
+        var materials = new ArrayList<ModelData.Material>();
+        var materialCount = buffer.getInt();
+        for (var i = 0; i < materialCount; i++) {
+            materials.add(new ModelData.Material(
+                    getString(buffer),
+                    getString(buffer),
+                    getString(buffer),
+                    new Vector4f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()),
+                    buffer.getFloat(),
+                    buffer.getFloat()
+            ));
+        }
+
+        var meshes = new ArrayList<ModelData.MeshData>();
+        var meshCount = buffer.getInt();
+        for (var i = 0; i < meshCount; i++) {
+            var materialIdx = buffer.getInt();
+            var vertexCount = buffer.getInt();
+            var vertices = getBlock(buffer);
+            var indices = getBlock(buffer).asIntBuffer();
+            meshes.add(new ModelData.MeshData(vertices, indices, vertexCount, materialIdx));
+        }
+
+        var data = new ModelData(modelId, meshes, materials, locator);
+
+        var animMeshCount = buffer.getInt();
+        if (animMeshCount > 0) {
+            var animMeshes = new ArrayList<ModelData.AnimMeshData>();
+            for (var i = 0; i < animMeshCount; i++) animMeshes.add(new ModelData.AnimMeshData(getBlock(buffer)));
+            data.setAnimMeshDataList(animMeshes);
+        }
+
+        var animationCount = buffer.getInt();
+        if (animationCount > 0) {
+            var animations = new ArrayList<ModelData.PreComputedAnimation>();
+            for (var i = 0; i < animationCount; i++) {
+                var name = getString(buffer);
+                var duration = buffer.getDouble();
+                var frameCount = buffer.getInt();
+                var ticksPerFrame = buffer.getFloat();
+                var jointCount = buffer.getInt();
+                var jointFormat = ModelData.JointFormat.values()[buffer.getInt()];
+                animations.add(new ModelData.PreComputedAnimation(name, duration, frameCount, ticksPerFrame, jointCount, jointFormat, getBlock(buffer), null, null));
+            }
+
+            data.setAnimations(animations);
+        }
+
+        return data;
+    }
+
+    private void write(Path file, byte[] hash, ModelData data) {
+        if (data.hasAnimations() && data.getAnimations().stream().anyMatch(animation -> !animation.isBaked())) {
+            // Lazily baked and GPU evaluated animations only exist as source data, which the cache can't store
+            LOGGER.debug("Not caching model {} as its animations are not baked", file);
+            return;
+        }
+
+        var animMeshes = data.getAnimMeshDataList() != null ? data.getAnimMeshDataList() : List.<ModelData.AnimMeshData>of();
+        var animations = data.hasAnimations() ? data.getAnimations() : List.<ModelData.PreComputedAnimation>of();
+
+        var size = 8L + HASH_LENGTH + 4;
+        for (var material : data.getMaterialList())
+            size += stringSize(material.diffuseTexture()) + stringSize(material.normalTexture()) + stringSize(material.metalRoughMap()) + 6 * 4;
+        size += 4;
+        for (var mesh : data.getMeshDataList())
+            size += 8 + blockSize(mesh.vertices().remaining()) + blockSize(mesh.indices().remaining() * 4L);
+        size += 4;
+        for (var animMesh : animMeshes) size += blockSize(animMesh.weights().remaining());
+        size += 4;
+        for (var animation : animations) size += stringSize(animation.name()) + 24 + blockSize(animation.frames().remaining());
+
+        var buffer = BufferUtils.createByteBuffer(Math.toIntExact(size));
+        buffer.putInt(MAGIC).putInt(VERSION).put(hash);
+
+        buffer.putInt(data.getMaterialList().size());
+        for (var material : data.getMaterialList()) {
+            putString(buffer, material.diffuseTexture());
+            putString(buffer, material.normalTexture());
+            putString(buffer, material.metalRoughMap());
+            var color = material.diffuseColor();
+            buffer.putFloat(color.x).putFloat(color.y).putFloat(color.z).putFloat(color.w);
+            buffer.putFloat(material.roughnessFactor()).putFloat(material.metallicFactor());
+        }
+
+        buffer.putInt(data.getMeshDataList().size());
+        for (var mesh : data.getMeshDataList()) {
+            buffer.putInt(mesh.materialIdx()).putInt(mesh.vertexCount());
+            putBlock(buffer, mesh.vertices().duplicate());
+            putBlock(buffer, MemoryUtil.memByteBuffer(mesh.indices()));
+        }
+
+        buffer.putInt(animMeshes.size());
+        for (var animMesh : animMeshes) putBlock(buffer, animMesh.weights().duplicate());
+
+        buffer.putInt(animations.size());
+        for (var animation : animations) {
+            putString(buffer, animation.name());
+            buffer.putDouble(animation.duration()).putInt(animation.frameCount()).putFloat(animation.ticksPerFrame()).putInt(animation.jointCount()).putInt(animation.jointFormat().ordinal());
+            putBlock(buffer, animation.frames().duplicate());
+        }
+
+        buffer.flip();
+
+        try {
+            Files.createDirectories(this.cacheDir);
+            var tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (var channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // A missing cache entry only costs load time, so don't fail the load over it
+            LOGGER.warn("Failed to write model cache {}", file, e);
+        }
+    }
+
+    private static long stringSize(String s) {
+        return 4 + (s != null ? s.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        if (s == null) {
+            buffer.putInt(-1);
+            return;
+        }
+
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length == -1) return null;
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A length prefix followed by padding, so the raw data itself starts on an aligned offset
+    private static long blockSize(long bytes) {
+        return 4 + ALIGNMENT + bytes;
+    }
+
+    private static void putBlock(ByteBuffer buffer, ByteBuffer data) {
+        buffer.putInt(data.remaining());
+        align(buffer);
+        buffer.put(data);
+    }
+
+    private static ByteBuffer getBlock(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        align(buffer);
+        var block = buffer.slice(buffer.position(), length).order(ByteOrder.nativeOrder());
+        buffer.position(buffer.position() + length);
+        return block;
+    }
+
+    private static void align(ByteBuffer buffer) {
+        var offset = buffer.position() % ALIGNMENT;
+        if (offset != 0) buffer.position(buffer.position() + ALIGNMENT - offset);
+    }
+}
@@ -1,9 +1,12 @@
 package com.thepokecraftmod.renderer.scene;
 
+import com.thepokecraftmod.renderer.wrapper.core.VkConstants;
 import com.thepokecraftmod.rks.ModelLocator;
-import org.joml.Matrix4f;
+import com.thepokecraftmod.rks.model.animation.Animation;
 import org.joml.Vector4f;
 
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.List;
 
 public class ModelData {
@@ -13,6 +16,7 @@ public class ModelData {
     public final ModelLocator locator;
     private List<AnimMeshData> animMeshDataList;
     private List<PreComputedAnimation> animations;
+    private List<Animation> acquiredAnimations = List.of();
 
     public ModelData(String modelId, List<MeshData> meshDataList, List<Material> materialList, ModelLocator locator) {
         this.modelId = modelId;
@@ -37,6 +41,18 @@ public class ModelData {
         this.animations = animationsList;
     }
 
+    /**
+     * @return the animations taken from the {@link com.thepokecraftmod.rks.model.animation.AnimationRegistry} for the
+     * model, which are released when it is unloaded
+     */
+    public List<Animation> getAcquiredAnimations() {
+        return this.acquiredAnimations;
+    }
+
+    public void setAcquiredAnimations(List<Animation> acquiredAnimations) {
+        this.acquiredAnimations = acquiredAnimations;
+    }
+
     public List<Material> getMaterialList() {
         return this.materialList;
     }
@@ -53,14 +69,65 @@ public class ModelData {
         return this.animations != null && !this.animations.isEmpty();
     }
 
-    public record AnimMeshData(float[] weights, int[] boneIds) {
+    /**
+     * @param weights packed per vertex as 4 weights followed by the 4 matching joint ids stored as floats
+     */
+    public record AnimMeshData(ByteBuffer weights) {
     }
 
+    /**
+     * How baked joint matrices are laid out in the joint matrices buffer
+     */
+    public enum JointFormat {
+        /**
+         * Column major 4x4 matrices
+         */
+        MAT4(VkConstants.MAT4X4_SIZE),
+        /**
+         * The top three rows of each matrix, row major. Joint matrices are affine, so the last row is always 0, 0, 0, 1
+         */
+        AFFINE_3X4(VkConstants.VEC4_SIZE * 3);
+
+        public final int sizeInBytes;
+
+        JointFormat(int sizeInBytes) {
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+
+    /**
+     * @param ticksPerFrame animation ticks between two baked frames, frame i samples the animation at i * ticksPerFrame
+     * @param frames    frameCount * jointCount joint matrices in jointFormat, one frame after another. null when the
+     *                  animation is baked from source the first time it is played or evaluated on the GPU
+     * @param keyframes the tracks and skeleton packed by {@link KeyframePacker} when the animation is evaluated on the
+     *                  GPU, otherwise null
+     * @param source    the animation this was processed from. Identifies the GPU data models share, null when read
+     *                  from the {@link ModelCache}
+     */
     public record PreComputedAnimation(
             String name,
             double duration,
-            List<Matrix4f[]> frames
-    ) {}
+            int frameCount,
+            float ticksPerFrame,
+            int jointCount,
+            JointFormat jointFormat,
+            ByteBuffer frames,
+            ByteBuffer keyframes,
+            Animation source
+    ) {
+
+        public int frameSize() {
+            return this.jointCount * this.jointFormat.sizeInBytes;
+        }
+
+        public boolean isBaked() {
+            return this.frames != null;
+        }
+
+        public boolean isGpuEvaluated() {
+            return this.keyframes != null;
+        }
+    }
 
     public record Material(
             String diffuseTexture, // AO + ALB
@@ -77,13 +144,13 @@ public class ModelData {
         }
     }
 
+    /**
+     * @param vertices interleaved in the layout described by {@link com.thepokecraftmod.renderer.wrapper.vertex.VertexBufferStructure}
+     */
     public record MeshData(
-            float[] positions,
-            float[] normals,
-            float[] tangents,
-            float[] biTangents,
-            float[] textCoords,
-            int[] indices,
+            ByteBuffer vertices,
+            IntBuffer indices,
+            int vertexCount,
             int materialIdx
     ) {}
 }
\ No newline at end of file
@@ -1,25 +1,30 @@
 package com.thepokecraftmod.renderer.scene;
 
 import com.thepokecraftmod.renderer.wrapper.core.Settings;
+import com.thepokecraftmod.renderer.wrapper.core.VkConstants;
+import com.thepokecraftmod.renderer.wrapper.vertex.VertexBufferStructure;
 import com.thepokecraftmod.rks.ModelLocator;
-import com.thepokecraftmod.rks.Pair;
 import com.thepokecraftmod.rks.model.Mesh;
 import com.thepokecraftmod.rks.model.Model;
 import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.AnimationRegistry;
+import com.thepokecraftmod.rks.model.animation.KeyframeReduction;
+import com.thepokecraftmod.rks.model.animation.Skeleton;
+import com.thepokecraftmod.rks.model.animation.SkeletonEvaluator;
 import com.thepokecraftmod.rks.model.material.Material;
-import org.joml.Matrix4f;
+import com.thepokecraftmod.rks.model.texture.TextureType;
+import org.joml.Vector3f;
 import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Stream;
-
-import static com.thepokecraftmod.renderer.wrapper.core.DataUtils.toPrimitiveFloatArr;
-import static com.thepokecraftmod.renderer.wrapper.core.DataUtils.toPrimitiveIntArr;
+import java.util.stream.IntStream;
 
 /**
  * Handles processing a model loaded from rks modelLoader into a format the renderer understands
@@ -28,8 +33,18 @@ public class ModelProcessor {
     private static final Logger LOGGER = LoggerFactory.getLogger(ModelProcessor.class);
     public static final int MAX_JOINTS = 200;
     public static final int MAX_WEIGHTS = 4;
+    public static final int WEIGHTS_SIZE_IN_BYTES = MAX_WEIGHTS * 2 * VkConstants.FLOAT_LENGTH;
+    private static final int FRAMES_PER_TASK = 16;
+    private static final Object PACKED_KEYFRAMES = new Object();
 
     public static ModelData loadModel(String modelId, ModelLocator locator, Model model, List<Animation> animations) {
+        return loadModel(modelId, locator, model, animations, ModelData.JointFormat.MAT4);
+    }
+
+    /**
+     * @param jointFormat the layout the model's animations are baked in
+     */
+    public static ModelData loadModel(String modelId, ModelLocator locator, Model model, List<Animation> animations, ModelData.JointFormat jointFormat) {
         LOGGER.info("Loading model \"{}\"", modelId);
 
         // Material Loading
@@ -56,133 +71,288 @@ public class ModelProcessor {
             LOGGER.info("Processing animations");
             List<ModelData.AnimMeshData> animMeshDataList = new ArrayList<>();
             for (var i = 0; i < model.meshes().length; i++) {
-                var animMeshData = processBones(model.meshes()[i], model);
+                var animMeshData = processBones(model.meshes()[i]);
                 animMeshDataList.add(animMeshData);
             }
 
             modelData.setAnimMeshDataList(animMeshDataList);
-            modelData.setAnimations(processAnimations(animations));
+            modelData.setAnimations(processAnimations(animations, jointFormat));
         }
 
         LOGGER.info("Loaded model [{}]", modelId);
         return modelData;
     }
 
-    private static List<ModelData.PreComputedAnimation> processAnimations(List<Animation> animations) {
+    /**
+     * Takes a tranm clip from the {@link AnimationRegistry}, read with the keyframe reduction in {@link Settings} if no
+     * model shares it yet. Must be released to the registry once the model is unloaded
+     */
+    public static Animation acquireAnimation(String name, ByteBuffer clip, Skeleton skeleton) {
+        return AnimationRegistry.getInstance().acquire(name, clip, skeleton, getKeyframeReduction());
+    }
+
+    /**
+     * @return the keyframe reduction animations are imported with, or null if keys are kept as is
+     */
+    public static KeyframeReduction getKeyframeReduction() {
+        var settings = Settings.getInstance();
+        if (!settings.isKeyframeReduction()) return null;
+        return new KeyframeReduction((float) Math.toRadians(settings.getKeyframeAngularTolerance()), settings.getKeyframePositionTolerance(), settings.getKeyframeScaleTolerance());
+    }
+
+    private static List<ModelData.PreComputedAnimation> processAnimations(List<Animation> animations, ModelData.JointFormat jointFormat) {
         var processedAnimations = new ArrayList<ModelData.PreComputedAnimation>();
-        var ups = Settings.getInstance().getUpdatesPerSecond();
-        for (var animation : animations) {
-            var framesNeeded = (ups / animation.ticksPerSecond) * animation.animationDuration;
-            var frames = new ArrayList<Matrix4f[]>();
-            for (var i = 0; i < framesNeeded; i++) frames.add(animation.getFrameTransform(i));
-            processedAnimations.add(new ModelData.PreComputedAnimation(animation.name, animation.animationDuration, frames));
+        var settings = Settings.getInstance();
+        var bakeRate = settings.getAnimationBakeRate();
+        var bakesUpFront = !settings.isGpuAnimationEvaluation() && !settings.isLazyAnimationBaking();
+        var bakedFrames = bakesUpFront ? bakeShared(animations, bakeRate, jointFormat, settings.isParallelAnimationBaking()) : null;
+        for (var i = 0; i < animations.size(); i++) {
+            var animation = animations.get(i);
+            var frameCount = getFrameCount(animation, bakeRate);
+            var ticksPerFrame = animation.ticksPerSecond / bakeRate;
+            var jointCount = animation.skeleton.bones.length;
+
+            if (settings.isGpuAnimationEvaluation())
+                processedAnimations.add(new ModelData.PreComputedAnimation(animation.name, animation.animationDuration, frameCount, ticksPerFrame, jointCount, ModelData.JointFormat.MAT4, null, packShared(animation), animation));
+            else if (settings.isLazyAnimationBaking())
+                processedAnimations.add(new ModelData.PreComputedAnimation(animation.name, animation.animationDuration, frameCount, ticksPerFrame, jointCount, jointFormat, null, null, animation));
+            else
+                processedAnimations.add(new ModelData.PreComputedAnimation(animation.name, animation.animationDuration, frameCount, ticksPerFrame, jointCount, jointFormat, bakedFrames.get(i), null, animation));
         }
 
         return processedAnimations;
     }
 
-    private static ModelData.AnimMeshData processBones(Mesh mesh, Model model) {
-        var vertBoneWeights = new HashMap<Integer, List<Pair<Integer, Float>>>();
-        var boneIds = new ArrayList<Integer>();
-        var weights = new ArrayList<Float>();
+    /**
+     * Bakes every animation, reusing the frames of animations another model already baked through the
+     * {@link AnimationRegistry}
+     */
+    private static List<ByteBuffer> bakeShared(List<Animation> animations, int bakeRate, ModelData.JointFormat jointFormat, boolean parallel) {
+        var registry = AnimationRegistry.getInstance();
+        var key = new BakeKey(bakeRate, jointFormat);
+        var frames = new ArrayList<ByteBuffer>(animations.size());
+        var unbaked = new ArrayList<Animation>();
+        for (var animation : animations) {
+            ByteBuffer baked = registry.getDerived(animation, key);
+            frames.add(baked);
+            if (baked == null) unbaked.add(animation);
+        }
+        if (unbaked.isEmpty()) return frames;
 
-        for (var bone : mesh.bones())
-            for (var i = 0; i < bone.weights.length; i++) {
-                var weight = bone.weights[i];
-                var map = vertBoneWeights.computeIfAbsent(weight.vertexId, integer -> new ArrayList<>());
-                map.add(new Pair<>(model.skeleton().getId(bone), weight.weight));
-            }
+        var newFrames = parallel ? bakeFramesParallel(unbaked, bakeRate, jointFormat) : unbaked.stream().map(animation -> bakeFrames(animation, getFrameCount(animation, bakeRate), animation.ticksPerSecond / bakeRate, jointFormat)).toList();
+        var next = 0;
+        for (var i = 0; i < frames.size(); i++)
+            if (frames.get(i) == null) frames.set(i, registry.putDerived(animations.get(i), key, newFrames.get(next++)));
 
-        var vertexCount = mesh.positions().size();
-        for (var i = 0; i < vertexCount; i++) {
-            var vertexWeights = vertBoneWeights.get(i);
-            var size = vertexWeights != null ? vertexWeights.size() : 0;
-
-            for (var j = 0; j < MAX_WEIGHTS; j++)
-                if (j < size) {
-                    var vertWeight = vertexWeights.get(j);
-                    boneIds.add(vertWeight.a());
-                    weights.add(vertWeight.b());
-                } else {
-                    boneIds.add(0);
-                    weights.add(0.0f);
-                }
-        }
+        return frames;
+    }
 
-        return new ModelData.AnimMeshData(toPrimitiveFloatArr(weights), toPrimitiveIntArr(boneIds));
+    private static ByteBuffer packShared(Animation animation) {
+        var registry = AnimationRegistry.getInstance();
+        ByteBuffer keyframes = registry.getDerived(animation, PACKED_KEYFRAMES);
+        return keyframes != null ? keyframes : registry.putDerived(animation, PACKED_KEYFRAMES, KeyframePacker.pack(animation));
     }
 
-    private static ModelData.Material processMaterial(Material material) {
-        return new ModelData.Material(
-                material.hashCode() + "-diffuse",
-                material.hashCode() + "-normal",
-                material.hashCode() + "-roughnessMetallic",
-                new Vector4f(1, 1, 1, 1),
-                1,
-                1
-        );
+    private static int getFrameCount(Animation animation, int bakeRate) {
+        return (int) Math.ceil((bakeRate / animation.ticksPerSecond) * animation.animationDuration);
     }
 
-    private static ModelData.MeshData processMesh(Mesh mesh) {
-        var vertices = processVertices(mesh);
-        var normals = processNormals(mesh);
-        var tangents = processTangents(mesh, normals);
-        var biTangents = processBiTangents(mesh, normals);
-        var textCoords = processUvs(mesh);
-        var indices = mesh.indices();
-
-        // Texture coordinates may not have been populated. We need at least the empty slots
-        if (textCoords.isEmpty()) {
-            var numElements = (vertices.size() / 3) * 2;
-            for (var i = 0; i < numElements; i++) textCoords.add(0.0f);
+    /**
+     * Samples the animation once per tick into frameCount * jointCount joint matrices
+     */
+    public static ByteBuffer bakeFrames(Animation animation, int frameCount, ModelData.JointFormat jointFormat) {
+        return bakeFrames(animation, frameCount, 1, jointFormat);
+    }
+
+    /**
+     * Samples the animation every ticksPerFrame ticks into frameCount * jointCount joint matrices
+     */
+    public static ByteBuffer bakeFrames(Animation animation, int frameCount, float ticksPerFrame, ModelData.JointFormat jointFormat) {
+        var jointCount = animation.skeleton.bones.length;
+        var frames = BufferUtils.createByteBuffer(frameCount * jointCount * jointFormat.sizeInBytes);
+        bakeFrameRange(animation, 0, frameCount, ticksPerFrame, jointFormat, frames.asFloatBuffer());
+        return frames;
+    }
+
+    /**
+     * Bakes every animation at the bake rate like {@link #bakeFrames(Animation, int, float, ModelData.JointFormat)},
+     * splitting all clips into runs of frames that are baked in parallel. The clips share one allocation, each run
+     * writes its own region of it with its own evaluator, so the output is identical to baking serially.
+     *
+     * @return the baked frames of each animation, in the same order
+     */
+    public static List<ByteBuffer> bakeFramesParallel(List<Animation> animations, int bakeRate, ModelData.JointFormat jointFormat) {
+        var clipSizes = new int[animations.size()];
+        // The first task of each clip, followed by the total task count
+        var clipTasks = new int[animations.size() + 1];
+        var size = 0;
+        for (var i = 0; i < animations.size(); i++) {
+            var animation = animations.get(i);
+            var frameCount = getFrameCount(animation, bakeRate);
+            clipSizes[i] = frameCount * animation.skeleton.bones.length * jointFormat.sizeInBytes;
+            clipTasks[i + 1] = clipTasks[i] + (frameCount + FRAMES_PER_TASK - 1) / FRAMES_PER_TASK;
+            size += clipSizes[i];
         }
 
-        return new ModelData.MeshData(
-                toPrimitiveFloatArr(vertices),
-                toPrimitiveFloatArr(normals),
-                toPrimitiveFloatArr(tangents),
-                toPrimitiveFloatArr(biTangents),
-                toPrimitiveFloatArr(textCoords),
-                toPrimitiveIntArr(indices),
-                mesh.material()
-        );
+        var allFrames = BufferUtils.createByteBuffer(size);
+        var clipFrames = new ArrayList<ByteBuffer>(animations.size());
+        var offset = 0;
+        for (var clipSize : clipSizes) {
+            clipFrames.add(allFrames.slice(offset, clipSize).order(ByteOrder.nativeOrder()));
+            offset += clipSize;
+        }
+
+        IntStream.range(0, clipTasks[animations.size()]).parallel().forEach(task -> {
+            var clip = 0;
+            while (task >= clipTasks[clip + 1]) clip++;
+            var animation = animations.get(clip);
+            var frameCount = getFrameCount(animation, bakeRate);
+            var start = (task - clipTasks[clip]) * FRAMES_PER_TASK;
+            var end = Math.min(start + FRAMES_PER_TASK, frameCount);
+            bakeFrameRange(animation, start, end, animation.ticksPerSecond / bakeRate, jointFormat, clipFrames.get(clip).asFloatBuffer());
+        });
+
+        return clipFrames;
     }
 
-    private static List<Float> processNormals(Mesh mesh) {
-        return mesh.normals().stream()
-                .flatMap(vector3f -> Stream.of(vector3f.x, vector3f.y, vector3f.z))
-                .toList();
+    /**
+     * Bakes frames [start, end) into their place in the clip's frames. Only writes at absolute indices, so runs of the
+     * same clip can be baked at the same time
+     */
+    private static void bakeFrameRange(Animation animation, int start, int end, float ticksPerFrame, ModelData.JointFormat jointFormat, FloatBuffer dest) {
+        var jointCount = animation.skeleton.bones.length;
+        var evaluator = new SkeletonEvaluator(animation);
+
+        if (jointFormat == ModelData.JointFormat.MAT4) {
+            for (var i = start; i < end; i++)
+                evaluator.evaluate(i * ticksPerFrame, dest, i * jointCount * SkeletonEvaluator.MATRIX_FLOATS);
+        } else {
+            var matrices = new float[jointCount * SkeletonEvaluator.MATRIX_FLOATS];
+            var frameFloats = jointCount * jointFormat.sizeInBytes / VkConstants.FLOAT_LENGTH;
+            for (var i = start; i < end; i++) {
+                evaluator.evaluate(i * ticksPerFrame, matrices, 0);
+
+                // Transpose the column major matrix and drop its last row
+                var index = i * frameFloats;
+                for (var j = 0; j < jointCount; j++)
+                    for (var row = 0; row < 3; row++)
+                        for (var column = 0; column < 4; column++)
+                            dest.put(index++, matrices[j * SkeletonEvaluator.MATRIX_FLOATS + column * 4 + row]);
+            }
+        }
     }
 
-    private static List<Float> processTangents(Mesh mesh, List<Float> normals) {
-        var tangents = mesh.tangents().stream()
-                .flatMap(vector3f -> Stream.of(vector3f.x, vector3f.y, vector3f.z))
-                .toList();
+    private static ModelData.AnimMeshData processBones(Mesh mesh) {
+        var vertexCount = mesh.vertexCount();
+        var weights = BufferUtils.createByteBuffer(vertexCount * WEIGHTS_SIZE_IN_BYTES);
+        var packed = weights.asFloatBuffer();
+        var weightCounts = new int[vertexCount];
+
+        // Unused slots are left at weight 0 and joint 0
+        for (var bone : mesh.bones()) {
+            var boneId = bone.id;
+
+            for (var weight : bone.weights) {
+                var slot = weightCounts[weight.vertexId]++;
+                if (slot >= MAX_WEIGHTS) continue;
+                var start = weight.vertexId * MAX_WEIGHTS * 2;
+                packed.put(start + slot, weight.weight);
+                packed.put(start + MAX_WEIGHTS + slot, boneId);
+            }
+        }
 
-        // Assimp may not calculate tangents with models that do not have texture coordinates. Just create empty values
-        if (tangents.isEmpty()) tangents = new ArrayList<>(Collections.nCopies(normals.size(), 0.0f));
-        return tangents;
+        return new ModelData.AnimMeshData(weights);
     }
 
-    private static List<Float> processBiTangents(Mesh mesh, List<Float> normals) {
-        var biTangents = mesh.biTangents().stream()
-                .flatMap(vector3f -> Stream.of(vector3f.x, vector3f.y, vector3f.z))
-                .toList();
+    /**
+     * Creates a unit cube textured with the given texture, used to stand in for models which are still loading
+     */
+    public static ModelData createPlaceholderModel(String modelId, String textureId) {
+        // Normal followed by tangent for each face
+        var faces = new float[][]{
+                {1, 0, 0, 0, 0, -1},
+                {-1, 0, 0, 0, 0, 1},
+                {0, 1, 0, 1, 0, 0},
+                {0, -1, 0, 1, 0, 0},
+                {0, 0, 1, 1, 0, 0},
+                {0, 0, -1, -1, 0, 0}
+        };
+        var corners = new float[]{-1, -1, 1, -1, 1, 1, -1, 1};
+        var vertexCount = faces.length * 4;
+        var vertices = BufferUtils.createByteBuffer(vertexCount * VertexBufferStructure.SIZE_IN_BYTES);
+        var interleaved = vertices.asFloatBuffer();
+        var indices = BufferUtils.createIntBuffer(faces.length * 6);
+
+        for (var i = 0; i < faces.length; i++) {
+            var normal = new Vector3f(faces[i][0], faces[i][1], faces[i][2]);
+            var tangent = new Vector3f(faces[i][3], faces[i][4], faces[i][5]);
+            var biTangent = normal.cross(tangent, new Vector3f());
+
+            for (var j = 0; j < 4; j++) {
+                var u = corners[j * 2];
+                var v = corners[j * 2 + 1];
+                var position = new Vector3f(normal).fma(u, tangent).fma(v, biTangent).mul(0.5f);
+                interleaved.put(position.x).put(position.y).put(position.z)
+                        .put(normal.x).put(normal.y).put(normal.z)
+                        .put(tangent.x).put(tangent.y).put(tangent.z)
+                        .put(biTangent.x).put(biTangent.y).put(biTangent.z)
+                        .put((u + 1) / 2).put((1 - v) / 2);
+            }
+
+            var base = i * 4;
+            indices.put(base).put(base + 1).put(base + 2).put(base + 2).put(base + 3).put(base);
+        }
+
+        indices.flip();
+        var material = new ModelData.Material(textureId, null, null, ModelData.Material.DEFAULT_COLOR, 1, 0);
+        return new ModelData(modelId, List.of(new ModelData.MeshData(vertices, indices, vertexCount, 0)), List.of(material), null);
+    }
 
-        // Assimp may not calculate tangents with models that do not have texture coordinates. Just create empty values
-        if (biTangents.isEmpty()) biTangents = new ArrayList<>(Collections.nCopies(normals.size(), 0.0f));
-        return biTangents;
+    /**
+     * @return the {@link com.thepokecraftmod.renderer.impl.TextureCache} id the material expects the texture under
+     */
+    public static String getTextureId(Material material, TextureType type) {
+        return switch (type) {
+            case ALBEDO -> material.hashCode() + "-diffuse";
+            case NORMALS -> material.hashCode() + "-normal";
+            case ROUGHNESS -> material.hashCode() + "-roughnessMetallic";
+            default -> throw new RuntimeException("Unsupported texture type " + type);
+        };
     }
 
-    private static List<Float> processUvs(Mesh mesh) {
-        return mesh.uvs().stream()
-                .flatMap(vector3f -> Stream.of(vector3f.x, vector3f.y))
-                .toList();
+    private static ModelData.Material processMaterial(Material material) {
+        return new ModelData.Material(
+                getTextureId(material, TextureType.ALBEDO),
+                getTextureId(material, TextureType.NORMALS),
+                getTextureId(material, TextureType.ROUGHNESS),
+                new Vector4f(1, 1, 1, 1),
+                1,
+                1
+        );
     }
 
-    private static List<Float> processVertices(Mesh mesh) {
-        return mesh.positions().stream()
-                .flatMap(vector3f -> Stream.of(vector3f.x, vector3f.y, vector3f.z))
-                .toList();
+    private static ModelData.MeshData processMesh(Mesh mesh) {
+        var vertexCount = mesh.vertexCount();
+        var vertices = BufferUtils.createByteBuffer(vertexCount * VertexBufferStructure.SIZE_IN_BYTES);
+        var interleaved = vertices.asFloatBuffer();
+        var positions = mesh.positions();
+        var normals = mesh.normals();
+        var tangents = mesh.tangents();
+        var biTangents = mesh.biTangents();
+        var uvs = mesh.uvs();
+
+        for (var i = 0; i < vertexCount; i++) {
+            var vec3 = i * 3;
+            var vec2 = i * 2;
+            interleaved.put(positions.get(vec3)).put(positions.get(vec3 + 1)).put(positions.get(vec3 + 2))
+                    .put(normals.get(vec3)).put(normals.get(vec3 + 1)).put(normals.get(vec3 + 2))
+                    .put(tangents.get(vec3)).put(tangents.get(vec3 + 1)).put(tangents.get(vec3 + 2))
+                    .put(biTangents.get(vec3)).put(biTangents.get(vec3 + 1)).put(biTangents.get(vec3 + 2))
+                    .put(uvs.get(vec2)).put(uvs.get(vec2 + 1));
+        }
+
+        return new ModelData.MeshData(vertices, mesh.indices(), vertexCount, mesh.material());
     }
+
+    private record BakeKey(int bakeRate, ModelData.JointFormat jointFormat) {}
 }
@@ -4,6 +4,10 @@ import org.joml.Matrix4f;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class RksEntity {
 
     private final String id;
@@ -77,14 +81,69 @@ public class RksEntity {
     }
 
     public static class AnimationInstance {
+        /**
+         * How many clips, this one included, can be blended into one pose
+         */
+        public static final int MAX_BLEND_CLIPS = 4;
+        private final List<AnimationInstance> layers = new ArrayList<>();
         public int animationIdx;
         public int currentFrame;
+        /**
+         * How far playback is between currentFrame and the frame after it, from 0 to 1. Skinning blends the two
+         */
+        public float frameBlend;
         public boolean playing;
+        /**
+         * How much this clip contributes to the pose when blended with layers. Weights don't need to sum to 1, the
+         * pose is normalised by their total
+         */
+        public float weight = 1;
 
         public AnimationInstance(boolean playing, int animationIdx, int currentFrame) {
             this.playing = playing;
             this.animationIdx = animationIdx;
             this.currentFrame = currentFrame;
         }
+
+        /**
+         * Blends another clip of the same model into this one, for crossfades or layered animations. The joint
+         * matrices are combined on the GPU, so a layer costs neither a bake nor CPU time. Layers of a layer are ignored
+         */
+        public void addLayer(AnimationInstance layer) {
+            if (this.layers.size() + 1 >= MAX_BLEND_CLIPS)
+                throw new RuntimeException("Can't blend more than " + MAX_BLEND_CLIPS + " clips");
+            this.layers.add(layer);
+        }
+
+        public void removeLayer(AnimationInstance layer) {
+            this.layers.remove(layer);
+        }
+
+        public List<AnimationInstance> getLayers() {
+            return Collections.unmodifiableList(this.layers);
+        }
+
+        public boolean isBlended() {
+            return !this.layers.isEmpty();
+        }
+
+        /**
+         * Sets a fractional playback position, wrapped to the clip
+         *
+         * @param frame      position in baked frames, see {@link com.thepokecraftmod.renderer.wrapper.core.Settings#getAnimationBakeRate()}
+         * @param frameCount the frame count of the playing clip
+         */
+        public void setFrame(float frame, int frameCount) {
+            var wrapped = frame - (float) Math.floor(frame / frameCount) * frameCount;
+            this.currentFrame = Math.min((int) wrapped, frameCount - 1);
+            this.frameBlend = Math.min(wrapped - this.currentFrame, 1);
+        }
+
+        /**
+         * Moves playback forwards by a fractional number of frames
+         */
+        public void advance(float frames, int frameCount) {
+            setFrame(this.currentFrame + this.frameBlend + frames, frameCount);
+        }
     }
 }
\ No newline at end of file
@@ -33,6 +33,10 @@ public class Fence {
         vkWaitForFences(this.device.vk(), this.vkFence, true, Long.MAX_VALUE);
     }
 
+    public boolean isSignaled() {
+        return vkGetFenceStatus(this.device.vk(), this.vkFence) == VK_SUCCESS;
+    }
+
     public long getVkFence() {
         return this.vkFence;
     }
@@ -68,7 +68,11 @@ public class Queue {
             super(device, getComputeQueueFamilyIndex(device), queueIndex);
         }
 
-        private static int getComputeQueueFamilyIndex(Device device) {
+        /**
+         * @return a compute only family when the device has one, so compute work can run next to graphics work.
+         * Otherwise the first compute capable family
+         */
+        public static int getComputeQueueFamilyIndex(Device device) {
             var index = -1;
             var physicalDevice = device.getPhysicalDevice();
             var queuePropsBuff = physicalDevice.getVkQueueFamilyProps();
@@ -76,10 +80,11 @@ public class Queue {
             for (var i = 0; i < numQueuesFamilies; i++) {
                 var props = queuePropsBuff.get(i);
                 var computeQueue = (props.queueFlags() & VK_QUEUE_COMPUTE_BIT) != 0;
-                if (computeQueue) {
+                if (computeQueue && (props.queueFlags() & VK_QUEUE_GRAPHICS_BIT) == 0) {
                     index = i;
                     break;
                 }
+                if (computeQueue && index < 0) index = i;
             }
 
             if (index < 0) throw new RuntimeException("Failed to get compute Queue family index");
@@ -93,7 +98,7 @@ public class Queue {
             super(device, getGraphicsQueueFamilyIndex(device), queueIndex);
         }
 
-        private static int getGraphicsQueueFamilyIndex(Device device) {
+        public static int getGraphicsQueueFamilyIndex(Device device) {
             var index = -1;
             var physicalDevice = device.getPhysicalDevice();
             var queuePropsBuff = physicalDevice.getVkQueueFamilyProps();
@@ -1,14 +1,29 @@
 package com.thepokecraftmod.renderer.wrapper.core;
 
+import java.nio.file.Path;
+
 public class Settings {
     private static Settings instance;
+    private final int animationBakeRate = 60;
+    private final int animationCacheSize = 8000000;
+    private final boolean batchedSkinning = true;
+    private final String cacheDirectory = "cache";
     private final float fov = 90;
+    private final boolean gpuAnimationEvaluation = false;
+    private final float keyframeAngularTolerance = 0.01f;
+    private final float keyframePositionTolerance = 0.0005f;
+    private final boolean keyframeReduction = true;
+    private final float keyframeScaleTolerance = 0.0002f;
+    private final boolean lazyAnimationBaking = false;
     private final int maxAnimWeightsBuffer = 1000000;
     private final int maxIndicesBuffer = 5000000;
     private final int maxJointMatricesBuffer = 20000000;
+    private final int maxKeyframesBuffer = 20000000;
     private final int maxMaterials = 500;
     private final int maxTextures = maxMaterials * 3;
     private final int maxVerticesBuffer = 20000000;
+    private final boolean modelCache = true;
+    private final boolean parallelAnimationBaking = true;
     private final String physDeviceName = "NVIDIA GeForce RTX 2070 SUPER";
     private final int requestedImages = 3;
     private final boolean shaderRecompilation = true;
@@ -16,9 +31,11 @@ public class Settings {
     private final boolean shadowDebug = false;
     private final int shadowMapSize = 2048;
     private final boolean shadowPcf = true;
+    private final boolean skinningTuning = true;
     private final int ups = 60;
     private final boolean vSync = false;
     private final boolean validate = true;
+    private final boolean vertexSkinning = false;
     private final float zFar = 0.1f;
     private final float zNear = 1000f;
 
@@ -27,10 +44,61 @@ public class Settings {
         return instance;
     }
 
+    /**
+     * @return frames per second animations are baked at. Skinning blends between neighbouring baked frames, so this
+     * can be well below {@link #getUpdatesPerSecond()} without visible stepping
+     */
+    public int getAnimationBakeRate() {
+        return this.animationBakeRate;
+    }
+
+    /**
+     * @return bytes at the end of the joint matrices buffer reserved for lazily baked animations
+     */
+    public int getAnimationCacheSize() {
+        return this.animationCacheSize;
+    }
+
+    /**
+     * When enabled, compute skinning covers every scheduled mesh with one dispatch reading a table of jobs, instead of
+     * a dispatch per mesh of every entity
+     */
+    public boolean isBatchedSkinning() {
+        return this.batchedSkinning;
+    }
+
+    /**
+     * @return directory the processed model cache and other per machine results are stored in
+     */
+    public Path getCacheDirectory() {
+        return Path.of(this.cacheDirectory);
+    }
+
     public float getFov() {
         return this.fov;
     }
 
+    /**
+     * @return maximum rotation error in degrees keyframe reduction may introduce
+     */
+    public float getKeyframeAngularTolerance() {
+        return this.keyframeAngularTolerance;
+    }
+
+    /**
+     * @return maximum translation error in model units keyframe reduction may introduce
+     */
+    public float getKeyframePositionTolerance() {
+        return this.keyframePositionTolerance;
+    }
+
+    /**
+     * @return maximum scale error keyframe reduction may introduce
+     */
+    public float getKeyframeScaleTolerance() {
+        return this.keyframeScaleTolerance;
+    }
+
     public int getMaxAnimWeightsBuffer() {
         return this.maxAnimWeightsBuffer;
     }
@@ -43,6 +111,10 @@ public class Settings {
         return this.maxJointMatricesBuffer;
     }
 
+    public int getMaxKeyframesBuffer() {
+        return this.maxKeyframesBuffer;
+    }
+
     public int getMaxMaterials() {
         return this.maxMaterials;
     }
@@ -83,6 +155,60 @@ public class Settings {
         return this.zNear;
     }
 
+    /**
+     * When enabled, keyframes are uploaded as is and joint matrices are evaluated by a compute shader every frame
+     * instead of being baked. Takes priority over {@link #isLazyAnimationBaking()}
+     */
+    public boolean isGpuAnimationEvaluation() {
+        return this.gpuAnimationEvaluation;
+    }
+
+    /**
+     * When enabled, keys of imported animations which interpolation rebuilds within the keyframe tolerances are dropped
+     */
+    public boolean isKeyframeReduction() {
+        return this.keyframeReduction;
+    }
+
+    /**
+     * When enabled, animations are baked the first time they are played instead of when the model is loaded
+     */
+    public boolean isLazyAnimationBaking() {
+        return this.lazyAnimationBaking;
+    }
+
+    /**
+     * When enabled, processed models are stored in {@link #getCacheDirectory()} and later loads of unchanged source
+     * files skip Assimp and animation baking
+     */
+    public boolean isModelCache() {
+        return this.modelCache;
+    }
+
+    /**
+     * When enabled, animations baked at load time are split into runs of frames baked on the common fork/join pool
+     */
+    public boolean isParallelAnimationBaking() {
+        return this.parallelAnimationBaking;
+    }
+
+    /**
+     * When enabled, the workgroup size and load width of compute skinning are benchmarked the first time a device is
+     * used and the fastest is cached in {@link #getCacheDirectory()}. Otherwise, 32 threads with scalar loads are used
+     */
+    public boolean isSkinningTuning() {
+        return this.skinningTuning;
+    }
+
+    /**
+     * When enabled, animated entities are skinned in the vertex shader from the shared bind pose vertices instead of
+     * a compute shader writing a skinned copy of every mesh for every entity. Baked clips then play every frame, the
+     * animation LOD policy only limits how often palettes are evaluated and blended
+     */
+    public boolean isVertexSkinning() {
+        return this.vertexSkinning;
+    }
+
     public boolean isShaderRecompilation() {
         return this.shaderRecompilation;
     }
@@ -7,10 +7,12 @@ import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.util.vma.VmaAllocationCreateInfo;
 import org.lwjgl.vulkan.VkBufferCreateInfo;
 
+import java.util.Arrays;
 import java.util.function.Function;
 
 import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK11.VK_SHARING_MODE_CONCURRENT;
 import static org.lwjgl.vulkan.VK11.VK_SHARING_MODE_EXCLUSIVE;
 
 public class VkBuffer {
@@ -29,6 +31,18 @@ public class VkBuffer {
     }
 
     public VkBuffer(Device device, long size, int bufferUsage, int memoryUsage, int requiredFlags, Function<MemoryStack, Integer> pNext) {
+        this(device, size, bufferUsage, memoryUsage, requiredFlags, pNext, null);
+    }
+
+    /**
+     * Creates a buffer used by every queue family given without ownership transfers. Stays exclusive when they are all
+     * the same family
+     */
+    public VkBuffer(Device device, long size, int bufferUsage, int memoryUsage, int requiredFlags, int[] queueFamilyIndices) {
+        this(device, size, bufferUsage, memoryUsage, requiredFlags, stack -> 0, queueFamilyIndices);
+    }
+
+    private VkBuffer(Device device, long size, int bufferUsage, int memoryUsage, int requiredFlags, Function<MemoryStack, Integer> pNext, int[] queueFamilyIndices) {
         try (var stack = MemoryStack.stackPush()) {
             this.device = device;
             this.requestedSize = size;
@@ -38,6 +52,9 @@ public class VkBuffer {
                     .usage(bufferUsage)
                     .sharingMode(VK_SHARING_MODE_EXCLUSIVE)
                     .pNext(pNext.apply(stack));
+            if (queueFamilyIndices != null && Arrays.stream(queueFamilyIndices).distinct().count() > 1)
+                bufferCreateInfo.sharingMode(VK_SHARING_MODE_CONCURRENT)
+                        .pQueueFamilyIndices(stack.ints(Arrays.stream(queueFamilyIndices).distinct().toArray()));
 
             var allocInfo = VmaAllocationCreateInfo.calloc(stack)
                     .requiredFlags(requiredFlags)
@@ -36,6 +36,7 @@ public class ComputePipeline implements VkWrapper<Long> {
                     .stage(shaderModule.shaderStage())
                     .module(shaderModule.handle())
                     .pName(main);
+            if (shaderModule.constants() != null) shaderStage.pSpecializationInfo(shaderModule.constants().specInfo);
 
             VkPushConstantRange.Buffer pushConstantRanges = null;
             if (creationInfo.pushConstantsSize() > 0) pushConstantRanges = VkPushConstantRange.calloc(1, stack)
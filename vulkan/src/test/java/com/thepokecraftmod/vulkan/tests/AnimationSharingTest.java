@@ -0,0 +1,54 @@
+package com.thepokecraftmod.vulkan.tests;
+
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.AnimationRegistry;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Loads the test model as several variants, each with its own {@link com.thepokecraftmod.rks.model.animation.Skeleton},
+ * takes their animations from an {@link AnimationRegistry} and checks every variant gets the same clips, which are all
+ * dropped once every variant released them.
+ */
+public class AnimationSharingTest {
+    private static final int VARIANTS = 4;
+
+    @Test
+    public void variantsShareClips() {
+        var registry = new AnimationRegistry();
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var variants = new ArrayList<List<Animation>>();
+        // The main animation can be a randomly picked variant, so every model variant is given the same files
+        var files = new LinkedHashMap<String, String>();
+        for (var entry : AssimpModelLoader.readConfig(locator).animations.get(AnimationGroup.FLYING).entrySet())
+            files.put(entry.getKey(), entry.getValue().getMainAnimation());
+
+        for (var i = 0; i < VARIANTS; i++) {
+            var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+            var animations = new ArrayList<Animation>();
+            for (var file : files.entrySet())
+                animations.add(registry.acquire(file.getKey(), locator.getFileBuffer(file.getValue()), model.skeleton(), null));
+
+            variants.add(animations);
+        }
+
+        var first = variants.get(0);
+        assertEquals(first.size(), registry.size(), "clips decoded more than once");
+        for (var animations : variants)
+            for (var i = 0; i < animations.size(); i++) assertSame(first.get(i), animations.get(i));
+
+        for (var animations : variants)
+            for (var animation : animations) registry.release(animation);
+        assertEquals(0, registry.size(), "animations left after releasing every variant");
+    }
+}
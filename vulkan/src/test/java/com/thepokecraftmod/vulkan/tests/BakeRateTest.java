@@ -0,0 +1,97 @@
+package com.thepokecraftmod.vulkan.tests;
+
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.SkeletonEvaluator;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Bakes every animation of the test model, plays it back at 60 updates per second blending neighbouring frames the way
+ * animations_comp.glsl does and compares the skinned vertex positions to sampling the animation directly at each
+ * update. Blending must always beat holding the last baked frame, and baking at the update rate must be exact.
+ */
+public class BakeRateTest {
+    private static final int UPDATES_PER_SECOND = 60;
+    private static final float EPSILON = 1e-4f;
+
+    @ParameterizedTest
+    @ValueSource(ints = {60, 30, 20, 15})
+    public void blendingTracksSampling(int bakeRate) {
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+        var jointCount = model.skeleton().bones.length;
+        var exact = new float[jointCount * SkeletonEvaluator.MATRIX_FLOATS];
+        var exactMatrix = new Matrix4f();
+        var blendedMatrix = new Matrix4f();
+        var nextMatrix = new Matrix4f();
+        var steppedMatrix = new Matrix4f();
+        var exactPosition = new Vector3f();
+        var blendedPosition = new Vector3f();
+        var steppedPosition = new Vector3f();
+        var maxPositionError = 0f;
+        var positionErrorSum = 0d;
+        var steppedErrorSum = 0d;
+
+        for (var entry : model.config().animations.get(AnimationGroup.FLYING).entrySet()) {
+            var buffer = locator.getFileBuffer(entry.getValue().getMainAnimation());
+            var animation = new Animation(entry.getKey(), com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(buffer), model.skeleton());
+            var evaluator = new SkeletonEvaluator(animation);
+            var ticksPerFrame = animation.ticksPerSecond / bakeRate;
+            var frameCount = (int) Math.ceil(animation.animationDuration / ticksPerFrame);
+            var frames = ModelProcessor.bakeFrames(animation, frameCount, ticksPerFrame, ModelData.JointFormat.MAT4).asFloatBuffer();
+
+            var updates = (int) (animation.animationDuration / animation.ticksPerSecond * UPDATES_PER_SECOND);
+            for (var update = 0; update < updates; update++) {
+                var time = update * animation.ticksPerSecond / UPDATES_PER_SECOND;
+                evaluator.evaluate(time, exact, 0);
+                var frame = time / ticksPerFrame;
+                var currentFrame = Math.min((int) frame, frameCount - 1);
+                var nextFrame = (currentFrame + 1) % frameCount;
+                var blend = frame - currentFrame;
+
+                for (var mesh : model.meshes()) {
+                    var positions = mesh.positions();
+                    for (var bone : mesh.bones()) {
+                        exactMatrix.set(exact, bone.id * SkeletonEvaluator.MATRIX_FLOATS);
+                        blend(frames, (currentFrame * jointCount + bone.id) * 16, (nextFrame * jointCount + bone.id) * 16, blend, blendedMatrix, nextMatrix);
+                        steppedMatrix.set((currentFrame * jointCount + bone.id) * 16, frames);
+
+                        for (var weight : bone.weights) {
+                            var vertex = weight.vertexId * 3;
+                            exactPosition.set(positions.get(vertex), positions.get(vertex + 1), positions.get(vertex + 2));
+                            blendedPosition.set(exactPosition);
+                            steppedPosition.set(exactPosition);
+                            exactMatrix.transformPosition(exactPosition);
+                            blendedMatrix.transformPosition(blendedPosition);
+                            steppedMatrix.transformPosition(steppedPosition);
+                            var error = exactPosition.distance(blendedPosition);
+                            maxPositionError = Math.max(maxPositionError, error);
+                            positionErrorSum += error;
+                            steppedErrorSum += exactPosition.distance(steppedPosition);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bakeRate == UPDATES_PER_SECOND) assertTrue(maxPositionError <= EPSILON, "baking at the update rate moved vertices by " + maxPositionError);
+        else assertTrue(positionErrorSum < steppedErrorSum, "blending is no closer than holding frames: " + positionErrorSum + " >= " + steppedErrorSum);
+    }
+
+    // Same component wise blend of the two frames' matrices the skinning shader does
+    private static void blend(FloatBuffer frames, int current, int next, float factor, Matrix4f dest, Matrix4f scratch) {
+        dest.set(current, frames).lerp(scratch.set(next, frames), factor);
+    }
+}
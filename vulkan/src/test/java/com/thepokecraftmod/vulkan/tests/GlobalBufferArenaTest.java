@@ -0,0 +1,77 @@
+package com.thepokecraftmod.vulkan.tests;
+
+import com.thepokecraftmod.renderer.impl.GlobalBufferArena;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the ranges a {@link GlobalBufferArena} hands out while allocating, freeing, merging freed ranges with their
+ * free neighbours, running out of space and freeing a range twice.
+ */
+public class GlobalBufferArenaTest {
+    private static final int START = 16;
+    private static final int END = 1003;
+    private static final int ALIGNMENT = 8;
+    // END is trimmed down to a whole number of aligned blocks
+    private static final int CAPACITY = 984;
+
+    @Test
+    public void allocatesAlignedRanges() {
+        var arena = new GlobalBufferArena("test", START, END, ALIGNMENT);
+        assertEquals(new GlobalBufferArena.Allocation(START, 104), arena.allocate(100));
+        assertEquals(new GlobalBufferArena.Allocation(120, 200), arena.allocate(200));
+        assertEquals(new GlobalBufferArena.Allocation(320, 56), arena.allocate(50));
+        assertEquals(0, arena.allocate(0).size(), "empty range takes space");
+        assertEquals(360, arena.getUsed());
+    }
+
+    @Test
+    public void reusesFreedRanges() {
+        var arena = new GlobalBufferArena("test", START, END, ALIGNMENT);
+        arena.allocate(100);
+        var freed = arena.allocate(200);
+        arena.allocate(50);
+
+        arena.free(freed);
+        assertEquals(new GlobalBufferArena.Allocation(freed.offset(), 152), arena.allocate(150));
+    }
+
+    @Test
+    public void mergesFreedRanges() {
+        var arena = new GlobalBufferArena("test", START, END, ALIGNMENT);
+        var a = arena.allocate(100);
+        var b = arena.allocate(200);
+        var c = arena.allocate(50);
+
+        // Freed out of order, so c merges with the free space after it, a with nothing and b with both sides
+        arena.free(c);
+        arena.free(a);
+        arena.free(b);
+        assertEquals(0, arena.getUsed());
+        assertEquals(new GlobalBufferArena.Allocation(START, CAPACITY), arena.allocate(CAPACITY));
+    }
+
+    @Test
+    public void rejectsAllocationsThatDoNotFit() {
+        var arena = new GlobalBufferArena("test", START, END, ALIGNMENT);
+        assertThrows(RuntimeException.class, () -> arena.allocate(CAPACITY + 1));
+
+        arena.allocate(CAPACITY);
+        assertThrows(RuntimeException.class, () -> arena.allocate(1));
+    }
+
+    @Test
+    public void rejectsInvalidFrees() {
+        var arena = new GlobalBufferArena("test", START, END, ALIGNMENT);
+        var freed = arena.allocate(64);
+        arena.free(freed);
+        assertThrows(RuntimeException.class, () -> arena.free(freed), "freeing a range twice");
+
+        var allocation = arena.allocate(64);
+        assertThrows(RuntimeException.class, () -> arena.free(new GlobalBufferArena.Allocation(allocation.offset() + 32, 64)), "freeing a range overlapping a free one");
+        assertThrows(RuntimeException.class, () -> arena.free(new GlobalBufferArena.Allocation(END, 8)), "freeing a range outside the arena");
+        assertEquals(64, arena.getUsed(), "rejected frees changed the arena");
+    }
+}
@@ -0,0 +1,88 @@
+package com.thepokecraftmod.vulkan.tests;
+
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Bakes every animation of the test model as {@link ModelData.JointFormat#MAT4} and
+ * {@link ModelData.JointFormat#AFFINE_3X4} and checks both skin vertices to the same positions. The affine format only
+ * drops the last matrix row, so the difference must stay at float rounding level.
+ */
+public class JointFormatTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void affineMatchesFullMatrices() {
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+        var jointCount = model.skeleton().bones.length;
+        var fullMatrix = new Matrix4f();
+        var affineMatrix = new Matrix4f();
+        var fullPosition = new Vector3f();
+        var affinePosition = new Vector3f();
+
+        for (var entry : model.config().animations.get(AnimationGroup.FLYING).entrySet()) {
+            var buffer = locator.getFileBuffer(entry.getValue().getMainAnimation());
+            var animation = new Animation(entry.getKey(), com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(buffer), model.skeleton());
+            var frameCount = (int) animation.animationDuration;
+            var full = ModelProcessor.bakeFrames(animation, frameCount, ModelData.JointFormat.MAT4).asFloatBuffer();
+            var affine = ModelProcessor.bakeFrames(animation, frameCount, ModelData.JointFormat.AFFINE_3X4).asFloatBuffer();
+            var maxLastRowError = 0f;
+            var maxPositionError = 0f;
+
+            for (var frame = 0; frame < frameCount; frame++) {
+                for (var joint = 0; joint < jointCount; joint++) {
+                    fullMatrix.set((frame * jointCount + joint) * 16, full);
+                    maxLastRowError = Math.max(maxLastRowError, Math.abs(fullMatrix.m03()));
+                    maxLastRowError = Math.max(maxLastRowError, Math.abs(fullMatrix.m13()));
+                    maxLastRowError = Math.max(maxLastRowError, Math.abs(fullMatrix.m23()));
+                    maxLastRowError = Math.max(maxLastRowError, Math.abs(fullMatrix.m33() - 1));
+                }
+
+                // Only vertices a joint actually influences can be affected by its matrix
+                for (var mesh : model.meshes()) {
+                    var positions = mesh.positions();
+                    for (var bone : mesh.bones()) {
+                        var index = frame * jointCount + bone.id;
+                        fullMatrix.set(index * 16, full);
+                        setAffine(affineMatrix, affine, index * 12);
+
+                        for (var weight : bone.weights) {
+                            var vertex = weight.vertexId * 3;
+                            fullPosition.set(positions.get(vertex), positions.get(vertex + 1), positions.get(vertex + 2));
+                            affinePosition.set(fullPosition);
+                            fullMatrix.transformProject(fullPosition);
+                            affineMatrix.transformPosition(affinePosition);
+                            maxPositionError = Math.max(maxPositionError, fullPosition.distance(affinePosition));
+                        }
+                    }
+                }
+            }
+
+            assertTrue(maxLastRowError <= EPSILON, animation.name + " has a last row off by " + maxLastRowError);
+            assertTrue(maxPositionError <= EPSILON, animation.name + " moved vertices by " + maxPositionError);
+        }
+    }
+
+    // The affine rows are stored row major, the Matrix4f setter takes its arguments column by column
+    private static void setAffine(Matrix4f dest, FloatBuffer rows, int index) {
+        dest.set(
+                rows.get(index), rows.get(index + 4), rows.get(index + 8), 0,
+                rows.get(index + 1), rows.get(index + 5), rows.get(index + 9), 0,
+                rows.get(index + 2), rows.get(index + 6), rows.get(index + 10), 0,
+                rows.get(index + 3), rows.get(index + 7), rows.get(index + 11), 1
+        );
+    }
+}
@@ -0,0 +1,84 @@
+package com.thepokecraftmod.vulkan.tests;
+
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.KeyframeReduction;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Loads every animation of the test model with and without {@link KeyframeReduction#DEFAULT} and checks the reduced
+ * clips drop keys while keeping the skinned vertex positions close to the original.
+ */
+public class KeyframeReductionTest {
+    // The per joint tolerances add up down the joint hierarchy, so vertices can move further than any one of them
+    private static final float MAX_POSITION_ERROR = 0.005f;
+
+    @Test
+    public void reducedClipsStayWithinTolerance() {
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+        var jointCount = model.skeleton().bones.length;
+        var originalMatrix = new Matrix4f();
+        var reducedMatrix = new Matrix4f();
+        var originalPosition = new Vector3f();
+        var reducedPosition = new Vector3f();
+        var totalOriginalKeys = 0;
+        var totalReducedKeys = 0;
+
+        for (var entry : model.config().animations.get(AnimationGroup.FLYING).entrySet()) {
+            var raw = com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(locator.getFileBuffer(entry.getValue().getMainAnimation()));
+            var original = new Animation(entry.getKey(), raw, model.skeleton(), true);
+            var reduced = new Animation(entry.getKey(), raw, model.skeleton(), KeyframeReduction.DEFAULT);
+            var frameCount = (int) original.animationDuration;
+            var originalFrames = ModelProcessor.bakeFrames(original, frameCount, ModelData.JointFormat.MAT4).asFloatBuffer();
+            var reducedFrames = ModelProcessor.bakeFrames(reduced, frameCount, ModelData.JointFormat.MAT4).asFloatBuffer();
+            var maxPositionError = 0f;
+
+            for (var frame = 0; frame < frameCount; frame++) {
+                for (var mesh : model.meshes()) {
+                    var positions = mesh.positions();
+                    for (var bone : mesh.bones()) {
+                        var index = (frame * jointCount + bone.id) * 16;
+                        originalMatrix.set(index, originalFrames);
+                        reducedMatrix.set(index, reducedFrames);
+
+                        for (var weight : bone.weights) {
+                            var vertex = weight.vertexId * 3;
+                            originalPosition.set(positions.get(vertex), positions.get(vertex + 1), positions.get(vertex + 2));
+                            reducedPosition.set(originalPosition);
+                            originalMatrix.transformPosition(originalPosition);
+                            reducedMatrix.transformPosition(reducedPosition);
+                            maxPositionError = Math.max(maxPositionError, originalPosition.distance(reducedPosition));
+                        }
+                    }
+                }
+            }
+
+            var originalKeys = countKeys(original);
+            var reducedKeys = countKeys(reduced);
+            assertTrue(maxPositionError <= MAX_POSITION_ERROR, original.name + " moved vertices by " + maxPositionError);
+            assertTrue(reducedKeys <= originalKeys, original.name + " gained keys: " + originalKeys + " -> " + reducedKeys);
+            totalOriginalKeys += originalKeys;
+            totalReducedKeys += reducedKeys;
+        }
+
+        assertTrue(totalReducedKeys < totalOriginalKeys, "no keys dropped");
+    }
+
+    private static int countKeys(Animation animation) {
+        var keys = 0;
+        for (var node : animation.animationNodes)
+            if (node != null) keys += node.positionKeys.size() + node.rotationKeys.size() + node.scaleKeys.size();
+
+        return keys;
+    }
+}
@@ -9,6 +9,7 @@ import com.thepokecraftmod.rks.ModelLocator;
 import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
 import com.thepokecraftmod.rks.model.Model;
 import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.animation.AnimationRegistry;
 import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
 import com.thepokecraftmod.rks.model.texture.TextureType;
 import com.thepokecraftmod.vulkan.util.DebugWindow;
@@ -16,7 +17,6 @@ import com.thepokecraftmod.vulkan.util.TestModelLocator;
 import org.joml.Vector3f;
 import org.lwjgl.vulkan.VK10;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -59,7 +59,7 @@ public class Standalone {
 
 
         this.rayquaza = new RksEntity(id, id, new Vector3f(0.0f, 0.0f, 0.0f));
-        maxFrameMap.put(rayquaza, data.getAnimations().get(0).frames().size());
+        maxFrameMap.put(rayquaza, data.getAnimations().get(0).frameCount());
         rayquaza.getRotation().rotateY((float) Math.toRadians(-90.0f));
         rayquaza.setScale(1);
         rayquaza.updateModelMatrix();
@@ -122,10 +122,8 @@ public class Standalone {
         var animations = new ArrayList<Animation>();
         var flyingAnims = model.config().animations.get(AnimationGroup.FLYING);
         for (var entry : flyingAnims.entrySet()) {
-            var bytes = locator.getFile(entry.getValue().getMainAnimation());
-            var pAnimation = ByteBuffer.wrap(bytes);
-            var trAnimation = com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(pAnimation);
-            animations.add(new Animation(entry.getKey(), trAnimation, model.skeleton()));
+            var pAnimation = locator.getFileBuffer(entry.getValue().getMainAnimation());
+            animations.add(AnimationRegistry.getInstance().acquire(entry.getKey(), pAnimation, model.skeleton(), null));
         }
 
         return animations;
@@ -166,16 +164,17 @@ public class Standalone {
         else if (this.lightAngle > 180) this.lightAngle = 180;
         updateDirectionalLight();
 
+        // Baked frames can be further apart than updates, playback blends between them
+        var settings = Settings.getInstance();
+        var framesPerUpdate = settings.getAnimationBakeRate() / (float) settings.getUpdatesPerSecond();
         var entityAnimation = this.rayquaza.getAnimation();
         if (entityAnimation != null && entityAnimation.playing)
-            entityAnimation.currentFrame = Math.floorMod(entityAnimation.currentFrame + 1, maxFrameMap.get(rayquaza));
+            entityAnimation.advance(framesPerUpdate, maxFrameMap.get(rayquaza));
 
         if (jit != null) {
             entityAnimation = this.jit.getAnimation();
-            if (entityAnimation != null && entityAnimation.playing) {
-                var currentFrame = Math.floorMod(entityAnimation.currentFrame + 1, maxFrameMap.computeIfAbsent(jit, entity -> 0));
-                entityAnimation.currentFrame = currentFrame;
-            }
+            if (entityAnimation != null && entityAnimation.playing)
+                entityAnimation.advance(framesPerUpdate, maxFrameMap.computeIfAbsent(jit, entity -> 0));
         }
     }
 
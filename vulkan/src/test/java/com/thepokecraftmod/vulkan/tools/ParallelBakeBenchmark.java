@@ -0,0 +1,75 @@
+package com.thepokecraftmod.vulkan.tools;
+
+import com.thepokecraftmod.renderer.scene.ModelData;
+import com.thepokecraftmod.renderer.scene.ModelProcessor;
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Animation;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Bakes every animation of the test model serially and with {@link ModelProcessor#bakeFramesParallel(List, int, ModelData.JointFormat)}
+ * in both joint formats, checks the outputs are byte identical and reports the best time of several rounds after a
+ * warmup.
+ */
+public class ParallelBakeBenchmark {
+    private static final int BAKE_RATE = 60;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+        var animations = new ArrayList<Animation>();
+        for (var entry : model.config().animations.get(AnimationGroup.FLYING).entrySet()) {
+            var buffer = locator.getFileBuffer(entry.getValue().getMainAnimation());
+            animations.add(new Animation(entry.getKey(), com.thepokecraftmod.rks.model.animation.tranm.Animation.getRootAsAnimation(buffer), model.skeleton()));
+        }
+
+        System.out.printf("%d joints, %d nodes, %d clips, %d threads%n", model.skeleton().bones.length, model.skeleton().nodes.length, animations.size(), ForkJoinPool.getCommonPoolParallelism() + 1);
+        for (var jointFormat : ModelData.JointFormat.values()) {
+            var serialNanos = Long.MAX_VALUE;
+            var parallelNanos = Long.MAX_VALUE;
+            List<ByteBuffer> serial = null;
+            List<ByteBuffer> parallel = null;
+
+            for (var i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+                var start = System.nanoTime();
+                serial = bakeSerial(animations, jointFormat);
+                var serialRound = System.nanoTime() - start;
+                start = System.nanoTime();
+                parallel = ModelProcessor.bakeFramesParallel(animations, BAKE_RATE, jointFormat);
+                var parallelRound = System.nanoTime() - start;
+
+                if (i < WARMUP_ROUNDS) continue;
+                serialNanos = Math.min(serialNanos, serialRound);
+                parallelNanos = Math.min(parallelNanos, parallelRound);
+            }
+
+            for (var i = 0; i < serial.size(); i++)
+                if (serial.get(i).compareTo(parallel.get(i)) != 0)
+                    throw new RuntimeException("Parallel bake of " + animations.get(i).name + " differs from the serial one");
+
+            System.out.printf("%s: serial %.2f ms, parallel %.2f ms, %.2fx, results identical%n",
+                    jointFormat, serialNanos / 1e6, parallelNanos / 1e6, serialNanos / (double) parallelNanos);
+        }
+    }
+
+    private static List<ByteBuffer> bakeSerial(List<Animation> animations, ModelData.JointFormat jointFormat) {
+        var frames = new ArrayList<ByteBuffer>(animations.size());
+        for (var animation : animations) {
+            var ticksPerFrame = animation.ticksPerSecond / BAKE_RATE;
+            var frameCount = (int) Math.ceil((BAKE_RATE / animation.ticksPerSecond) * animation.animationDuration);
+            frames.add(ModelProcessor.bakeFrames(animation, frameCount, ticksPerFrame, jointFormat));
+        }
+
+        return frames;
+    }
+}
@@ -0,0 +1,156 @@
+package com.thepokecraftmod.vulkan.tools;
+
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.animation.Keyframes;
+import com.thepokecraftmod.rks.model.animation.TranmKeyframes;
+import com.thepokecraftmod.rks.model.animation.TranmUtil;
+import com.thepokecraftmod.rks.model.animation.TransformStorage;
+import com.thepokecraftmod.rks.model.animation.tranm.*;
+import com.thepokecraftmod.rks.model.config.animation.AnimationGroup;
+import com.thepokecraftmod.vulkan.util.TestModelLocator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.lwjgl.assimp.Assimp.aiProcess_LimitBoneWeights;
+
+/**
+ * Compares the per key quaternion decode against the batch one on every rotation track of the test model's animations.
+ * Measures the bare decode, {@link TranmUtil#packedToQuat(short, short, short)} against
+ * {@link TranmUtil#packedToQuats(ByteBuffer, int, int, float[], int)}, and whole tracks, the
+ * {@link TranmUtil#processDynamicQuatTrack(DynamicQuatTrack, TransformStorage)} style path against
+ * {@link TranmKeyframes#decode()}. Checks both give bit identical keys and reports the best of several rounds after a
+ * warmup, so the JIT has compiled both paths.
+ */
+public class QuatDecodeBenchmark {
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        var locator = new TestModelLocator("testModels/rayquaza");
+        var model = AssimpModelLoader.load("model.gltf", locator, aiProcess_LimitBoneWeights);
+        var bones = new ArrayList<Bone>();
+        for (var entry : model.config().animations.get(AnimationGroup.FLYING).values()) {
+            var anim = Animation.getRootAsAnimation(locator.getFileBuffer(entry.getMainAnimation())).anim();
+            for (var i = 0; i < anim.bonesLength(); i++)
+                if (anim.bones(i).rotType() != QuatTrack.NONE) bones.add(anim.bones(i));
+        }
+
+        var keyCount = 0;
+        for (var bone : bones) keyCount += decodePerKey(bone).size();
+        System.out.printf("%d rotation tracks, %d keys%n", bones.size(), keyCount);
+
+        var packed = ByteBuffer.allocateDirect(keyCount * 6).order(ByteOrder.LITTLE_ENDIAN);
+        for (var bone : bones) putPacked(bone, packed);
+        var perKey = new float[keyCount * 4];
+        var batch = new float[keyCount * 4];
+        var perKeyNanos = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+        var batchNanos = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+
+        for (var i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            var start = System.nanoTime();
+            decodeAllPerKey(packed, perKey);
+            var perKeyDecode = System.nanoTime() - start;
+            start = System.nanoTime();
+            TranmUtil.packedToQuats(packed, 0, keyCount, batch, 0);
+            var batchDecode = System.nanoTime() - start;
+            start = System.nanoTime();
+            decodeAllPerKey(bones);
+            var perKeyTracks = System.nanoTime() - start;
+            start = System.nanoTime();
+            decodeAllBatch(bones);
+            var batchTracks = System.nanoTime() - start;
+
+            if (i < WARMUP_ROUNDS) continue;
+            perKeyNanos[0] = Math.min(perKeyNanos[0], perKeyDecode);
+            batchNanos[0] = Math.min(batchNanos[0], batchDecode);
+            perKeyNanos[1] = Math.min(perKeyNanos[1], perKeyTracks);
+            batchNanos[1] = Math.min(batchNanos[1], batchTracks);
+        }
+
+        for (var i = 0; i < perKey.length; i++)
+            if (Float.floatToRawIntBits(perKey[i]) != Float.floatToRawIntBits(batch[i]))
+                throw new RuntimeException("Batch decode differs at component " + i + ": " + perKey[i] + " != " + batch[i]);
+        for (var bone : bones) compare(decodePerKey(bone), TranmKeyframes.rotation(bone).decode());
+
+        System.out.printf("decode: per key %.2f ns/key, batch %.2f ns/key%n", perKeyNanos[0] / (double) keyCount, batchNanos[0] / (double) keyCount);
+        System.out.printf("tracks: per key %.2f ns/key, batch %.2f ns/key%n", perKeyNanos[1] / (double) keyCount, batchNanos[1] / (double) keyCount);
+        System.out.println("results bit identical");
+    }
+
+    private static void decodeAllPerKey(ByteBuffer packed, float[] dest) {
+        for (var i = 0; i < dest.length / 4; i++) {
+            var key = i * 6;
+            var quaternion = TranmUtil.packedToQuat(packed.getShort(key), packed.getShort(key + 2), packed.getShort(key + 4));
+            dest[i * 4] = quaternion.x;
+            dest[i * 4 + 1] = quaternion.y;
+            dest[i * 4 + 2] = quaternion.z;
+            dest[i * 4 + 3] = quaternion.w;
+        }
+    }
+
+    private static void putPacked(Bone bone, ByteBuffer dest) {
+        switch (bone.rotType()) {
+            case QuatTrack.DynamicQuatTrack -> {
+                var track = (DynamicQuatTrack) Objects.requireNonNull(bone.rot(new DynamicQuatTrack()));
+                for (var i = 0; i < track.vecLength(); i++) putPacked(track.vec(i), dest);
+            }
+            case QuatTrack.FixedQuatTrack -> putPacked(((FixedQuatTrack) Objects.requireNonNull(bone.rot(new FixedQuatTrack()))).vec(), dest);
+            case QuatTrack.Framed8QuatTrack -> {
+                var track = (Framed8QuatTrack) Objects.requireNonNull(bone.rot(new Framed8QuatTrack()));
+                for (var i = 0; i < track.vecLength(); i++) putPacked(track.vec(i), dest);
+            }
+            case QuatTrack.Framed16QuatTrack -> {
+                var track = (Framed16QuatTrack) Objects.requireNonNull(bone.rot(new Framed16QuatTrack()));
+                for (var i = 0; i < track.vecLength(); i++) putPacked(track.vec(i), dest);
+            }
+        }
+    }
+
+    private static void putPacked(Vec3s vec, ByteBuffer dest) {
+        dest.putShort((short) vec.x()).putShort((short) vec.y()).putShort((short) vec.z());
+    }
+
+    private static List<Keyframes> decodeAllPerKey(List<Bone> bones) {
+        var tracks = new ArrayList<Keyframes>(bones.size());
+        for (var bone : bones) tracks.add(decodePerKey(bone));
+        return tracks;
+    }
+
+    private static List<Keyframes> decodeAllBatch(List<Bone> bones) {
+        var tracks = new ArrayList<Keyframes>(bones.size());
+        for (var bone : bones) tracks.add(TranmKeyframes.rotation(bone).decode());
+        return tracks;
+    }
+
+    private static TransformStorage decodePerKey(Bone bone) {
+        var keys = new TransformStorage(4);
+        switch (bone.rotType()) {
+            case QuatTrack.DynamicQuatTrack ->
+                    TranmUtil.processDynamicQuatTrack((DynamicQuatTrack) Objects.requireNonNull(bone.rot(new DynamicQuatTrack())), keys);
+            case QuatTrack.FixedQuatTrack ->
+                    TranmUtil.processFixedQuatTrack((FixedQuatTrack) Objects.requireNonNull(bone.rot(new FixedQuatTrack())), keys);
+            case QuatTrack.Framed8QuatTrack ->
+                    TranmUtil.processFramed8QuatTrack((Framed8QuatTrack) Objects.requireNonNull(bone.rot(new Framed8QuatTrack())), keys);
+            case QuatTrack.Framed16QuatTrack ->
+                    TranmUtil.processFramed16QuatTrack((Framed16QuatTrack) Objects.requireNonNull(bone.rot(new Framed16QuatTrack())), keys);
+        }
+
+        return keys;
+    }
+
+    private static void compare(Keyframes expected, Keyframes actual) {
+        if (expected.size() != actual.size())
+            throw new RuntimeException("Key count differs: " + expected.size() + " != " + actual.size());
+
+        for (var i = 0; i < expected.size(); i++) {
+            if (expected.getTime(i) != actual.getTime(i)) throw new RuntimeException("Key time differs at key " + i);
+            for (var c = 0; c < 4; c++)
+                if (Float.floatToRawIntBits(expected.getValue(i, c)) != Float.floatToRawIntBits(actual.getValue(i, c)))
+                    throw new RuntimeException("Key value differs at key " + i + ": " + expected.getValue(i, c) + " != " + actual.getValue(i, c));
+        }
+    }
+}